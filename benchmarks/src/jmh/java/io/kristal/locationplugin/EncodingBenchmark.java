@@ -0,0 +1,185 @@
+/**
+ *
+ * EncodingBenchmark
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the compact message format, against the JSON messages it replaces, and of the track
+ * export. QualityReport prints the size of each format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+
+    static final int POINTS = 1024;
+    static final int BATCH_SIZE = 10;
+    static final long START_TIME = 1500000000000L;
+
+    private final double[] latitudes = new double[POINTS];
+    private final double[] longitudes = new double[POINTS];
+    private final float[] accuracies = new float[POINTS];
+    private Location[] fixes;
+    private int index = 0;
+    private long time = START_TIME;
+
+    private CompactFixEncoder compactEncoder;
+    private final List<JSONObject> batch = new ArrayList<>(BATCH_SIZE);
+
+    @Setup
+    public void setUp() {
+        fixes = createWalk();
+        for (int i = 0; i < POINTS; i++) {
+            latitudes[i] = fixes[i].getLatitude();
+            longitudes[i] = fixes[i].getLongitude();
+            accuracies[i] = fixes[i].getAccuracy();
+        }
+
+        compactEncoder = new CompactFixEncoder();
+    }
+
+    /**
+     * @return a random walk of POINTS fixes from a fixed seed, one per second
+     */
+    static Location[] createWalk() {
+        Random random = new Random(42);
+
+        Location[] walk = new Location[POINTS];
+        double latitude = 48.8566;
+        double longitude = 2.3522;
+        for (int i = 0; i < POINTS; i++) {
+            latitude += (random.nextDouble() - 0.5) * 0.0002;
+            longitude += (random.nextDouble() - 0.5) * 0.0002;
+
+            Location location = new Location("gps");
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setAccuracy(3 + random.nextFloat() * 20);
+            location.setTime(START_TIME + i * 1000L);
+            walk[i] = location;
+        }
+        return walk;
+    }
+
+    private void addNext() {
+        compactEncoder.add(latitudes[index], longitudes[index], accuracies[index], time += 1000);
+        index = (index + 1) & (POINTS - 1);
+    }
+
+    private Location next() {
+        Location location = fixes[index];
+        index = (index + 1) & (POINTS - 1);
+        return location;
+    }
+
+    @Benchmark
+    public String compactFix() {
+        addNext();
+        return compactEncoder.takePayload();
+    }
+
+    @Benchmark
+    public String compactBatch() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            addNext();
+        }
+        return compactEncoder.takePayload();
+    }
+
+    /**
+     * onLocationChanged message of one fix, as sent when the compact format is not requested
+     */
+    @Benchmark
+    public String jsonFix() {
+        return LocationMessageEncoder.encodeLocation(next()).toString();
+    }
+
+    /**
+     * onLocationsChanged message of a batch
+     */
+    @Benchmark
+    public String jsonBatch() {
+        batch.clear();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(LocationMessageEncoder.encodeLocationData(next()));
+        }
+        return LocationMessageEncoder.encodeLocations(batch).toString();
+    }
+
+    /**
+     * onCompactLocationsChanged message of one fix, to compare with jsonFix
+     */
+    @Benchmark
+    public String compactFixMessage() {
+        addNext();
+        return LocationMessageEncoder.encodeCompactLocations(compactEncoder.takePayload(), 1).toString();
+    }
+
+    /**
+     * onCompactLocationsChanged message of a batch, to compare with jsonBatch
+     */
+    @Benchmark
+    public String compactBatchMessage() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            addNext();
+        }
+        return LocationMessageEncoder.encodeCompactLocations(compactEncoder.takePayload(), BATCH_SIZE).toString();
+    }
+
+    /**
+     * Simplification and encoding of a track of POINTS points, as done by exportTrack
+     */
+    @Benchmark
+    public String trackExport() {
+        PolylineEncoder polyline = new PolylineEncoder(PolylineEncoder.DEFAULT_PRECISION);
+        TrackSimplifier simplifier = new TrackSimplifier(TrackSimplifier.DEFAULT_TOLERANCE, TrackSimplifier.DEFAULT_WINDOW, polyline);
+        for (int i = 0; i < POINTS; i++) {
+            simplifier.add(latitudes[i], longitudes[i]);
+        }
+        simplifier.finish();
+        return polyline.toString();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ * FanOutBenchmark
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Looper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of fanning a fix out from the single provider registration to the listeners of N fragments
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int fragments;
+
+    private LocationListener registration;
+    private Location fix;
+    private long received = 0;
+
+    @Setup
+    public void setUp() {
+        LocationSource source = new LocationSource() {
+            @Override
+            public void requestUpdates(String provider, long interval, LocationListener listener, Looper looper) {
+                registration = listener;
+            }
+
+            @Override
+            public void removeUpdates(LocationListener listener) {
+
+            }
+
+            @Override
+            public Location getLastKnownLocation(String provider) {
+                return null;
+            }
+
+            @Override
+            public boolean isProviderEnabled(String provider) {
+                return true;
+            }
+        };
+
+        ProviderMultiplexer multiplexer = new ProviderMultiplexer(source, Looper.getMainLooper(), new LocationMetrics());
+        for (int i = 0; i < fragments; i++) {
+            multiplexer.subscribe(new ProviderMultiplexer.Subscriber() {
+                @Override
+                public void onLocationChanged(Location location) {
+                    received++;
+                }
+
+                @Override
+                public void onProviderEnabled(String provider) {
+
+                }
+
+                @Override
+                public void onProviderDisabled(String provider) {
+
+                }
+            }, LocationManager.GPS_PROVIDER, 1000);
+        }
+
+        fix = new Location(LocationManager.GPS_PROVIDER);
+        fix.setLatitude(48.8566);
+        fix.setLongitude(2.3522);
+        fix.setAccuracy(5);
+    }
+
+    @Benchmark
+    public long fanOut() {
+        registration.onLocationChanged(fix);
+        return received;
+    }
+}
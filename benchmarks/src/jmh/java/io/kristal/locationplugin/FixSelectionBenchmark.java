@@ -0,0 +1,133 @@
+/**
+ *
+ * FixSelectionBenchmark
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking, selecting, fusing and smoothing one fix, over a walk mixing the three providers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FixSelectionBenchmark {
+
+    private static final int FIXES = 1024;
+    private static final float REQUIRED_ACCURACY = 50;
+
+    private final Location[] fixes = new Location[FIXES];
+    private int index = 0;
+    private long time = 0;
+
+    private HeuristicFusion heuristicFusion;
+    private WeightedFusion weightedFusion;
+    private KalmanFilter kalmanFilter;
+    // The walk is dated from the epoch, so that its fixes are all recent enough
+    private long maxAge;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        String[] providers = { LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER, LocationManager.PASSIVE_PROVIDER };
+
+        double latitude = 48.8566;
+        double longitude = 2.3522;
+        for (int i = 0; i < FIXES; i++) {
+            latitude += (random.nextDouble() - 0.5) * 0.0002;
+            longitude += (random.nextDouble() - 0.5) * 0.0002;
+
+            Location fix = new Location(providers[i % providers.length]);
+            fix.setLatitude(latitude);
+            fix.setLongitude(longitude);
+            fix.setAccuracy(3 + random.nextFloat() * 100);
+            fixes[i] = fix;
+        }
+
+        heuristicFusion = new HeuristicFusion();
+        weightedFusion = new WeightedFusion(WeightedFusion.DEFAULT_WINDOW, WeightedFusion.DEFAULT_SPEED);
+        kalmanFilter = new KalmanFilter();
+        maxAge = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the next fix of the walk, dated one second after the previous one
+     */
+    private Location next() {
+        Location fix = fixes[index];
+        index = (index + 1) & (FIXES - 1);
+        time += 1000;
+        fix.setTime(time);
+        return fix;
+    }
+
+    @Benchmark
+    public boolean isBetterLocation() {
+        Location fix = next();
+        return HeuristicFusion.isBetterLocation(fix, fixes[(index + FIXES / 2) & (FIXES - 1)]);
+    }
+
+    /**
+     * Check of a fix against the accuracy and age requested by startLocation, which about half of
+     * the walk is accurate enough to fulfill
+     */
+    @Benchmark
+    public boolean locationFulfillsRequirements() {
+        return LocationPlugin.locationFulfillsRequirements(next(), REQUIRED_ACCURACY, maxAge);
+    }
+
+    @Benchmark
+    public Location heuristicFusion() {
+        return heuristicFusion.add(next());
+    }
+
+    @Benchmark
+    public Location weightedFusion() {
+        return weightedFusion.add(next());
+    }
+
+    @Benchmark
+    public boolean kalmanFilter() {
+        Location fix = next();
+        return kalmanFilter.update(fix.getLatitude(), fix.getLongitude(), fix.getAccuracy(), fix.getTime());
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ * FragmentRegistryBenchmark
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of registering and unregistering a fragment, alone and with threads contending for the
+ * same registry
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class FragmentRegistryBenchmark {
+
+    private static final int KEYS = 64;
+
+    private final FragmentRegistry<Object, Object> registry = new FragmentRegistry<>();
+
+    @State(Scope.Thread)
+    public static class Fragments {
+        final Object[] fragments = new Object[KEYS];
+        int index = 0;
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < KEYS; i++) {
+                fragments[i] = new Object();
+            }
+        }
+
+        Object next() {
+            Object fragment = fragments[index];
+            index = (index + 1) & (KEYS - 1);
+            return fragment;
+        }
+    }
+
+    private Object putGetRemove(Fragments fragments) {
+        Object fragment = fragments.next();
+        registry.put(fragment, fragment);
+        registry.get(fragment);
+        return registry.remove(fragment);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object uncontended(Fragments fragments) {
+        return putGetRemove(fragments);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object contended(Fragments fragments) {
+        return putGetRemove(fragments);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ * FusionBenchmark
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of fusing one fix of the multi-provider streams of FixStreams, for both strategies.
+ * Their accuracy on the same streams is printed by QualityReport.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class FusionBenchmark {
+
+    static final String BEST = "best";
+    static final String WEIGHTED = "weighted";
+
+    @Param({ FixStreams.WALK, FixStreams.DRIVE, FixStreams.INDOOR })
+    public String stream;
+
+    @Param({ BEST, WEIGHTED })
+    public String strategy;
+
+    private Location[] fixes;
+    private int index = 0;
+    private LocationFusion fusion;
+
+    @Setup
+    public void setUp() {
+        fixes = FixStreams.create(stream).fixes;
+        fusion = create(strategy);
+    }
+
+    static LocationFusion create(String strategy) {
+        if (BEST.equals(strategy)) {
+            return new HeuristicFusion();
+        }
+        return new WeightedFusion(WeightedFusion.DEFAULT_WINDOW, WeightedFusion.DEFAULT_SPEED);
+    }
+
+    @Benchmark
+    public Location add() {
+        if (index == fixes.length) {
+            // Replay the stream from the start
+            index = 0;
+            fusion = create(strategy);
+        }
+        return fusion.add(fixes[index++]);
+    }
+}
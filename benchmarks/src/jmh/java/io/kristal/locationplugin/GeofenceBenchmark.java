@@ -0,0 +1,94 @@
+/**
+ *
+ * GeofenceBenchmark
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of evaluating one fix against N geofences of 50 to 450 m spread over a city-sized area
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GeofenceBenchmark {
+
+    private static final int FIXES = 1024;
+
+    @Param({ "10000", "100000" })
+    public int fences;
+
+    private GeofenceEngine engine;
+    private final double[] latitudes = new double[FIXES];
+    private final double[] longitudes = new double[FIXES];
+    private int index = 0;
+    private long time = 0;
+    private int transitions = 0;
+
+    private final GeofenceEngine.Sink sink = new GeofenceEngine.Sink() {
+        @Override
+        public void onTransition(String id, int transition) {
+            transitions++;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+
+        engine = new GeofenceEngine(GeofenceEngine.DEFAULT_CELL_SIZE);
+        for (int i = 0; i < fences; i++) {
+            engine.add(Integer.toString(i), 48.5 + random.nextDouble() * 0.5, 2 + random.nextDouble() * 0.7,
+                       50 + random.nextFloat() * 400, 0);
+        }
+
+        for (int i = 0; i < FIXES; i++) {
+            latitudes[i] = 48.5 + random.nextDouble() * 0.5;
+            longitudes[i] = 2 + random.nextDouble() * 0.7;
+        }
+    }
+
+    @Benchmark
+    public int evaluate() {
+        engine.evaluate(latitudes[index], longitudes[index], time += 1000, sink);
+        index = (index + 1) & (FIXES - 1);
+        return transitions;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ * QualityReport
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prints the figures the benchmarks do not time: how close the output of each stage is to what
+ * it approximates. Run with gradle quality.
+ */
+public final class QualityReport {
+
+    private QualityReport() {
+
+    }
+
+    public static void main(String[] args) {
+        printFusionAccuracy();
+        printMessageSizes();
+        printTrackExport();
+    }
+
+    /**
+     * Error of the location each fusion strategy returns, against the true position when the
+     * fix arrives, and rate of locations further from it than their accuracy.
+     * About a third of them should be, as accuracies are 68% radii.
+     */
+    private static void printFusionAccuracy() {
+        System.out.println("Fusion accuracy");
+        System.out.println();
+        System.out.println("| Stream | Strategy | Fixes | Mean error (m) | 95th percentile (m) | Mean accuracy (m) | Outside accuracy |");
+        System.out.println("|---|---|---|---|---|---|---|");
+
+        for (String name : FixStreams.NAMES) {
+            FixStreams stream = FixStreams.create(name);
+            for (String strategy : new String[] { FusionBenchmark.BEST, FusionBenchmark.WEIGHTED }) {
+                LocationFusion fusion = FusionBenchmark.create(strategy);
+
+                int count = stream.fixes.length;
+                double[] errors = new double[count];
+                double errorSum = 0;
+                double accuracySum = 0;
+                int outside = 0;
+                for (int i = 0; i < count; i++) {
+                    Location location = fusion.add(stream.fixes[i]);
+                    errors[i] = stream.error(i, location);
+                    errorSum += errors[i];
+                    accuracySum += location.getAccuracy();
+                    if (errors[i] > location.getAccuracy()) {
+                        outside++;
+                    }
+                }
+                Arrays.sort(errors);
+
+                System.out.println(String.format(Locale.US, "| %s | %s | %d | %.1f | %.1f | %.1f | %.0f%% |",
+                                                 name, strategy, count, errorSum / count, errors[(int) (count * 0.95)],
+                                                 accuracySum / count, 100.0 * outside / count));
+            }
+        }
+        System.out.println();
+    }
+
+    /**
+     * Size of the messages timed by EncodingBenchmark, in bytes of JSON text per fix, for the
+     * walk of EncodingBenchmark sent one fix or one batch at a time
+     */
+    private static void printMessageSizes() {
+        Location[] walk = EncodingBenchmark.createWalk();
+
+        System.out.println("Message size");
+        System.out.println();
+        System.out.println("| Format | Fixes per message | Bytes per fix |");
+        System.out.println("|---|---|---|");
+
+        for (int batchSize : new int[] { 1, EncodingBenchmark.BATCH_SIZE }) {
+            long jsonBytes = 0;
+            long compactBytes = 0;
+            CompactFixEncoder compactEncoder = new CompactFixEncoder();
+            List<JSONObject> batch = new ArrayList<>(batchSize);
+
+            for (int start = 0; start + batchSize <= walk.length; start += batchSize) {
+                batch.clear();
+                for (int i = start; i < start + batchSize; i++) {
+                    Location location = walk[i];
+                    batch.add(LocationMessageEncoder.encodeLocationData(location));
+                    compactEncoder.add(location.getLatitude(), location.getLongitude(), location.getAccuracy(), location.getTime());
+                }
+
+                JSONObject json = batchSize == 1
+                                  ? LocationMessageEncoder.encodeLocation(batch.get(0))
+                                  : LocationMessageEncoder.encodeLocations(batch);
+                JSONObject compact = LocationMessageEncoder.encodeCompactLocations(compactEncoder.takePayload(), batchSize);
+                jsonBytes += size(json);
+                compactBytes += size(compact);
+            }
+
+            int fixes = walk.length / batchSize * batchSize;
+            System.out.println(String.format(Locale.US, "| JSON | %d | %.1f |", batchSize, (double) jsonBytes / fixes));
+            System.out.println(String.format(Locale.US, "| compact | %d | %.1f |", batchSize, (double) compactBytes / fixes));
+        }
+        System.out.println();
+    }
+
+    private static int size(JSONObject message) {
+        return message.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Compression of the track of TrackExportBenchmark at each tolerance, and maximum distance
+     * between a recorded point and the exported track, before and after rounding to the precision
+     */
+    private static void printTrackExport() {
+        System.out.println("Track export");
+        System.out.println();
+        System.out.println("| Tolerance (m) | Points | Kept | Ratio | Polyline bytes per point | Max deviation (m) | Max decoded deviation (m) |");
+        System.out.println("|---|---|---|---|---|---|---|");
+
+        File file = null;
+        TrackRecorder recorder = null;
+        try {
+            file = File.createTempFile("track", ".bin");
+            recorder = new TrackRecorder(file, TrackExportBenchmark.POINTS);
+            FixStreams.recordTrack(recorder, 1, TrackExportBenchmark.POINTS);
+
+            for (double tolerance : new double[] { 1, 10, 25 }) {
+                SimplifiedTrack track = new SimplifiedTrack(recorder, tolerance, PolylineEncoder.DEFAULT_PRECISION);
+                System.out.println(String.format(Locale.US, "| %.0f | %d | %d | %.1f:1 | %.2f | %.2f | %.2f |",
+                                                 tolerance, track.recordedPoints, track.keptPoints,
+                                                 (double) track.recordedPoints / track.keptPoints,
+                                                 (double) track.polyline.length() / track.recordedPoints,
+                                                 track.maxDeviation(), track.maxDecodedDeviation()));
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+        finally {
+            if (recorder != null) {
+                recorder.close();
+            }
+            if (file != null) {
+                file.delete();
+            }
+        }
+        System.out.println();
+    }
+}
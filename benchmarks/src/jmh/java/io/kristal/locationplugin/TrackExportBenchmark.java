@@ -0,0 +1,88 @@
+/**
+ *
+ * TrackExportBenchmark
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+package io.kristal.locationplugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of exportTrack on a recorded track of 2^20 points, about 12 days at one fix per
+ * second: reading the track file, simplifying and encoding, in recorded points per second.
+ * The compression and deviation at each tolerance are printed by QualityReport.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TrackExportBenchmark {
+
+    static final int POINTS = 1 << 20;
+
+    @Param({ "1", "10", "25" })
+    public double tolerance;
+
+    private File file;
+    private TrackRecorder recorder;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("track", ".bin");
+        recorder = new TrackRecorder(file, POINTS);
+        FixStreams.recordTrack(recorder, 1, POINTS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        recorder.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public String export() {
+        PolylineEncoder polyline = new PolylineEncoder(PolylineEncoder.DEFAULT_PRECISION);
+        TrackSimplifier simplifier = new TrackSimplifier(tolerance, TrackSimplifier.DEFAULT_WINDOW, polyline);
+        for (long index = recorder.firstIndex(), end = recorder.endIndex(); index < end; index++) {
+            simplifier.add(recorder.getLatitude(index), recorder.getLongitude(index));
+        }
+        simplifier.finish();
+        return polyline.toString();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ *
+ * Activity
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package android.app;
+
+import android.content.Context;
+
+import java.io.File;
+
+/**
+ * JVM stand-in of the Android Activity, sharing the directories of its application
+ */
+public class Activity extends Context {
+
+    private final Application application;
+    private boolean finishing = false;
+
+    public Activity(Application application) {
+        super(application.getCacheDir().getParentFile());
+        this.application = application;
+    }
+
+    public final Application getApplication() {
+        return application;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return application;
+    }
+
+    public boolean isFinishing() {
+        return finishing;
+    }
+
+    public void finish() {
+        finishing = true;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ * Application
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package android.app;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * JVM stand-in of the Android Application, dispatching the activity lifecycle on demand
+ */
+public class Application extends Context {
+
+    public interface ActivityLifecycleCallbacks {
+        void onActivityCreated(Activity activity, Bundle savedInstanceState);
+        void onActivityStarted(Activity activity);
+        void onActivityResumed(Activity activity);
+        void onActivityPaused(Activity activity);
+        void onActivityStopped(Activity activity);
+        void onActivitySaveInstanceState(Activity activity, Bundle outState);
+        void onActivityDestroyed(Activity activity);
+    }
+
+    private final List<ActivityLifecycleCallbacks> callbacks = new CopyOnWriteArrayList<>();
+
+    public Application(File root) {
+        super(root);
+    }
+
+    public void registerActivityLifecycleCallbacks(ActivityLifecycleCallbacks callback) {
+        callbacks.add(callback);
+    }
+
+    public void unregisterActivityLifecycleCallbacks(ActivityLifecycleCallbacks callback) {
+        callbacks.remove(callback);
+    }
+
+    /**
+     * Stand-in only: tells the callbacks the activity was resumed
+     */
+    public void dispatchActivityResumed(Activity activity) {
+        for (ActivityLifecycleCallbacks callback : callbacks) {
+            callback.onActivityResumed(activity);
+        }
+    }
+
+    /**
+     * Stand-in only: tells the callbacks the activity was paused
+     */
+    public void dispatchActivityPaused(Activity activity) {
+        for (ActivityLifecycleCallbacks callback : callbacks) {
+            callback.onActivityPaused(activity);
+        }
+    }
+
+    /**
+     * Stand-in only: tells the callbacks the activity was destroyed
+     */
+    public void dispatchActivityDestroyed(Activity activity) {
+        for (ActivityLifecycleCallbacks callback : callbacks) {
+            callback.onActivityDestroyed(activity);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ *
+ * Context
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package android.content;
+
+import android.content.pm.PackageManager;
+
+import java.io.File;
+
+/**
+ * JVM stand-in of the Android Context, with its directories under a given root and every
+ * permission granted unless revoked
+ */
+public abstract class Context {
+
+    public static final String LOCATION_SERVICE = "location";
+
+    private final File cacheDir;
+    private final File filesDir;
+    private boolean permissionsGranted = true;
+
+    protected Context(File root) {
+        cacheDir = new File(root, "cache");
+        filesDir = new File(root, "files");
+        cacheDir.mkdirs();
+        filesDir.mkdirs();
+    }
+
+    public Object getSystemService(String name) {
+        return null;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    public File getFilesDir() {
+        return filesDir;
+    }
+
+    public int checkSelfPermission(String permission) {
+        return permissionsGranted ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+    }
+
+    /**
+     * Stand-in only: grants or revokes every permission
+     */
+    public void setPermissionsGranted(boolean granted) {
+        permissionsGranted = granted;
+    }
+}
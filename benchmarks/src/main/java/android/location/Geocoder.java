@@ -0,0 +1,64 @@
+/**
+ *
+ * Geocoder
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package android.location;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * JVM stand-in of the Android Geocoder, as on a device without a geocoding service
+ */
+public final class Geocoder {
+
+    public Geocoder(Context context) {
+        this(context, Locale.getDefault());
+    }
+
+    public Geocoder(Context context, Locale locale) {
+
+    }
+
+    public static boolean isPresent() {
+        return false;
+    }
+
+    public List<Address> getFromLocation(double latitude, double longitude, int maxResults) throws IOException {
+        if (latitude < -90 || latitude > 90) {
+            throw new IllegalArgumentException("latitude == " + latitude);
+        }
+        if (longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("longitude == " + longitude);
+        }
+        throw new IOException("Service not Available");
+    }
+}
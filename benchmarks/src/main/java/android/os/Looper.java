@@ -0,0 +1,161 @@
+/**
+ *
+ * Looper
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * JVM stand-in of the Android Looper, running the messages posted by its Handlers on its thread
+ * in uptime order
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> LOOPERS = new ThreadLocal<>();
+    private static Looper mainLooper;
+
+    private final Thread thread;
+    private final PriorityQueue<Message> messages = new PriorityQueue<>();
+    private long sequence = 0;
+    private boolean quitting = false;
+
+    private static final class Message implements Comparable<Message> {
+        final Handler handler;
+        final Runnable callback;
+        final long when;
+        final long sequence;
+
+        Message(Handler handler, Runnable callback, long when, long sequence) {
+            this.handler = handler;
+            this.callback = callback;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (when != other.when) {
+                return when < other.when ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private Looper() {
+        thread = Thread.currentThread();
+    }
+
+    public static void prepare() {
+        if (LOOPERS.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        LOOPERS.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return LOOPERS.get();
+    }
+
+    /**
+     * @return the looper of a daemon thread standing in for the main thread, started on the first call
+     */
+    public static synchronized Looper getMainLooper() {
+        if (mainLooper == null) {
+            HandlerThread main = new HandlerThread("main");
+            main.setDaemon(true);
+            main.start();
+            mainLooper = main.getLooper();
+        }
+        return mainLooper;
+    }
+
+    public static void loop() {
+        Looper looper = myLooper();
+        if (looper == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+
+        Message message;
+        while ((message = looper.next()) != null) {
+            message.callback.run();
+        }
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public synchronized void quit() {
+        quitting = true;
+        messages.clear();
+        notifyAll();
+    }
+
+    synchronized boolean enqueue(Handler handler, Runnable callback, long when) {
+        if (quitting) {
+            return false;
+        }
+        messages.add(new Message(handler, callback, when, sequence++));
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Handler handler, Runnable callback) {
+        Iterator<Message> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            if (message.handler == handler && message.callback == callback) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the next due message, waiting for it, or null once quit
+     */
+    private synchronized Message next() {
+        while (!quitting) {
+            Message head = messages.peek();
+            long now = SystemClock.uptimeMillis();
+            if (head != null && head.when <= now) {
+                return messages.poll();
+            }
+
+            try {
+                wait(head != null ? head.when - now : 0);
+            }
+            catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ * Fragment
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package android.support.v4.app;
+
+import android.app.Activity;
+
+/**
+ * JVM stand-in of the support Fragment, attached to an activity and resumed on demand
+ */
+public class Fragment {
+
+    private volatile Activity activity;
+    private volatile FragmentManager fragmentManager;
+    private volatile boolean resumed = false;
+
+    public final Activity getActivity() {
+        return activity;
+    }
+
+    public final FragmentManager getFragmentManager() {
+        return fragmentManager;
+    }
+
+    public final boolean isAdded() {
+        return activity != null;
+    }
+
+    public final boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Stand-in only: attaches the fragment to the activity
+     */
+    public void attach(Activity activity) {
+        attach(activity, new FragmentManager());
+    }
+
+    /**
+     * Stand-in only: attaches the fragment to the activity, in the given manager
+     */
+    public void attach(Activity activity, FragmentManager fragmentManager) {
+        this.activity = activity;
+        this.fragmentManager = fragmentManager;
+    }
+
+    /**
+     * Stand-in only: sets the state isResumed returns and tells the callbacks of the manager, the
+     * activity lifecycle callbacks are dispatched by the Application
+     */
+    public void setResumed(boolean resumed) {
+        if (this.resumed == resumed) {
+            return;
+        }
+
+        this.resumed = resumed;
+        if (fragmentManager != null) {
+            if (resumed) {
+                fragmentManager.dispatchOnFragmentResumed(this);
+            }
+            else {
+                fragmentManager.dispatchOnFragmentPaused(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ *
+ * FragmentManager
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package android.support.v4.app;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * JVM stand-in of the support FragmentManager, only dispatching the resume and pause of its fragments
+ */
+public class FragmentManager {
+
+    public abstract static class FragmentLifecycleCallbacks {
+        public void onFragmentResumed(FragmentManager fm, Fragment f) {
+
+        }
+
+        public void onFragmentPaused(FragmentManager fm, Fragment f) {
+
+        }
+    }
+
+    private final List<FragmentLifecycleCallbacks> callbacks = new CopyOnWriteArrayList<>();
+
+    public void registerFragmentLifecycleCallbacks(FragmentLifecycleCallbacks cb, boolean recursive) {
+        callbacks.add(cb);
+    }
+
+    public void unregisterFragmentLifecycleCallbacks(FragmentLifecycleCallbacks cb) {
+        callbacks.remove(cb);
+    }
+
+    void dispatchOnFragmentResumed(Fragment fragment) {
+        for (FragmentLifecycleCallbacks callback : callbacks) {
+            callback.onFragmentResumed(this, fragment);
+        }
+    }
+
+    void dispatchOnFragmentPaused(Fragment fragment) {
+        for (FragmentLifecycleCallbacks callback : callbacks) {
+            callback.onFragmentPaused(this, fragment);
+        }
+    }
+}
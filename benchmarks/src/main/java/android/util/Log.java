@@ -0,0 +1,61 @@
+/**
+ *
+ * Log
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package android.util;
+
+/**
+ * JVM stand-in of the Android Log, writing to the standard error
+ */
+public final class Log {
+
+    private Log() {
+
+    }
+
+    public static int d(String tag, String message) {
+        System.err.println(tag + ": " + message);
+        return 0;
+    }
+
+    public static int w(String tag, String message) {
+        System.err.println(tag + ": " + message);
+        return 0;
+    }
+
+    public static int w(String tag, String message, Throwable throwable) {
+        System.err.println(tag + ": " + message + ": " + throwable);
+        return 0;
+    }
+
+    public static int e(String tag, String message, Throwable throwable) {
+        System.err.println(tag + ": " + message + ": " + throwable);
+        return 0;
+    }
+}
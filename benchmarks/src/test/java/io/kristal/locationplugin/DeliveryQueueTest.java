@@ -0,0 +1,252 @@
+/**
+ *
+ * DeliveryQueueTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeliveryQueueTest {
+
+    private static JSONObject fix(int i) throws JSONException {
+        JSONObject locationData = new JSONObject();
+        locationData.put(LocationPlugin.kJSTimestamp, i);
+        return locationData;
+    }
+
+    private static JSONObject status(String status) throws JSONException {
+        JSONObject data = new JSONObject();
+        data.put(LocationPlugin.kJSStatus, status);
+        return LocationMessageEncoder.envelope(LocationPlugin.JSActionOnStatusChanged, data);
+    }
+
+    /**
+     * @param transitions the geofence id and transition pairs
+     */
+    private static JSONObject transitions(String... transitions) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < transitions.length; i += 2) {
+            JSONObject transition = new JSONObject();
+            transition.put(LocationPlugin.kJSId, transitions[i]);
+            transition.put(LocationPlugin.kJSTransition, transitions[i + 1]);
+            array.put(transition);
+        }
+
+        JSONObject data = new JSONObject();
+        data.put(LocationPlugin.kJSTransitions, array);
+        return LocationMessageEncoder.envelope(LocationPlugin.JSActionOnGeofenceTransitions, data);
+    }
+
+    private static String action(JSONObject message) {
+        return message.optString(Cobalt.kJSAction);
+    }
+
+    private static JSONObject data(JSONObject message) {
+        return message.optJSONObject(Cobalt.kJSData);
+    }
+
+    /**
+     * @return the timestamps of the fixes of a summary
+     */
+    private static String timestamps(JSONObject summary) {
+        if (LocationPlugin.JSActionOnLocationChanged.equals(action(summary))) {
+            return String.valueOf(data(summary).optLong(LocationPlugin.kJSTimestamp));
+        }
+
+        StringBuilder timestamps = new StringBuilder();
+        JSONArray locations = data(summary).optJSONArray(LocationPlugin.kJSLocations);
+        for (int i = 0; i < locations.length(); i++) {
+            if (i > 0) {
+                timestamps.append(',');
+            }
+            timestamps.append(locations.optJSONObject(i).optLong(LocationPlugin.kJSTimestamp));
+        }
+        return timestamps.toString();
+    }
+
+    @Test
+    public void messagesAreDrainedInTheOrderTheyArrived() throws JSONException {
+        DeliveryQueue queue = new DeliveryQueue(new CobaltFragment());
+        queue.setPolicy(DeliveryQueue.POLICY_DROP_OLDEST, 16);
+
+        queue.offerLocation(fix(1));
+        queue.offerLocation(fix(2));
+        queue.offerMessage(status("stationary"), true);
+        queue.offerLocation(fix(3));
+        queue.offerMessage(status("timeout"), false);
+        assertEquals(3, queue.getDepth());
+
+        List<JSONObject> drained = queue.drain();
+        assertEquals(4, drained.size());
+        assertEquals(LocationPlugin.JSActionOnLocationsChanged, action(drained.get(0)));
+        assertEquals("1,2", timestamps(drained.get(0)));
+        assertEquals("stationary", data(drained.get(1)).optString(LocationPlugin.kJSStatus));
+        assertEquals(LocationPlugin.JSActionOnLocationChanged, action(drained.get(2)));
+        assertEquals("3", timestamps(drained.get(2)));
+        assertEquals("timeout", data(drained.get(3)).optString(LocationPlugin.kJSStatus));
+
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void latestPolicyKeepsTheLatestFixAtItsPosition() throws JSONException {
+        DeliveryQueue queue = new DeliveryQueue(new CobaltFragment());
+
+        assertEquals(0, queue.offerLocation(fix(1)));
+        queue.offerMessage(status("moving"), true);
+        assertEquals(1, queue.offerLocation(fix(2)));
+        assertEquals(1, queue.offerLocation(fix(3)));
+
+        List<JSONObject> drained = queue.drain();
+        assertEquals(2, drained.size());
+        assertEquals("moving", data(drained.get(0)).optString(LocationPlugin.kJSStatus));
+        assertEquals("3", timestamps(drained.get(1)));
+        assertEquals(2, data(drained.get(1)).optInt(LocationPlugin.kJSDropped));
+    }
+
+    @Test
+    public void droppedFixesAreReportedOnce() throws JSONException {
+        DeliveryQueue queue = new DeliveryQueue(new CobaltFragment());
+        queue.setPolicy(DeliveryQueue.POLICY_DROP_OLDEST, 2);
+
+        for (int i = 1; i <= 4; i++) {
+            queue.offerLocation(fix(i));
+        }
+        queue.offerMessage(status("stationary"), true);
+        queue.offerLocation(fix(5));
+
+        // 1 and 2 dropped, then 3 once 5 arrived
+        List<JSONObject> drained = queue.drain();
+        assertEquals(3, drained.size());
+        assertEquals("4", timestamps(drained.get(0)));
+        assertEquals(3, data(drained.get(0)).optInt(LocationPlugin.kJSDropped));
+        assertEquals("5", timestamps(drained.get(2)));
+        assertEquals(0, data(drained.get(2)).optInt(LocationPlugin.kJSDropped));
+    }
+
+    @Test
+    public void samplePolicyKeepsEvenlySampledFixes() throws JSONException {
+        DeliveryQueue queue = new DeliveryQueue(new CobaltFragment());
+        queue.setPolicy(DeliveryQueue.POLICY_SAMPLE, 4);
+
+        int dropped = 0;
+        for (int i = 0; i < 16; i++) {
+            dropped += queue.offerLocation(fix(i));
+        }
+
+        assertEquals(4, queue.getDepth());
+        assertEquals(12, dropped);
+        assertEquals("0,4,8,12", timestamps(queue.drain().get(0)));
+    }
+
+    @Test
+    public void onlyDroppableMessagesAreDropped() throws JSONException {
+        DeliveryQueue queue = new DeliveryQueue(new CobaltFragment());
+
+        assertEquals(0, queue.offerMessage(status("timeout"), false));
+        int dropped = 0;
+        for (int i = 0; i < DeliveryQueue.MAX_MESSAGES + 3; i++) {
+            dropped += queue.offerMessage(status("moving " + i), true);
+        }
+        assertEquals(0, queue.offerMessage(status("disabled"), false));
+        assertEquals(3, dropped);
+
+        List<JSONObject> drained = queue.drain();
+        assertEquals(DeliveryQueue.MAX_MESSAGES + 2, drained.size());
+        assertEquals("timeout", data(drained.get(0)).optString(LocationPlugin.kJSStatus));
+        // The oldest droppable ones were dropped
+        assertEquals("moving 3", data(drained.get(1)).optString(LocationPlugin.kJSStatus));
+        assertEquals("disabled", data(drained.get(drained.size() - 1)).optString(LocationPlugin.kJSStatus));
+    }
+
+    @Test
+    public void newerStatusReplacesTheQueuedOne() throws JSONException {
+        DeliveryQueue queue = new DeliveryQueue(new CobaltFragment());
+
+        assertEquals(0, queue.offerMessage(status("timeout"), false));
+        assertEquals(0, queue.offerMessage(status("disabled"), false));
+        assertEquals(1, queue.offerMessage(status("timeout"), false));
+
+        List<JSONObject> drained = queue.drain();
+        assertEquals(3, drained.size());
+        assertEquals(LocationPlugin.JSActionOnMessagesDropped, action(drained.get(0)));
+        assertEquals(1, data(drained.get(0)).optInt(LocationPlugin.kJSDropped));
+        assertEquals("disabled", data(drained.get(1)).optString(LocationPlugin.kJSStatus));
+        assertEquals("timeout", data(drained.get(2)).optString(LocationPlugin.kJSStatus));
+    }
+
+    @Test
+    public void onlyTheLatestTransitionOfEachGeofenceIsKept() throws JSONException {
+        DeliveryQueue queue = new DeliveryQueue(new CobaltFragment());
+
+        assertEquals(0, queue.offerMessage(transitions("home", "enter", "work", "exit"), false));
+        assertEquals(0, queue.offerMessage(transitions("home", "exit"), false));
+        // Both transitions of the first message are superseded
+        assertEquals(1, queue.offerMessage(transitions("work", "enter"), false));
+
+        List<JSONObject> drained = queue.drain();
+        assertEquals(3, drained.size());
+        assertEquals(1, data(drained.get(0)).optInt(LocationPlugin.kJSDropped));
+        assertEquals("[{\"id\":\"home\",\"transition\":\"exit\"}]",
+                     data(drained.get(1)).optJSONArray(LocationPlugin.kJSTransitions).toString());
+        assertEquals("[{\"id\":\"work\",\"transition\":\"enter\"}]",
+                     data(drained.get(2)).optJSONArray(LocationPlugin.kJSTransitions).toString());
+    }
+
+    @Test
+    public void keptMessagesAreBounded() throws JSONException {
+        DeliveryQueue queue = new DeliveryQueue(new CobaltFragment());
+
+        int dropped = 0;
+        for (int i = 0; i < DeliveryQueue.MAX_KEPT_MESSAGES + 3; i++) {
+            dropped += queue.offerMessage(transitions("fence " + i, "enter"), false);
+        }
+        assertEquals(3, dropped);
+
+        List<JSONObject> drained = queue.drain();
+        assertEquals(DeliveryQueue.MAX_KEPT_MESSAGES + 1, drained.size());
+        assertEquals(LocationPlugin.JSActionOnMessagesDropped, action(drained.get(0)));
+        assertEquals(3, data(drained.get(0)).optInt(LocationPlugin.kJSDropped));
+        // The oldest ones were dropped
+        assertEquals("fence 3", data(drained.get(1)).optJSONArray(LocationPlugin.kJSTransitions)
+                                                    .optJSONObject(0).optString(LocationPlugin.kJSId));
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ *
+ * FixStreams
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Multi-provider fix streams along a known path, generated from a fixed seed so that every run
+ * replays the same session. GPS fixes arrive every second with independent noise and outages.
+ * Network fixes arrive every few seconds with a slowly drifting bias, as the error of a Wi-Fi or
+ * cell fix is correlated over time. Some fixes are repeated through PASSIVE.
+ * Reported accuracies are 68% radii, as on Android.
+ */
+final class FixStreams {
+
+    static final String WALK = "walk";
+    static final String DRIVE = "drive";
+    static final String INDOOR = "indoor";
+
+    static final String[] NAMES = { WALK, DRIVE, INDOOR };
+
+    // 68% radius of a two dimensional normal distribution, in standard deviations
+    private static final double RADIUS_68 = 1.51;
+
+    /**
+     * The fixes, in arrival order
+     */
+    final Location[] fixes;
+
+    /**
+     * The true position of the device when each fix arrives
+     */
+    final double[] trueLatitudes;
+    final double[] trueLongitudes;
+
+    private FixStreams(List<Location> fixes, List<double[]> truth) {
+        this.fixes = fixes.toArray(new Location[0]);
+        trueLatitudes = new double[truth.size()];
+        trueLongitudes = new double[truth.size()];
+        for (int i = 0; i < truth.size(); i++) {
+            trueLatitudes[i] = truth.get(i)[0];
+            trueLongitudes[i] = truth.get(i)[1];
+        }
+    }
+
+    /**
+     * @return the distance in meters between the location and the true position when fix index arrived
+     */
+    double error(int index, Location location) {
+        return GeoMath.fastDistance(trueLatitudes[index], trueLongitudes[index],
+                                    location.getLatitude(), location.getLongitude());
+    }
+
+    /**
+     * @param name WALK, DRIVE or INDOOR
+     */
+    static FixStreams create(String name) {
+        if (WALK.equals(name)) {
+            // 20 min at walking speed, GPS in the open, network every 10 s
+            return generate(1, 1200, 1.4, 0.05, 4, 0, 10, 25, 20, 0.2);
+        }
+        if (DRIVE.equals(name)) {
+            // 20 min in town, GPS lost 20 s out of every 2 min, network every 5 s
+            return generate(2, 1200, 12, 0.2, 6, 20, 5, 40, 40, 0.2);
+        }
+        if (INDOOR.equals(name)) {
+            // 20 min moving around a building, GPS only gets through a third of the time
+            return generate(3, 1200, 0.3, 0.5, 20, -1, 3, 15, 15, 0.3);
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    /**
+     * @param seed the seed of the session
+     * @param duration the session duration, in seconds
+     * @param speed the speed of the device, in meters per second
+     * @param turnRate the standard deviation of the heading change per second, in radians
+     * @param gpsSigma the standard deviation of the GPS error on each axis, in meters
+     * @param gpsOutage the seconds without GPS at the end of every 2 min, or -1 to only let 1 GPS fix out of 3 through
+     * @param networkPeriod the seconds between network fixes
+     * @param networkSigma the standard deviation of the network noise on each axis, in meters
+     * @param biasSigma the standard deviation of the network bias on each axis, in meters
+     * @param passiveRate the rate of fixes repeated through PASSIVE
+     */
+    private static FixStreams generate(long seed, int duration, double speed, double turnRate,
+                                       double gpsSigma, int gpsOutage,
+                                       int networkPeriod, double networkSigma, double biasSigma,
+                                       double passiveRate) {
+        Random random = new Random(seed);
+        List<Location> fixes = new ArrayList<>();
+        List<double[]> truth = new ArrayList<>();
+
+        double latitude = 48.8566;
+        double longitude = 2.3522;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double biasX = random.nextGaussian() * biasSigma;
+        double biasY = random.nextGaussian() * biasSigma;
+        // The bias decorrelates over about a minute
+        double biasDecay = Math.exp(-1 / 60.0);
+        double biasStep = biasSigma * Math.sqrt(1 - biasDecay * biasDecay);
+        long startTime = 1500000000000L;
+
+        for (int second = 0; second < duration; second++) {
+            heading += random.nextGaussian() * turnRate;
+            latitude += speed * Math.cos(heading) / GeoMath.METERS_PER_DEGREE;
+            longitude += speed * Math.sin(heading) / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+            biasX = biasX * biasDecay + random.nextGaussian() * biasStep;
+            biasY = biasY * biasDecay + random.nextGaussian() * biasStep;
+
+            // Fixes are dated a little before they arrive
+            long time = startTime + second * 1000L - random.nextInt(200);
+
+            boolean gps = gpsOutage < 0
+                ? random.nextInt(3) == 0
+                : second % 120 < 120 - gpsOutage;
+            if (gps) {
+                double sigma = gpsSigma * (0.7 + 0.6 * random.nextDouble());
+                add(fixes, truth, LocationManager.GPS_PROVIDER, latitude, longitude,
+                    random.nextGaussian() * sigma, random.nextGaussian() * sigma, RADIUS_68 * sigma, time, random, passiveRate);
+            }
+
+            if (second % networkPeriod == 0) {
+                double sigma = Math.sqrt(networkSigma * networkSigma + biasSigma * biasSigma);
+                add(fixes, truth, LocationManager.NETWORK_PROVIDER, latitude, longitude,
+                    biasX + random.nextGaussian() * networkSigma, biasY + random.nextGaussian() * networkSigma,
+                    RADIUS_68 * sigma, time, random, passiveRate);
+            }
+        }
+
+        return new FixStreams(fixes, truth);
+    }
+
+    private static void add(List<Location> fixes, List<double[]> truth, String provider,
+                            double latitude, double longitude, double errorX, double errorY,
+                            double accuracy, long time, Random random, double passiveRate) {
+        Location fix = new Location(provider);
+        fix.setLatitude(latitude + errorY / GeoMath.METERS_PER_DEGREE);
+        fix.setLongitude(longitude + errorX / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude))));
+        fix.setAccuracy((float) accuracy);
+        fix.setTime(time);
+
+        fixes.add(fix);
+        truth.add(new double[] { latitude, longitude });
+
+        if (random.nextDouble() < passiveRate) {
+            // PASSIVE hands the same fix over again
+            fixes.add(new Location(fix));
+            truth.add(new double[] { latitude, longitude });
+        }
+    }
+
+    /**
+     * Records a GPS track of count fixes, one per second, walking with the turns and GPS error of
+     * the WALK stream
+     */
+    static void recordTrack(TrackRecorder recorder, long seed, int count) {
+        Random random = new Random(seed);
+
+        double latitude = 48.8566;
+        double longitude = 2.3522;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        long startTime = 1500000000000L;
+
+        for (int second = 0; second < count; second++) {
+            heading += random.nextGaussian() * 0.05;
+            latitude += 1.4 * Math.cos(heading) / GeoMath.METERS_PER_DEGREE;
+            longitude += 1.4 * Math.sin(heading) / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+
+            double errorX = random.nextGaussian() * 4;
+            double errorY = random.nextGaussian() * 4;
+            recorder.append(latitude + errorY / GeoMath.METERS_PER_DEGREE,
+                            longitude + errorX / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude))),
+                            (float) (RADIUS_68 * 4), startTime + second * 1000L, TrackRecorder.PROVIDER_GPS);
+        }
+    }
+}
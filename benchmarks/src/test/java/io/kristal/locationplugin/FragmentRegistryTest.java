@@ -0,0 +1,226 @@
+/**
+ *
+ * FragmentRegistryTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FragmentRegistryTest {
+
+    /**
+     * Fragment equal to any other, as a fragile equals would make it
+     */
+    private static final class EqualFragment {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof EqualFragment;
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    @Test
+    public void fragmentsAreKeyedByIdentity() {
+        FragmentRegistry<Object, String> registry = new FragmentRegistry<>();
+        EqualFragment first = new EqualFragment();
+        EqualFragment second = new EqualFragment();
+
+        registry.put(first, "first");
+        registry.put(second, "second");
+        assertEquals(2, registry.size());
+        assertEquals("first", registry.get(first));
+        assertEquals("second", registry.get(second));
+
+        assertEquals("first", registry.remove(first));
+        assertNull(registry.get(first));
+        assertEquals("second", registry.get(second));
+    }
+
+    @Test
+    public void putReplacesTheValueOfTheFragment() {
+        FragmentRegistry<Object, String> registry = new FragmentRegistry<>();
+        Object fragment = new Object();
+
+        assertNull(registry.put(fragment, "first"));
+        assertEquals("first", registry.put(fragment, "second"));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void removeOfAReplacedValueKeepsTheEntry() {
+        FragmentRegistry<Object, String> registry = new FragmentRegistry<>();
+        Object fragment = new Object();
+
+        registry.put(fragment, "first");
+        registry.put(fragment, "second");
+        assertFalse(registry.remove(fragment, "first"));
+        assertEquals("second", registry.get(fragment));
+        assertTrue(registry.remove(fragment, "second"));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void nullFragmentIsNeverRegistered() {
+        FragmentRegistry<Object, String> registry = new FragmentRegistry<>();
+        assertNull(registry.get(null));
+        assertNull(registry.remove(null));
+        assertFalse(registry.remove(null, "value"));
+    }
+
+    @Test
+    public void collectedFragmentsArePurged() throws InterruptedException {
+        FragmentRegistry<Object, String> registry = new FragmentRegistry<>();
+        Object kept = new Object();
+        registry.put(kept, "kept");
+        for (int i = 0; i < 100; i++) {
+            registry.put(new Object(), "collected");
+        }
+
+        for (int i = 0; i < 100 && registry.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, registry.size());
+        assertEquals("kept", registry.get(kept));
+    }
+
+    /**
+     * Listeners of shared and private fragments start and stop from several threads while
+     * another thread keeps fanning out to the registered ones
+     */
+    @Test
+    public void concurrentStartAndStopChurn() throws Throwable {
+        final int threads = 8;
+        final int iterations = 20000;
+        final FragmentRegistry<Object, Object> registry = new FragmentRegistry<>();
+        final Object[] sharedFragments = new Object[16];
+        for (int i = 0; i < sharedFragments.length; i++) {
+            sharedFragments[i] = new Object();
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        Object[] ownFragments = new Object[8];
+                        for (int i = 0; i < ownFragments.length; i++) {
+                            ownFragments[i] = new Object();
+                        }
+
+                        start.await();
+                        for (int i = 0; i < iterations; i++) {
+                            Object listener = new Object();
+                            if (random.nextBoolean()) {
+                                // Only this thread uses the fragment: start, lookup and stop are exact
+                                Object fragment = ownFragments[random.nextInt(ownFragments.length)];
+                                assertNull(registry.put(fragment, listener));
+                                assertSame(listener, registry.get(fragment));
+                                assertTrue(registry.remove(fragment, listener));
+                                assertNull(registry.get(fragment));
+                            }
+                            else {
+                                // Another thread may replace the listener: stop only removes its own
+                                Object fragment = sharedFragments[random.nextInt(sharedFragments.length)];
+                                registry.put(fragment, listener);
+                                registry.get(fragment);
+                                registry.remove(fragment, listener);
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }));
+        }
+
+        Thread fanOut = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    while (running.get()) {
+                        for (Object listener : registry.values()) {
+                            if (listener == null) {
+                                throw new AssertionError("null listener");
+                            }
+                        }
+                    }
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        });
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        fanOut.start();
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        running.set(false);
+        fanOut.join();
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        // The last listener started on each fragment was also stopped
+        assertEquals(0, registry.size());
+    }
+}
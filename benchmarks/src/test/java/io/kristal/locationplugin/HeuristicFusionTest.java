@@ -0,0 +1,94 @@
+/**
+ *
+ * HeuristicFusionTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HeuristicFusionTest {
+
+    private static Location fix(String provider, float accuracy, long time) {
+        Location location = new Location(provider);
+        location.setLatitude(48.85);
+        location.setLongitude(2.35);
+        location.setAccuracy(accuracy);
+        location.setTime(time);
+        return location;
+    }
+
+    @Test
+    public void anyFixIsBetterThanNone() {
+        assertTrue(HeuristicFusion.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 1000, 0), null));
+    }
+
+    @Test
+    public void significantlyNewerFixIsBetter() {
+        Location old = fix(LocationManager.GPS_PROVIDER, 5, 0);
+        assertTrue(HeuristicFusion.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 500, 2 * 60 * 1000 + 1), old));
+        assertFalse(HeuristicFusion.isBetterLocation(old, fix(LocationManager.NETWORK_PROVIDER, 500, 2 * 60 * 1000 + 1)));
+    }
+
+    @Test
+    public void moreAccurateFixIsBetter() {
+        assertTrue(HeuristicFusion.isBetterLocation(fix(LocationManager.GPS_PROVIDER, 5, 1000),
+                                                    fix(LocationManager.NETWORK_PROVIDER, 50, 2000)));
+    }
+
+    @Test
+    public void newerFixOfTheSameProviderIsBetterUnlessMuchLessAccurate() {
+        Location current = fix(LocationManager.NETWORK_PROVIDER, 50, 1000);
+        assertTrue(HeuristicFusion.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 200, 2000), current));
+        assertFalse(HeuristicFusion.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 300, 2000), current));
+    }
+
+    @Test
+    public void newerLessAccurateFixOfAnotherProviderIsNotBetter() {
+        assertFalse(HeuristicFusion.isBetterLocation(fix(LocationManager.NETWORK_PROVIDER, 50, 2000),
+                                                     fix(LocationManager.GPS_PROVIDER, 10, 1000)));
+    }
+
+    @Test
+    public void fixesGoThroughAndTheBestIsKept() {
+        HeuristicFusion fusion = new HeuristicFusion();
+        Location gps = fix(LocationManager.GPS_PROVIDER, 5, 1000);
+        Location network = fix(LocationManager.NETWORK_PROVIDER, 50, 2000);
+
+        assertSame(gps, fusion.add(gps));
+        assertSame(network, fusion.add(network));
+        assertSame(gps, fusion.getBestLocation());
+    }
+}
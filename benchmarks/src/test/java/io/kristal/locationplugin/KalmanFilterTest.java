@@ -0,0 +1,203 @@
+/**
+ *
+ * KalmanFilterTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KalmanFilterTest {
+
+    /**
+     * Errors of the raw and smoothed positions over a replayed stream, in meters
+     */
+    private static final class Replay {
+        final double rawMean;
+        final double smoothedMean;
+        final double smoothedP95;
+        final double smoothedMax;
+        // Mean estimated speed over the second half of the stream, once the filter has settled
+        final double speed;
+
+        Replay(FixStreams stream) {
+            KalmanFilter filter = new KalmanFilter();
+            int count = stream.fixes.length;
+            double[] smoothed = new double[count];
+            double rawSum = 0;
+            double smoothedSum = 0;
+            double speedSum = 0;
+            for (int i = 0; i < count; i++) {
+                Location fix = stream.fixes[i];
+                filter.update(fix.getLatitude(), fix.getLongitude(), fix.getAccuracy(), fix.getTime());
+
+                rawSum += stream.error(i, fix);
+                smoothed[i] = GeoMath.fastDistance(stream.trueLatitudes[i], stream.trueLongitudes[i],
+                                                   filter.getLatitude(), filter.getLongitude());
+                smoothedSum += smoothed[i];
+                if (i >= count / 2) {
+                    speedSum += filter.getSpeed();
+                }
+            }
+            Arrays.sort(smoothed);
+
+            rawMean = rawSum / count;
+            smoothedMean = smoothedSum / count;
+            smoothedP95 = smoothed[(int) (count * 0.95)];
+            smoothedMax = smoothed[count - 1];
+            speed = speedSum / (count - count / 2);
+        }
+    }
+
+    @Test
+    public void walkIsSmoothedWithinBounds() {
+        Replay replay = new Replay(FixStreams.create(FixStreams.WALK));
+        // Measured: raw 7.7 m, smoothed 2.8 m mean, 5.5 m 95th percentile, 10 m max, 1.56 m/s
+        assertTrue(replay.smoothedMean + " m", replay.smoothedMean < 4);
+        assertTrue(replay.smoothedP95 + " m", replay.smoothedP95 < 8);
+        assertTrue(replay.smoothedMax + " m", replay.smoothedMax < 15);
+        assertTrue(replay.smoothedMean < replay.rawMean / 2);
+        assertEquals(1.4, replay.speed, 0.5);
+    }
+
+    @Test
+    public void driveIsSmoothedWithinBounds() {
+        Replay replay = new Replay(FixStreams.create(FixStreams.DRIVE));
+        // Measured: raw 21.1 m, smoothed 7.1 m mean, 13.8 m 95th percentile, 11.8 m/s.
+        // The maximum is reached while GPS is out and is left to the percentile.
+        assertTrue(replay.smoothedMean + " m", replay.smoothedMean < 10);
+        assertTrue(replay.smoothedP95 + " m", replay.smoothedP95 < 20);
+        assertTrue(replay.smoothedMean < replay.rawMean / 2);
+        assertEquals(12, replay.speed, 2);
+    }
+
+    @Test
+    public void indoorIsSmoothedWithinBounds() {
+        Replay replay = new Replay(FixStreams.create(FixStreams.INDOOR));
+        // Measured: raw 25.4 m, smoothed 14.8 m mean, 27.9 m 95th percentile, 42 m max
+        assertTrue(replay.smoothedMean + " m", replay.smoothedMean < 18);
+        assertTrue(replay.smoothedP95 + " m", replay.smoothedP95 < 35);
+        assertTrue(replay.smoothedMax + " m", replay.smoothedMax < 60);
+        assertTrue(replay.smoothedMean < replay.rawMean * 0.7);
+    }
+
+    @Test
+    public void stationaryDeviceIsSmoothed() {
+        double latitude = 48.8566;
+        double longitude = 2.3522;
+        double metersPerLongitudeDegree = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        Random random = new Random(4);
+        KalmanFilter filter = new KalmanFilter();
+
+        double rawSum = 0;
+        double smoothedSum = 0;
+        double speedSum = 0;
+        for (int i = 0; i < 600; i++) {
+            double fixLatitude = latitude + random.nextGaussian() * 10 / GeoMath.METERS_PER_DEGREE;
+            double fixLongitude = longitude + random.nextGaussian() * 10 / metersPerLongitudeDegree;
+            filter.update(fixLatitude, fixLongitude, 15, 1000L * i);
+
+            // Once settled
+            if (i >= 300) {
+                rawSum += GeoMath.fastDistance(latitude, longitude, fixLatitude, fixLongitude);
+                smoothedSum += GeoMath.fastDistance(latitude, longitude, filter.getLatitude(), filter.getLongitude());
+                speedSum += filter.getSpeed();
+            }
+        }
+
+        // Measured: raw 12.6 m, smoothed 6.0 m, 0.97 m/s of noise read as speed
+        assertTrue(smoothedSum / 300 + " m", smoothedSum / 300 < 8);
+        assertTrue(smoothedSum < rawSum * 0.6);
+        assertTrue(speedSum / 300 + " m/s", speedSum / 300 < 1.5);
+        assertTrue(filter.getAccuracy() < 15);
+    }
+
+    @Test
+    public void fixNotNewerThanTheLastOneIsIgnored() {
+        KalmanFilter filter = new KalmanFilter();
+        assertFalse(filter.isInitialized());
+        assertTrue(filter.update(48.8566, 2.3522, 10, 1000));
+        assertTrue(filter.isInitialized());
+
+        assertFalse(filter.update(48.9, 2.4, 10, 1000));
+        assertFalse(filter.update(48.9, 2.4, 10, 999));
+        assertEquals(48.8566, filter.getLatitude(), 1e-9);
+        assertEquals(2.3522, filter.getLongitude(), 1e-9);
+    }
+
+    @Test
+    public void distantFixRecentersTheFilter() {
+        KalmanFilter filter = new KalmanFilter();
+        filter.update(48.8566, 2.3522, 10, 1000);
+        filter.update(48.8567, 2.3522, 10, 2000);
+
+        // About 340 km away, well beyond the tangent plane
+        assertTrue(filter.update(51.5074, -0.1278, 20, 3000));
+        assertEquals(51.5074, filter.getLatitude(), 1e-9);
+        assertEquals(-0.1278, filter.getLongitude(), 1e-9);
+        assertEquals(0, filter.getSpeed(), 0);
+        assertEquals(20, filter.getAccuracy(), 1e-6);
+    }
+
+    @Test
+    public void trackAcrossTheAntimeridianStaysContinuous() {
+        KalmanFilter filter = new KalmanFilter();
+        double latitude = -16.5;
+        double metersPerLongitudeDegree = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        // Eastward at 10 m/s, from 1 km west of the antimeridian to 1 km east of it
+        for (int second = 0; second <= 200; second++) {
+            double longitude = GeoMath.wrapLongitude(180 + (second * 10 - 1000) / metersPerLongitudeDegree);
+            filter.update(latitude, longitude, 5, 1000L * second);
+
+            assertTrue(filter.getLongitude() >= -180 && filter.getLongitude() <= 180);
+            double error = GeoMath.fastDistance(latitude, longitude, filter.getLatitude(), filter.getLongitude());
+            assertTrue(second + ": " + error + " m", error < 10);
+        }
+        assertEquals(10, filter.getSpeed(), 1);
+    }
+
+    @Test
+    public void zeroAccuracyKeepsTheStateFinite() {
+        KalmanFilter filter = new KalmanFilter();
+        for (int i = 0; i < 10; i++) {
+            filter.update(48.8566, 2.3522, 0, 1000L * i);
+        }
+        assertFalse(Double.isNaN(filter.getLatitude()));
+        assertFalse(Double.isNaN(filter.getSpeed()));
+        assertTrue(filter.getAccuracy() > 0);
+    }
+}
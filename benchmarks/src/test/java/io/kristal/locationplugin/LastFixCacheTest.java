@@ -0,0 +1,217 @@
+/**
+ *
+ * LastFixCacheTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LastFixCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HandlerThread thread;
+    private Handler handler;
+    private File file;
+    private LastFixCache cache;
+
+    @Before
+    public void setUp() {
+        thread = new HandlerThread("LastFixCacheTest");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        file = new File(folder.getRoot(), "fixes");
+        cache = new LastFixCache(file, handler, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        thread.quit();
+    }
+
+    private static Location fix(String provider, long time) {
+        Location location = new Location(provider);
+        location.setLatitude(48.8566);
+        location.setLongitude(2.3522);
+        location.setAccuracy(10);
+        location.setTime(time);
+        return location;
+    }
+
+    /**
+     * Writes the fixes in the format of the cache file
+     */
+    private void writeFile(Location... locations) throws IOException {
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        try {
+            output.writeInt(0x4C4F4346);
+            output.writeByte(1);
+            output.writeInt(locations.length);
+            for (Location location : locations) {
+                output.writeUTF(location.getProvider());
+                output.writeDouble(location.getLatitude());
+                output.writeDouble(location.getLongitude());
+                output.writeFloat(location.getAccuracy());
+                output.writeLong(location.getTime());
+            }
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Runs the callable on the thread of the cache, after the tasks already posted to it
+     */
+    private <T> T onHandler(Callable<T> callable) throws Exception {
+        FutureTask<T> task = new FutureTask<>(callable);
+        handler.post(task);
+        return task.get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the time of the cached fix of each provider
+     */
+    private Map<String, Long> getTimes() throws Exception {
+        return onHandler(new Callable<Map<String, Long>>() {
+            @Override
+            public Map<String, Long> call() {
+                Map<String, Long> times = new HashMap<>();
+                for (Location location : cache.getLocations()) {
+                    times.put(location.getProvider(), location.getTime());
+                }
+                return times;
+            }
+        });
+    }
+
+    private void put(final Location location) throws Exception {
+        onHandler(new Callable<Void>() {
+            @Override
+            public Void call() {
+                cache.put(location);
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void newestFixOfEachProviderIsKept() throws Exception {
+        put(fix(LocationManager.GPS_PROVIDER, 2000));
+        put(fix(LocationManager.GPS_PROVIDER, 1000));
+        put(fix(LocationManager.NETWORK_PROVIDER, 1000));
+
+        Map<String, Long> times = getTimes();
+        assertEquals(2, times.size());
+        assertEquals(2000, (long) times.get(LocationManager.GPS_PROVIDER));
+        assertEquals(1000, (long) times.get(LocationManager.NETWORK_PROVIDER));
+    }
+
+    @Test
+    public void fusedFixesAreNotCached() throws Exception {
+        put(fix(WeightedFusion.FUSED_PROVIDER, 1000));
+        assertEquals(0, getTimes().size());
+    }
+
+    @Test
+    public void fileIsLoadedAfterTheFirstAccess() throws Exception {
+        writeFile(fix(LocationManager.GPS_PROVIDER, 1000), fix(LocationManager.NETWORK_PROVIDER, 1000));
+
+        final List<List<Location>> loaded = new ArrayList<>();
+        List<Location> locations = onHandler(new Callable<List<Location>>() {
+            @Override
+            public List<Location> call() {
+                List<Location> locations = cache.getLocations();
+                cache.addLoadListener(new LastFixCache.LoadListener() {
+                    @Override
+                    public void onLoaded(List<Location> locations) {
+                        loaded.add(locations);
+                    }
+                });
+                assertFalse(cache.isLoaded());
+                // Newer than the fix of the file
+                cache.put(fix(LocationManager.GPS_PROVIDER, 2000));
+                return locations;
+            }
+        });
+        assertEquals(0, locations.size());
+
+        Map<String, Long> times = getTimes();
+        assertEquals(2, times.size());
+        assertEquals(2000, (long) times.get(LocationManager.GPS_PROVIDER));
+        assertEquals(1000, (long) times.get(LocationManager.NETWORK_PROVIDER));
+
+        // Only the fixes of the file which were not superseded
+        assertEquals(1, loaded.size());
+        assertEquals(1, loaded.get(0).size());
+        assertEquals(LocationManager.NETWORK_PROVIDER, loaded.get(0).get(0).getProvider());
+    }
+
+    @Test
+    public void unreadableFileOnlyCostsTheCachedFixes() throws Exception {
+        writeFile(fix(LocationManager.GPS_PROVIDER, 1000));
+        // Truncated in the middle of the fix
+        byte[] content = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(content, content.length - 4));
+
+        getTimes();
+        assertEquals(0, getTimes().size());
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ *
+ * LocationMessageEncoderTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * Checks the encoder writes the same bytes as the message builders it replaced, and that every
+ * message is an envelope of its own
+ */
+public class LocationMessageEncoderTest {
+
+    /***********************************************************************************************
+     *
+     * BASELINE
+     *
+     **********************************************************************************************/
+
+    // Constants and builders of LocationPlugin.LocationListener before the encoder
+    private static final String JSActionOnLocationChanged = "onLocationChanged";
+    private static final String JSActionOnStatusChanged = "onStatusChanged";
+    private static final String kJSLocation = "location";
+    private static final String kJSAccuracy = "accuracy";
+    private static final String kJSLatitude = "latitude";
+    private static final String kJSLongitude = "longitude";
+    private static final String kJSTimestamp = "timestamp";
+    private static final String kJSStatus = "status";
+
+    private static JSONObject buildLocationMessage(Location location) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(kJSLatitude, location.getLatitude());
+            data.put(kJSLongitude, location.getLongitude());
+            data.put(kJSAccuracy, location.getAccuracy());
+            data.put(kJSTimestamp, location.getTime());
+
+            JSONObject message = new JSONObject();
+            message.put(Cobalt.kJSType, Cobalt.JSTypePlugin);
+            message.put(Cobalt.kJSPluginName, "CobaltLocationPlugin");
+            message.put(Cobalt.kJSAction, JSActionOnLocationChanged);
+            message.put(Cobalt.kJSData, data);
+
+            return message;
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    private static JSONObject buildStatusMessage(String status, Location bestLocation) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(kJSStatus, status);
+
+            if (bestLocation != null) {
+                JSONObject location = new JSONObject();
+                location.put(kJSLatitude, bestLocation.getLatitude());
+                location.put(kJSLongitude, bestLocation.getLongitude());
+                location.put(kJSAccuracy, bestLocation.getAccuracy());
+                location.put(kJSTimestamp, bestLocation.getTime());
+                data.put(kJSLocation, location);
+            }
+
+            JSONObject message = new JSONObject();
+            message.put(Cobalt.kJSType, Cobalt.JSTypePlugin);
+            message.put(Cobalt.kJSPluginName, "CobaltLocationPlugin");
+            message.put(Cobalt.kJSAction, JSActionOnStatusChanged);
+            message.put(Cobalt.kJSData, data);
+
+            return message;
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * TESTS
+     *
+     **********************************************************************************************/
+
+    private static Location fix(double latitude, double longitude, float accuracy, long time) {
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setAccuracy(accuracy);
+        location.setTime(time);
+        return location;
+    }
+
+    private static Location[] fixes() {
+        Random random = new Random(42);
+        Location[] fixes = new Location[1000];
+        fixes[0] = fix(0, 0, 0, 0);
+        fixes[1] = fix(-90, -180, 0.5f, Long.MAX_VALUE);
+        fixes[2] = fix(90, 180, Float.MAX_VALUE, Long.MIN_VALUE);
+        fixes[3] = fix(48.8566, 2.3522, 12.5f, 1500000000000L);
+        fixes[4] = fix(1e-7, -1e-7, 1e-3f, 1);
+        fixes[5] = fix(-33.8688197, 151.2092955, 3, 1234567890123L);
+        for (int i = 6; i < fixes.length; i++) {
+            fixes[i] = fix(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+                           random.nextFloat() * 500, random.nextLong());
+        }
+        return fixes;
+    }
+
+    @Test
+    public void locationMessageIsUnchanged() {
+        for (Location location : fixes()) {
+            assertEquals(buildLocationMessage(location).toString(),
+                         LocationMessageEncoder.encodeLocation(location).toString());
+        }
+    }
+
+    @Test
+    public void locationMessageFromDataIsUnchanged() {
+        for (Location location : fixes()) {
+            assertEquals(buildLocationMessage(location).toString(),
+                         LocationMessageEncoder.encodeLocation(LocationMessageEncoder.encodeLocationData(location)).toString());
+        }
+    }
+
+    @Test
+    public void statusMessageIsUnchanged() {
+        String[] statuses = { "disabled", "refused", "timeout" };
+        for (String status : statuses) {
+            assertEquals(buildStatusMessage(status, null).toString(),
+                         LocationMessageEncoder.encodeStatus(status, null).toString());
+
+            for (Location location : fixes()) {
+                assertEquals(buildStatusMessage(status, location).toString(),
+                             LocationMessageEncoder.encodeStatus(status, location).toString());
+            }
+        }
+    }
+
+    @Test
+    public void invalidFixFailsLikeBefore() {
+        Location location = fix(Double.NaN, 0, 10, 0);
+        assertEquals(buildLocationMessage(location), LocationMessageEncoder.encodeLocation(location));
+    }
+
+    @Test
+    public void everyMessageHasThePluginEnvelope() throws JSONException {
+        Location location = fix(48.8566, 2.3522, 12.5f, 1500000000000L);
+        JSONObject[] messages = {
+            LocationMessageEncoder.encodeLocation(location),
+            LocationMessageEncoder.encodeLocations(Arrays.asList(LocationMessageEncoder.encodeLocationData(location))),
+            LocationMessageEncoder.encodeStatus("timeout", location),
+            LocationMessageEncoder.encodeError("exportTrack", "precision must be between 0 and 7"),
+            LocationMessageEncoder.encodeMessagesDropped(3)
+        };
+        String[] actions = {
+            LocationPlugin.JSActionOnLocationChanged,
+            LocationPlugin.JSActionOnLocationsChanged,
+            LocationPlugin.JSActionOnStatusChanged,
+            LocationPlugin.JSActionOnError,
+            LocationPlugin.JSActionOnMessagesDropped
+        };
+
+        for (int i = 0; i < messages.length; i++) {
+            assertEquals(Cobalt.JSTypePlugin, messages[i].getString(Cobalt.kJSType));
+            assertEquals(LocationMessageEncoder.PLUGIN_NAME, messages[i].getString(Cobalt.kJSPluginName));
+            assertEquals(actions[i], messages[i].getString(Cobalt.kJSAction));
+            assertEquals(4, messages[i].length());
+        }
+    }
+
+    @Test
+    public void messagesDoNotShareObjects() throws JSONException {
+        Location location = fix(48.8566, 2.3522, 12.5f, 1500000000000L);
+        JSONObject first = LocationMessageEncoder.encodeLocation(location);
+        JSONObject second = LocationMessageEncoder.encodeLocation(location);
+        assertNotSame(first, second);
+        assertNotSame(first.getJSONObject(Cobalt.kJSData), second.getJSONObject(Cobalt.kJSData));
+
+        // As a queued fix is completed with the number of dropped fixes
+        LocationMessageEncoder.encodeLocationSummary(first.getJSONObject(Cobalt.kJSData), 2);
+        assertFalse(second.getJSONObject(Cobalt.kJSData).has(LocationPlugin.kJSDropped));
+        assertEquals(buildLocationMessage(location).toString(), second.toString());
+    }
+}
@@ -0,0 +1,612 @@
+/**
+ *
+ * LocationPluginTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+import android.app.Activity;
+import android.app.Application;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+import org.cobaltians.cobalt.plugin.CobaltPluginWebContainer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the plugin singleton through its messages, as the web side does
+ */
+public class LocationPluginTest {
+
+    private static final long MESSAGE_TIMEOUT = 5000;
+
+    /**
+     * Source of the plugin, set once, forwarding to the replay of the running test
+     */
+    private static final class TestLocationSource implements LocationSource {
+        volatile LocationSource delegate;
+        // Returned instead of the last fix of the replay when set
+        volatile Location lastKnownLocation;
+        // Providers registered to, in order
+        final List<String> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void requestUpdates(String provider, long interval, LocationListener listener, Looper looper) {
+            requests.add(provider);
+            delegate.requestUpdates(provider, interval, listener, looper);
+        }
+
+        @Override
+        public void removeUpdates(LocationListener listener) {
+            delegate.removeUpdates(listener);
+        }
+
+        @Override
+        public Location getLastKnownLocation(String provider) {
+            Location location = lastKnownLocation;
+            return location != null ? new Location(location) : delegate.getLastKnownLocation(provider);
+        }
+
+        @Override
+        public boolean isProviderEnabled(String provider) {
+            return delegate.isProviderEnabled(provider);
+        }
+    }
+
+    private static final TestLocationSource SOURCE = new TestLocationSource();
+
+    private CobaltFragment fragment;
+    private CobaltPluginWebContainer webContainer;
+    private ReplayLocationSource replay;
+
+    @Before
+    public void setUp() throws IOException {
+        LocationPlugin.setLocationSource(SOURCE);
+        // A new plugin and cache directory per test, so that no fix nor counter of a previous test is left
+        LocationPlugin.sInstance = null;
+        File root = Files.createTempDirectory("LocationPluginTest").toFile();
+        root.deleteOnExit();
+        Application application = new Application(root);
+
+        // Listeners are called on the processing thread, the main thread by default
+        replay = new ReplayLocationSource(Looper.getMainLooper(), 0);
+        SOURCE.delegate = replay;
+        SOURCE.lastKnownLocation = null;
+        SOURCE.requests.clear();
+
+        fragment = new CobaltFragment();
+        fragment.attach(new Activity(application));
+        fragment.setResumed(true);
+        webContainer = new CobaltPluginWebContainer(fragment);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        send("stopLocation", null);
+        replay.stop();
+    }
+
+    private void send(String action, JSONObject data) {
+        LocationPlugin.getInstance().onMessage(webContainer, action, data, null);
+    }
+
+    private JSONObject takeMessage() throws InterruptedException {
+        return fragment.takeMessage(MESSAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private JSONObject pollMessage(long timeout) throws InterruptedException {
+        return fragment.takeMessage(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private static String action(JSONObject message) {
+        return message.optString(Cobalt.kJSAction);
+    }
+
+    private static JSONObject data(JSONObject message) {
+        return message.optJSONObject(Cobalt.kJSData);
+    }
+
+    private JSONObject getMetrics() throws InterruptedException {
+        send("getMetrics", null);
+        JSONObject message = takeMessage();
+        assertNotNull(message);
+        assertEquals(LocationPlugin.JSActionOnMetrics, action(message));
+        return data(message);
+    }
+
+    /**
+     * Waits for the messages sent so far to be handled, e.g. for a session to start before its fixes are dated
+     */
+    private static void awaitProcessing() throws InterruptedException {
+        // The processing thread is the main thread by default
+        final CountDownLatch latch = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(MESSAGE_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @return the next status sent, skipping the fixes
+     */
+    private JSONObject takeStatus() throws InterruptedException {
+        JSONObject message;
+        while ((message = takeMessage()) != null
+               && LocationPlugin.JSActionOnLocationChanged.equals(action(message))) {
+            // Skip the fix
+        }
+        assertNotNull(message);
+        assertEquals(LocationPlugin.JSActionOnStatusChanged, action(message));
+        return data(message);
+    }
+
+    /**
+     * Adds GPS fixes one second apart, from north to south, too inaccurate to end a request
+     */
+    private void addFixes(int count) {
+        for (int i = 0; i < count; i++) {
+            replay.addFix(i * 1000L, LocationManager.GPS_PROVIDER, 48.8566 - i * 1e-3, 2.3522, 50);
+        }
+    }
+
+    /**
+     * @return the parameters of a startLocation sending every fix, without GPS staging nor duty cycling
+     */
+    private static JSONObject startAll() throws JSONException {
+        JSONObject fusion = new JSONObject();
+        fusion.put("strategy", "best");
+
+        JSONObject data = new JSONObject();
+        data.put("mode", "all");
+        data.put("accuracy", 1);
+        data.put("interval", 0);
+        data.put("gpsDelay", 0);
+        data.put("stationaryDelay", 0);
+        data.put("fusion", fusion);
+        return data;
+    }
+
+    /***********************************************************************************************
+     *
+     * REPLAY
+     *
+     **********************************************************************************************/
+
+    /**
+     * Replays the fixture through a startLocation sending every fix
+     * @return the latitudes of the fixes sent to the web side, in order
+     */
+    private List<Double> replayTrack(String name, String format) throws IOException, JSONException, InterruptedException {
+        replay.load(ReplayLocationSourceTest.openTrack(name), format);
+        // The passive provider would send every fix twice, the best fusion letting each fix through
+        replay.setProviderEnabled(LocationManager.PASSIVE_PROVIDER, false);
+        send("startLocation", startAll());
+        replay.start();
+
+        List<Double> latitudes = new ArrayList<>();
+        JSONObject message;
+        while ((message = pollMessage(500)) != null) {
+            assertEquals(LocationPlugin.JSActionOnLocationChanged, action(message));
+            latitudes.add(data(message).optDouble(LocationPlugin.kJSLatitude));
+        }
+        return latitudes;
+    }
+
+    /**
+     * Checks the latitudes end with the expected ones, the plugin first sending the best known fix
+     */
+    private static void assertEndsWith(List<Double> latitudes, Double... expected) {
+        assertTrue(latitudes.toString(), latitudes.size() >= expected.length);
+        assertEquals(Arrays.asList(expected), latitudes.subList(latitudes.size() - expected.length, latitudes.size()));
+    }
+
+    @Test
+    public void csvTrackIsReplayedToTheWebSide() throws IOException, JSONException, InterruptedException {
+        assertEndsWith(replayTrack("walk.csv", ReplayLocationSource.FORMAT_CSV), 48.8566, 48.8576, 48.8586, 48.8596);
+    }
+
+    @Test
+    public void gpxTrackIsReplayedToTheWebSide() throws IOException, JSONException, InterruptedException {
+        assertEndsWith(replayTrack("walk.gpx", ReplayLocationSource.FORMAT_GPX), 48.8566, 48.8576, 48.8596);
+    }
+
+    @Test
+    public void nmeaTrackIsReplayedToTheWebSide() throws IOException, JSONException, InterruptedException {
+        List<Double> latitudes = replayTrack("walk.nmea", ReplayLocationSource.FORMAT_NMEA);
+        assertTrue(latitudes.toString(), latitudes.size() >= 3);
+        List<Double> last = latitudes.subList(latitudes.size() - 3, latitudes.size());
+        assertEquals(48.8566, last.get(0), 1e-6);
+        assertEquals(48.8576, last.get(1), 1e-6);
+        assertEquals(48.8596, last.get(2), 1e-6);
+    }
+
+    @Test
+    public void recordingCapacityOutOfRangeIsAnsweredWithAnError() throws JSONException, InterruptedException {
+        for (long capacity : new long[] { 0, TrackRecorder.MAX_CAPACITY + 1L, 1L << 32, 10000000000L }) {
+            JSONObject data = new JSONObject();
+            data.put("capacity", capacity);
+            send("startRecording", data);
+
+            JSONObject message = takeMessage();
+            assertNotNull(message);
+            assertEquals(LocationPlugin.JSActionOnError, action(message));
+            assertEquals("startRecording", data(message).optString(LocationPlugin.kJSAction));
+        }
+    }
+
+    @Test
+    public void invalidExportParametersAreAnsweredWithAnError() throws JSONException, InterruptedException {
+        for (String parameters : new String[] { "{ tolerance: -1 }", "{ tolerance: 'Infinity' }", "{ tolerance: 'NaN' }",
+                                                "{ precision: -1 }", "{ precision: 8 }", "{ precision: 4294967301 }" }) {
+            send("exportTrack", new JSONObject(parameters));
+
+            JSONObject message = takeMessage();
+            assertNotNull(parameters, message);
+            assertEquals(parameters, LocationPlugin.JSActionOnError, action(message));
+            assertEquals("exportTrack", data(message).optString(LocationPlugin.kJSAction));
+        }
+    }
+
+    /**
+     * Replays the fixes through the given startLocation, the passive provider disabled
+     * @return the number of fixes sent to the web side
+     */
+    private int replayFixes(JSONObject data) throws InterruptedException {
+        replay.setProviderEnabled(LocationManager.PASSIVE_PROVIDER, false);
+        send("startLocation", data);
+        awaitProcessing();
+        replay.start();
+
+        int count = 0;
+        JSONObject message;
+        while ((message = pollMessage(500)) != null) {
+            assertEquals(LocationPlugin.JSActionOnLocationChanged, action(message));
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void fixesWithinTheIntervalAreCountedAsThrottled() throws JSONException, InterruptedException {
+        // Each provider only applies the interval to its own fixes
+        replay.addFix(0, LocationManager.GPS_PROVIDER, 48.8566, 2.3522, 50);
+        replay.addFix(1000, LocationManager.NETWORK_PROVIDER, 48.8576, 2.3522, 50);
+
+        JSONObject data = startAll();
+        data.put("interval", 60000);
+        assertEquals(1, replayFixes(data));
+
+        JSONObject metrics = getMetrics();
+        assertEquals(1, metrics.optLong(LocationPlugin.kJSFixesForwarded));
+        assertEquals(1, metrics.optLong(LocationPlugin.kJSFixesThrottled));
+        assertEquals(0, metrics.optLong(LocationPlugin.kJSFixesSuppressed));
+    }
+
+    @Test
+    public void fixesCloserThanTheDistanceAreSuppressed() throws JSONException, InterruptedException {
+        // 50 m then 200 m south of the first fix
+        replay.addFix(0, LocationManager.GPS_PROVIDER, 48.8566, 2.3522, 50);
+        replay.addFix(1000, LocationManager.GPS_PROVIDER, 48.85615, 2.3522, 50);
+        replay.addFix(2000, LocationManager.GPS_PROVIDER, 48.8548, 2.3522, 50);
+
+        JSONObject data = startAll();
+        data.put("distance", 100);
+        assertEquals(2, replayFixes(data));
+
+        JSONObject metrics = getMetrics();
+        assertEquals(2, metrics.optLong(LocationPlugin.kJSFixesForwarded));
+        assertEquals(1, metrics.optLong(LocationPlugin.kJSFixesSuppressed));
+        assertEquals(0, metrics.optLong(LocationPlugin.kJSFixesThrottled));
+    }
+
+    @Test
+    public void fixesWithoutEnoughAccuracyChangeAreSuppressed() throws JSONException, InterruptedException {
+        replay.addFix(0, LocationManager.GPS_PROVIDER, 48.8566, 2.3522, 50);
+        replay.addFix(1000, LocationManager.GPS_PROVIDER, 48.8566, 2.3522, 45);
+        replay.addFix(2000, LocationManager.GPS_PROVIDER, 48.8566, 2.3522, 20);
+
+        JSONObject data = startAll();
+        data.put("minAccuracyChange", 10);
+        assertEquals(2, replayFixes(data));
+
+        JSONObject metrics = getMetrics();
+        assertEquals(2, metrics.optLong(LocationPlugin.kJSFixesForwarded));
+        assertEquals(1, metrics.optLong(LocationPlugin.kJSFixesSuppressed));
+        assertEquals(0, metrics.optLong(LocationPlugin.kJSFixesThrottled));
+    }
+
+    @Test
+    public void invalidGeofencesAreAnsweredWithAnError() throws JSONException, InterruptedException {
+        JSONObject data = new JSONObject();
+        data.put("geofences", new JSONArray("["
+                                            + "{ id: 'valid', latitude: 48.8566, longitude: 2.3522, radius: 100 },"
+                                            + "{ id: 'missing', longitude: 2.3522, radius: 100 },"
+                                            + "{ id: 'north', latitude: 91, longitude: 2.3522, radius: 100 },"
+                                            + "{ id: 'text', latitude: 'north', longitude: 2.3522, radius: 100 },"
+                                            + "{ id: 'negative', latitude: 48.8566, longitude: 2.3522, radius: -1 },"
+                                            + "{ id: 'dwell', latitude: 48.8566, longitude: 2.3522, radius: 100, dwell: -1 },"
+                                            + "{ id: 5, latitude: 48.8566, longitude: 2.3522, radius: 100 },"
+                                            + "'fence'"
+                                            + "]"));
+        send("addGeofences", data);
+
+        JSONObject message = takeMessage();
+        assertNotNull(message);
+        assertEquals(LocationPlugin.JSActionOnError, action(message));
+        assertEquals("addGeofences", data(message).optString(LocationPlugin.kJSAction));
+        assertTrue(data(message).optString(LocationPlugin.kJSMessage),
+                   data(message).optString(LocationPlugin.kJSMessage).endsWith("1, 2, 3, 4, 5, 6, 7"));
+
+        send("removeGeofences", null);
+    }
+
+    @Test
+    public void invalidCoordinatesToReverseGeocodeAreAnsweredWithAnError() throws JSONException, InterruptedException {
+        for (String coordinates : new String[] { null, "{ latitude: 48.8566 }", "{ latitude: 91, longitude: 2.3522 }",
+                                                 "{ latitude: 48.8566, longitude: 'east' }" }) {
+            send("reverseGeocode", coordinates != null ? new JSONObject(coordinates) : null);
+
+            JSONObject message = takeMessage();
+            assertNotNull(message);
+            assertEquals(LocationPlugin.JSActionOnError, action(message));
+            assertEquals("reverseGeocode", data(message).optString(LocationPlugin.kJSAction));
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * POSITION
+     *
+     **********************************************************************************************/
+
+    @Test
+    public void concurrentPositionRequestsShareOneAcquisition() throws JSONException, InterruptedException {
+        CobaltFragment other = new CobaltFragment();
+        other.attach(new Activity(fragment.getActivity().getApplication()));
+        other.setResumed(true);
+
+        JSONObject data = new JSONObject();
+        data.put("accuracy", 20);
+        send("getCurrentPosition", data);
+        LocationPlugin.getInstance().onMessage(new CobaltPluginWebContainer(other), "getCurrentPosition", data, null);
+        awaitProcessing();
+        // Each provider registered once, for both requests
+        assertEquals(Arrays.asList(LocationManager.PASSIVE_PROVIDER, LocationManager.NETWORK_PROVIDER, LocationManager.GPS_PROVIDER),
+                     SOURCE.requests);
+
+        replay.addFix(0, LocationManager.GPS_PROVIDER, 48.8566, 2.3522, 10);
+        replay.start();
+
+        for (CobaltFragment requester : new CobaltFragment[] { fragment, other }) {
+            JSONObject message = requester.takeMessage(MESSAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(message);
+            assertEquals(LocationPlugin.JSActionOnLocationChanged, action(message));
+            assertEquals(48.8566, data(message).optDouble(LocationPlugin.kJSLatitude), 0);
+            assertNull(requester.takeMessage(200, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void positionRequestTimesOut() throws JSONException, InterruptedException {
+        // Never accurate enough
+        replay.addFix(0, LocationManager.GPS_PROVIDER, 48.8566, 2.3522, 50);
+
+        JSONObject data = new JSONObject();
+        data.put("accuracy", 20);
+        data.put("timeout", 300);
+        send("getCurrentPosition", data);
+        awaitProcessing();
+        replay.start();
+
+        assertEquals("timeout", takeStatus().optString(LocationPlugin.kJSStatus));
+        assertNull(pollMessage(200));
+    }
+
+    /***********************************************************************************************
+     *
+     * GPS ESCALATION
+     *
+     **********************************************************************************************/
+
+    /**
+     * Starts a session requiring 20 m within gpsDelay from the network fixes of the replay
+     */
+    private void startStaged() throws JSONException, InterruptedException {
+        replay.setProviderEnabled(LocationManager.PASSIVE_PROVIDER, false);
+
+        JSONObject data = startAll();
+        data.put("accuracy", 20);
+        data.put("gpsDelay", 300);
+        send("startLocation", data);
+        awaitProcessing();
+        replay.start();
+    }
+
+    @Test
+    public void gpsStaysOffWhenCoarseFixesAreAccurateEnough() throws JSONException, InterruptedException {
+        replay.addFix(0, LocationManager.NETWORK_PROVIDER, 48.8566, 2.3522, 15);
+        startStaged();
+
+        JSONObject message = takeMessage();
+        assertNotNull(message);
+        assertEquals(LocationPlugin.JSActionOnLocationChanged, action(message));
+        Thread.sleep(600);
+        assertEquals(Arrays.asList(LocationManager.NETWORK_PROVIDER), SOURCE.requests);
+    }
+
+    @Test
+    public void gpsStartsWhenCoarseFixesAreNotAccurateEnough() throws JSONException, InterruptedException {
+        replay.addFix(0, LocationManager.NETWORK_PROVIDER, 48.8566, 2.3522, 100);
+        startStaged();
+
+        assertEquals(Arrays.asList(LocationManager.NETWORK_PROVIDER), SOURCE.requests);
+        Thread.sleep(600);
+        assertEquals(Arrays.asList(LocationManager.NETWORK_PROVIDER, LocationManager.GPS_PROVIDER), SOURCE.requests);
+    }
+
+    /***********************************************************************************************
+     *
+     * MOTION
+     *
+     **********************************************************************************************/
+
+    @Test
+    public void knownFixDoesNotAnchorTheMotionDetector() throws JSONException, InterruptedException {
+        // Seen half a minute before the session, where the first fresh fix is
+        Location known = new Location(LocationManager.GPS_PROVIDER);
+        known.setLatitude(48.8566);
+        known.setLongitude(2.3522);
+        known.setAccuracy(10);
+        known.setTime(System.currentTimeMillis() - 30000);
+        SOURCE.lastKnownLocation = known;
+
+        JSONObject data = startAll();
+        data.put("stationaryDelay", 10000);
+        replay.addFix(0, LocationManager.GPS_PROVIDER, 48.8566, 2.3522, 10);
+        send("startLocation", data);
+        awaitProcessing();
+        replay.start();
+
+        JSONObject message;
+        while ((message = pollMessage(500)) != null) {
+            assertEquals(LocationPlugin.JSActionOnLocationChanged, action(message));
+        }
+    }
+
+    @Test
+    public void gpsIsNotStartedWhileStationary() throws JSONException, InterruptedException {
+        // Fifty times faster than recorded, GPS being due after 500 ms
+        replay = new ReplayLocationSource(Looper.getMainLooper(), 50);
+        SOURCE.delegate = replay;
+        for (int i = 0; i < 3; i++) {
+            replay.addFix(i * 1000L, LocationManager.NETWORK_PROVIDER, 48.8566, 2.3522, 100);
+        }
+        // A kilometer away after 1.4 s, past the stationary interval of the network provider
+        replay.addFix(72000, LocationManager.NETWORK_PROVIDER, 48.8666, 2.3522, 100);
+        replay.setProviderEnabled(LocationManager.PASSIVE_PROVIDER, false);
+
+        JSONObject data = startAll();
+        data.put("accuracy", 10);
+        data.put("gpsDelay", 500);
+        data.put("stationaryDelay", 1000);
+        send("startLocation", data);
+        awaitProcessing();
+        replay.start();
+
+        assertEquals("stationary", takeStatus().optString(LocationPlugin.kJSStatus));
+        Thread.sleep(700);
+        assertFalse(SOURCE.requests.toString(), SOURCE.requests.contains(LocationManager.GPS_PROVIDER));
+
+        assertEquals("moving", takeStatus().optString(LocationPlugin.kJSStatus));
+        assertTrue(SOURCE.requests.toString(), SOURCE.requests.contains(LocationManager.GPS_PROVIDER));
+    }
+
+    /***********************************************************************************************
+     *
+     * DELIVERY
+     *
+     **********************************************************************************************/
+
+    @Test
+    public void batchIsSentBeforeTheTimeout() throws JSONException, InterruptedException {
+        JSONObject batch = new JSONObject();
+        batch.put("maxSize", 100);
+        batch.put("maxDelayMs", 60000);
+
+        JSONObject data = startAll();
+        data.put("batch", batch);
+        data.put("timeout", 500);
+
+        addFixes(3);
+        send("startLocation", data);
+        replay.start();
+
+        JSONObject message = takeMessage();
+        assertNotNull(message);
+        assertEquals(LocationPlugin.JSActionOnLocationsChanged, action(message));
+        assertTrue(data(message).optJSONArray(LocationPlugin.kJSLocations).length() >= 3);
+
+        message = takeMessage();
+        assertNotNull(message);
+        assertEquals(LocationPlugin.JSActionOnStatusChanged, action(message));
+        assertEquals("timeout", data(message).optString(LocationPlugin.kJSStatus));
+
+        assertNull(pollMessage(200));
+    }
+
+    @Test
+    public void queueIsSentWhenTheFragmentResumes() throws InterruptedException {
+        fragment.setResumed(false);
+        send("getMetrics", null);
+        assertNull(pollMessage(200));
+
+        // Without any other delivery nor activity resume
+        fragment.setResumed(true);
+        JSONObject message = takeMessage();
+        assertNotNull(message);
+        assertEquals(LocationPlugin.JSActionOnMetrics, action(message));
+    }
+
+    @Test
+    public void resumedFragmentIsSentTo() throws InterruptedException {
+        send("getMetrics", null);
+        JSONObject message = takeMessage();
+        assertNotNull(message);
+        assertEquals(LocationPlugin.JSActionOnMetrics, action(message));
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ *
+ * ReplayLocationSourceTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.HandlerThread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayLocationSourceTest {
+
+    private HandlerThread thread;
+    private ReplayLocationSource source;
+    private final List<String> events = new ArrayList<>();
+    private long firstTime = -1;
+
+    @Before
+    public void setUp() {
+        thread = new HandlerThread("ReplayLocationSourceTest");
+        thread.start();
+        source = new ReplayLocationSource(thread.getLooper(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        thread.quit();
+    }
+
+    /**
+     * @return the fixture of the given name, in src/test/resources/tracks
+     */
+    static Reader openTrack(String name) {
+        return new InputStreamReader(ReplayLocationSourceTest.class.getResourceAsStream("/tracks/" + name),
+                                     StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Records the events of a provider as "provider latitude longitude accuracy +time", the time
+     * being relative to the first fix, or "provider enabled|disabled"
+     */
+    private final class Recorder implements LocationListener {
+        @Override
+        public void onLocationChanged(Location location) {
+            synchronized (events) {
+                if (firstTime < 0) {
+                    firstTime = location.getTime();
+                }
+                events.add(location.getProvider() + " " + location.getLatitude() + " " + location.getLongitude()
+                           + " " + location.getAccuracy() + " +" + (location.getTime() - firstTime));
+            }
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+            synchronized (events) {
+                events.add(provider + " enabled");
+            }
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+            synchronized (events) {
+                events.add(provider + " disabled");
+            }
+        }
+    }
+
+    /**
+     * Replays the loaded track to a recorder of the GPS and network providers
+     * @return the recorded events
+     */
+    private List<String> replay() throws InterruptedException {
+        source.requestUpdates(LocationManager.GPS_PROVIDER, 0, new Recorder(), thread.getLooper());
+        source.requestUpdates(LocationManager.NETWORK_PROVIDER, 0, new Recorder(), thread.getLooper());
+
+        source.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (source.isReplaying() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(source.isReplaying());
+
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * FORMATS
+     *
+     **********************************************************************************************/
+
+    @Test
+    public void csvTrackIsReplayed() throws IOException, InterruptedException {
+        source.load(openTrack("walk.csv"), ReplayLocationSource.FORMAT_CSV);
+
+        assertEquals(Arrays.asList("gps 48.8566 2.3522 12.0 +0",
+                                   "network 48.8576 2.3522 10.0 +1000",
+                                   "network disabled",
+                                   "gps 48.8586 2.3522 8.0 +2000",
+                                   "gps 48.8596 2.3522 10.0 +3000"),
+                     replay());
+    }
+
+    @Test
+    public void gpxTrackIsReplayed() throws IOException, InterruptedException {
+        source.load(openTrack("walk.gpx"), ReplayLocationSource.FORMAT_GPX);
+
+        // The point without time is skipped
+        assertEquals(Arrays.asList("gps 48.8566 2.3522 12.0 +0",
+                                   "gps 48.8576 2.3522 10.0 +1500",
+                                   "gps 48.8596 2.3522 5.0 +3000"),
+                     replay());
+    }
+
+    @Test
+    public void nmeaTrackIsReplayed() throws IOException, InterruptedException {
+        source.load(openTrack("walk.nmea"), ReplayLocationSource.FORMAT_NMEA);
+
+        // The void fix and the sentence with a wrong checksum are skipped, the accuracy comes from the GGA sentence
+        List<String> events = replay();
+        assertEquals(3, events.size());
+        assertFix(events.get(0), 48.8566, 2.3522, 10, 0);
+        assertFix(events.get(1), 48.8576, 2.3522, 6, 1500);
+        assertFix(events.get(2), 48.8596, 2.3522, 6, 3000);
+    }
+
+    private static void assertFix(String event, double latitude, double longitude, float accuracy, long time) {
+        String[] fields = event.split(" ");
+        assertEquals(LocationManager.GPS_PROVIDER, fields[0]);
+        assertEquals(latitude, Double.parseDouble(fields[1]), 1e-6);
+        assertEquals(longitude, Double.parseDouble(fields[2]), 1e-6);
+        assertEquals(accuracy, Float.parseFloat(fields[3]), 1e-3);
+        assertEquals("+" + time, fields[4]);
+    }
+
+    @Test
+    public void nmeaDatesBeforeEightyAreInTheTwoThousands() throws IOException, InterruptedException {
+        // 31 December 1999 23:59:59, then 1 January 2000 00:00:01, in the southern and western hemispheres
+        source.load(new StringReader("$GPRMC,235959,A,3351.000,S,15112.000,W,0.0,0.0,311299,,,A\n"
+                                     + "$GPRMC,000001,A,3351.000,S,15112.000,W,0.0,0.0,010100,,,A\n"),
+                    ReplayLocationSource.FORMAT_NMEA);
+
+        List<String> events = replay();
+        assertEquals(2, events.size());
+        assertFix(events.get(0), -33.85, -151.2, 10, 0);
+        assertFix(events.get(1), -33.85, -151.2, 10, 2000);
+    }
+
+    /***********************************************************************************************
+     *
+     * ERRORS
+     *
+     **********************************************************************************************/
+
+    private void assertMalformed(String track, String format, String expectedLine) {
+        try {
+            source.load(new StringReader(track), format);
+            fail("IOException expected");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed line " + expectedLine));
+            assertTrue(e.getCause() instanceof RuntimeException);
+        }
+    }
+
+    @Test
+    public void malformedCsvNumberNamesItsLine() {
+        assertMalformed("time,latitude,longitude\n1000,48.8566,2.3522\n2000,48.85x,2.3522\n",
+                        ReplayLocationSource.FORMAT_CSV, "3: 2000,48.85x,2.3522");
+        // Only the first line may be a header
+        assertMalformed("1000,48.8566,2.3522\n# comment\n\nt2000,48.8576,2.3522\n",
+                        ReplayLocationSource.FORMAT_CSV, "4:");
+    }
+
+    @Test
+    public void malformedGpxNumberNamesItsLine() {
+        assertMalformed("<gpx>\n<trkpt lat=\"48.8566\" lon=\"2.3522\"><time>2017-07-14T10:00:00Z</time></trkpt>\n"
+                        + "<trkpt lat=\"north\" lon=\"2.3522\">\n<time>2017-07-14T10:00:01Z</time></trkpt>\n</gpx>\n",
+                        ReplayLocationSource.FORMAT_GPX, "3:");
+        assertMalformed("<trkpt lat=\"48.8566\" lon=\"2.3522\"><time>2017-07</time></trkpt>",
+                        ReplayLocationSource.FORMAT_GPX, "1:");
+    }
+
+    @Test
+    public void malformedNmeaNumberNamesItsLine() {
+        assertMalformed("$GPGGA,100000,4851.396,N,00221.132,E,1,08,1.2,35.0,M,47.0,M,,\n"
+                        + "$GPRMC,100001,A,48x1.456,N,00221.132,E,0.5,180.0,140717,,,A\n",
+                        ReplayLocationSource.FORMAT_NMEA, "2:");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFormatIsRejected() throws IOException {
+        source.load(new StringReader(""), "kml");
+    }
+}
@@ -0,0 +1,403 @@
+/**
+ *
+ * ReverseGeocodingCacheTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+package io.kristal.locationplugin;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReverseGeocodingCacheTest {
+
+    // File format of the cache
+    private static final int MAGIC = 0x52474543;
+    private static final byte VERSION = 1;
+
+    private static final double LATITUDE = 48.8566;
+    private static final double LONGITUDE = 2.3522;
+    private static final GeocodedAddress ADDRESS = new GeocodedAddress("1 Place de l'Hotel de Ville", "Place de l'Hotel de Ville",
+                                                                       "Paris", "75004", "France", "FR");
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HandlerThread thread;
+    private Handler handler;
+    private InMemoryGeocoderBackend backend;
+
+    @Before
+    public void setUp() {
+        thread = new HandlerThread("ReverseGeocodingCacheTest");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        backend = new InMemoryGeocoderBackend(500);
+        // About 1 km apart, each in its own cell
+        backend.put(LATITUDE, LONGITUDE, ADDRESS);
+        backend.put(LATITUDE + 0.01, LONGITUDE, ADDRESS);
+        backend.put(LATITUDE + 0.02, LONGITUDE, ADDRESS);
+    }
+
+    @After
+    public void tearDown() {
+        thread.quit();
+    }
+
+    /**
+     * Runs the executed commands when asked to
+     */
+    private static final class QueuedExecutor implements Executor {
+        final List<Runnable> commands = Collections.synchronizedList(new ArrayList<Runnable>());
+
+        @Override
+        public void execute(Runnable command) {
+            commands.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> pending;
+            synchronized (commands) {
+                pending = new ArrayList<>(commands);
+                commands.clear();
+            }
+            for (Runnable command : pending) {
+                command.run();
+            }
+        }
+    }
+
+    private static final class Result implements ReverseGeocodingCache.Callback {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        volatile GeocodedAddress address;
+
+        @Override
+        public void onAddress(GeocodedAddress address) {
+            this.address = address;
+            calls.incrementAndGet();
+            latch.countDown();
+        }
+
+        GeocodedAddress await() throws InterruptedException {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            return address;
+        }
+    }
+
+    private ReverseGeocodingCache createCache(GeocoderBackend backend, Executor lookupExecutor, File file,
+                                              Executor writeExecutor, long ttl, int maxBytes) {
+        return new ReverseGeocodingCache(backend, handler, lookupExecutor, file, writeExecutor,
+                                         ReverseGeocodingCache.DEFAULT_PRECISION, ttl, maxBytes);
+    }
+
+    private ReverseGeocodingCache createCache(File file, Executor writeExecutor, int maxBytes) {
+        return createCache(backend, DIRECT_EXECUTOR, file, writeExecutor, ReverseGeocodingCache.DEFAULT_TTL, maxBytes);
+    }
+
+    /**
+     * Runs the call on the thread of the cache
+     */
+    private <T> T onHandler(Callable<T> callable) throws Exception {
+        FutureTask<T> task = new FutureTask<>(callable);
+        handler.post(task);
+        return task.get(5, TimeUnit.SECONDS);
+    }
+
+    private Result lookup(final ReverseGeocodingCache cache, final double latitude, final double longitude) throws Exception {
+        final Result result = new Result();
+        onHandler(new Callable<Void>() {
+            @Override
+            public Void call() {
+                cache.lookup(cache.getCell(latitude, longitude), latitude, longitude, result);
+                return null;
+            }
+        });
+        return result;
+    }
+
+    private boolean isCached(final ReverseGeocodingCache cache, final double latitude, final double longitude) throws Exception {
+        return onHandler(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return cache.isCached(cache.getCell(latitude, longitude));
+            }
+        });
+    }
+
+    /**
+     * @return the memory budget of the given number of entries of ADDRESS
+     */
+    private static int budget(int entries) {
+        // See ReverseGeocodingCache.Entry.size
+        return entries * (80 + 2 * ReverseGeocodingCache.DEFAULT_PRECISION + ADDRESS.estimateSize());
+    }
+
+    /**
+     * Writes entries of ADDRESS for the given latitudes at LONGITUDE, from the least recently used
+     */
+    private static void writeFile(File file, long expiry, double... latitudes) throws IOException {
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeInt(latitudes.length);
+        for (double latitude : latitudes) {
+            output.writeUTF(Geohash.encode(latitude, LONGITUDE, ReverseGeocodingCache.DEFAULT_PRECISION));
+            output.writeLong(expiry);
+            output.writeBoolean(true);
+            for (String field : new String[] { ADDRESS.getLine(), ADDRESS.getThoroughfare(), ADDRESS.getLocality(),
+                                               ADDRESS.getPostalCode(), ADDRESS.getCountryName(), ADDRESS.getCountryCode() }) {
+                output.writeBoolean(true);
+                output.writeUTF(field);
+            }
+        }
+        output.close();
+    }
+
+    private static void assertAddress(GeocodedAddress address) {
+        assertNotNull(address);
+        assertEquals(ADDRESS.getLine(), address.getLine());
+        assertEquals(ADDRESS.getThoroughfare(), address.getThoroughfare());
+        assertEquals(ADDRESS.getLocality(), address.getLocality());
+        assertEquals(ADDRESS.getPostalCode(), address.getPostalCode());
+        assertEquals(ADDRESS.getCountryName(), address.getCountryName());
+        assertEquals(ADDRESS.getCountryCode(), address.getCountryCode());
+    }
+
+    @Test
+    public void lookupsOfOneCellAreCoalesced() throws Exception {
+        QueuedExecutor lookupExecutor = new QueuedExecutor();
+        ReverseGeocodingCache cache = createCache(backend, lookupExecutor, null, DIRECT_EXECUTOR,
+                                                  ReverseGeocodingCache.DEFAULT_TTL, ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+
+        // A few meters apart, in the same cell
+        Result first = lookup(cache, LATITUDE, LONGITUDE);
+        Result second = lookup(cache, LATITUDE + 0.00001, LONGITUDE);
+        Result third = lookup(cache, LATITUDE, LONGITUDE + 0.00001);
+        assertEquals(1, lookupExecutor.commands.size());
+
+        lookupExecutor.runAll();
+        assertAddress(first.await());
+        assertAddress(second.await());
+        assertAddress(third.await());
+        assertEquals(1, backend.getCallCount());
+
+        assertTrue(isCached(cache, LATITUDE, LONGITUDE));
+        assertAddress(lookup(cache, LATITUDE, LONGITUDE).await());
+        assertEquals(0, lookupExecutor.commands.size());
+        assertEquals(1, backend.getCallCount());
+    }
+
+    @Test
+    public void cellsWithoutAddressAreCached() throws Exception {
+        ReverseGeocodingCache cache = createCache(null, DIRECT_EXECUTOR, ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+
+        assertNull(lookup(cache, 0, 0).await());
+        assertTrue(isCached(cache, 0, 0));
+        assertNull(lookup(cache, 0, 0).await());
+        assertEquals(1, backend.getCallCount());
+    }
+
+    @Test
+    public void expiredEntriesAreLookedUpAgain() throws Exception {
+        ReverseGeocodingCache cache = createCache(backend, DIRECT_EXECUTOR, null, DIRECT_EXECUTOR, 200,
+                                                  ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+
+        assertAddress(lookup(cache, LATITUDE, LONGITUDE).await());
+        assertTrue(isCached(cache, LATITUDE, LONGITUDE));
+
+        Thread.sleep(300);
+        assertFalse(isCached(cache, LATITUDE, LONGITUDE));
+        assertAddress(lookup(cache, LATITUDE, LONGITUDE).await());
+        assertEquals(2, backend.getCallCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedBeyondBudget() throws Exception {
+        ReverseGeocodingCache cache = createCache(null, DIRECT_EXECUTOR, budget(2));
+
+        lookup(cache, LATITUDE, LONGITUDE).await();
+        lookup(cache, LATITUDE + 0.01, LONGITUDE).await();
+        // Uses the first one, so that the second one is the least recently used
+        assertTrue(isCached(cache, LATITUDE, LONGITUDE));
+        lookup(cache, LATITUDE + 0.02, LONGITUDE).await();
+
+        assertTrue(isCached(cache, LATITUDE, LONGITUDE));
+        assertFalse(isCached(cache, LATITUDE + 0.01, LONGITUDE));
+        assertTrue(isCached(cache, LATITUDE + 0.02, LONGITUDE));
+    }
+
+    @Test
+    public void entriesArePersisted() throws Exception {
+        File file = new File(folder.getRoot(), "geocoding");
+        ReverseGeocodingCache cache = createCache(file, DIRECT_EXECUTOR, ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+        assertAddress(lookup(cache, LATITUDE, LONGITUDE).await());
+        assertNull(lookup(cache, 0, 0).await());
+
+        // Written after WRITE_DELAY
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertTrue(file.exists());
+
+        InMemoryGeocoderBackend emptyBackend = new InMemoryGeocoderBackend(500);
+        ReverseGeocodingCache restored = createCache(emptyBackend, DIRECT_EXECUTOR, file, DIRECT_EXECUTOR,
+                                                     ReverseGeocodingCache.DEFAULT_TTL, ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+        assertAddress(lookup(restored, LATITUDE, LONGITUDE).await());
+        assertNull(lookup(restored, 0, 0).await());
+        assertTrue(isCached(restored, 0, 0));
+        assertEquals(0, emptyBackend.getCallCount());
+    }
+
+    @Test
+    public void fileIsLoadedOnWriteExecutor() throws Exception {
+        File file = new File(folder.getRoot(), "geocoding");
+        writeFile(file, System.currentTimeMillis() + 60000, LATITUDE);
+
+        QueuedExecutor writeExecutor = new QueuedExecutor();
+        ReverseGeocodingCache cache = createCache(file, writeExecutor, ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+
+        // Not loaded yet: the lookup waits for the file rather than calling the backend
+        assertFalse(isCached(cache, LATITUDE, LONGITUDE));
+        Result result = lookup(cache, LATITUDE, LONGITUDE);
+        assertEquals(1, writeExecutor.commands.size());
+        assertEquals(1, result.latch.getCount());
+
+        writeExecutor.runAll();
+        assertAddress(result.await());
+        assertTrue(isCached(cache, LATITUDE, LONGITUDE));
+        assertEquals(0, backend.getCallCount());
+    }
+
+    @Test
+    public void loadedEntriesAreEvictedBeyondBudget() throws Exception {
+        File file = new File(folder.getRoot(), "geocoding");
+        writeFile(file, System.currentTimeMillis() + 60000, LATITUDE, LATITUDE + 0.01, LATITUDE + 0.02);
+
+        ReverseGeocodingCache cache = createCache(file, DIRECT_EXECUTOR, budget(2));
+        // Waits for the load
+        lookup(cache, LATITUDE + 0.02, LONGITUDE).await();
+
+        assertFalse(isCached(cache, LATITUDE, LONGITUDE));
+        assertTrue(isCached(cache, LATITUDE + 0.01, LONGITUDE));
+        assertTrue(isCached(cache, LATITUDE + 0.02, LONGITUDE));
+        assertEquals(0, backend.getCallCount());
+    }
+
+    @Test
+    public void expiredEntriesAreNotLoaded() throws Exception {
+        File file = new File(folder.getRoot(), "geocoding");
+        writeFile(file, System.currentTimeMillis() - 1, LATITUDE);
+
+        ReverseGeocodingCache cache = createCache(file, DIRECT_EXECUTOR, ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+        assertAddress(lookup(cache, LATITUDE, LONGITUDE).await());
+        assertEquals(1, backend.getCallCount());
+    }
+
+    @Test
+    public void corruptFilesAreIgnored() throws Exception {
+        File valid = new File(folder.getRoot(), "valid");
+        writeFile(valid, System.currentTimeMillis() + 60000, LATITUDE, LATITUDE + 0.01);
+        byte[] content = Files.readAllBytes(valid.toPath());
+
+        File truncated = new File(folder.getRoot(), "truncated");
+        Files.write(truncated.toPath(), Arrays.copyOf(content, content.length - 10));
+        File garbage = new File(folder.getRoot(), "garbage");
+        Files.write(garbage.toPath(), "not a cache".getBytes(StandardCharsets.UTF_8));
+        File empty = folder.newFile("empty");
+
+        int calls = 0;
+        for (File file : new File[] { truncated, garbage, empty }) {
+            ReverseGeocodingCache cache = createCache(file, DIRECT_EXECUTOR, ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+            assertAddress(lookup(cache, LATITUDE, LONGITUDE).await());
+            assertEquals(file.getName(), ++calls, backend.getCallCount());
+            // Nothing read from the file is kept
+            assertFalse(file.getName(), isCached(cache, LATITUDE + 0.01, LONGITUDE));
+        }
+    }
+
+    @Test
+    public void failingBackendStillCompletesLookups() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        GeocoderBackend failingBackend = new GeocoderBackend() {
+            @Override
+            public GeocodedAddress reverseGeocode(double latitude, double longitude) throws IOException {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IOException("Network unavailable");
+                }
+                throw new IllegalArgumentException("Invalid coordinates");
+            }
+        };
+        ReverseGeocodingCache cache = createCache(failingBackend, DIRECT_EXECUTOR, null, DIRECT_EXECUTOR,
+                                                  ReverseGeocodingCache.DEFAULT_TTL, ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+
+        for (int i = 1; i <= 2; i++) {
+            Result result = lookup(cache, LATITUDE, LONGITUDE);
+            assertNull(result.await());
+            assertEquals(1, result.calls.get());
+            // Failures are not cached
+            assertFalse(isCached(cache, LATITUDE, LONGITUDE));
+            assertEquals(i, calls.get());
+        }
+    }
+}
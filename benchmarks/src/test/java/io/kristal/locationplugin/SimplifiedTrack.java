@@ -0,0 +1,166 @@
+/**
+ *
+ * SimplifiedTrack
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+package io.kristal.locationplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recorded track simplified and encoded as exportTrack does, with the points the simplifier kept
+ * and the polyline decoded back, to measure how far both are from the recorded points
+ */
+final class SimplifiedTrack {
+
+    final int recordedPoints;
+    final int keptPoints;
+    final String polyline;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final List<double[]> kept = new ArrayList<>();
+    private final List<double[]> decoded;
+
+    SimplifiedTrack(TrackRecorder recorder, double tolerance, int precision) {
+        long firstIndex = recorder.firstIndex();
+        recordedPoints = (int) (recorder.endIndex() - firstIndex);
+        latitudes = new double[recordedPoints];
+        longitudes = new double[recordedPoints];
+
+        final PolylineEncoder encoder = new PolylineEncoder(precision);
+        TrackSimplifier simplifier = new TrackSimplifier(tolerance, TrackSimplifier.DEFAULT_WINDOW, new TrackSimplifier.Sink() {
+            @Override
+            public void add(double latitude, double longitude) {
+                kept.add(new double[] { latitude, longitude });
+                encoder.add(latitude, longitude);
+            }
+        });
+        for (int i = 0; i < recordedPoints; i++) {
+            latitudes[i] = recorder.getLatitude(firstIndex + i);
+            longitudes[i] = recorder.getLongitude(firstIndex + i);
+            simplifier.add(latitudes[i], longitudes[i]);
+        }
+        simplifier.finish();
+
+        keptPoints = kept.size();
+        polyline = encoder.toString();
+        decoded = decode(polyline, precision);
+    }
+
+    /**
+     * @return the maximum distance in meters between a recorded point and the segment of the
+     * simplified track between the kept points around it
+     */
+    double maxDeviation() {
+        return maxDeviation(kept);
+    }
+
+    /**
+     * @return the same as maxDeviation, against the track decoded from the polyline, which also
+     * carries the rounding to the precision
+     */
+    double maxDecodedDeviation() {
+        return maxDeviation(decoded);
+    }
+
+    /**
+     * @return the number of points decoded from the polyline
+     */
+    int decodedPoints() {
+        return decoded.size();
+    }
+
+    private double maxDeviation(List<double[]> track) {
+        double max = 0;
+        // Kept points are recorded points, so the segment around each recorded point is found by
+        // walking both in order
+        int segment = 1;
+        for (int i = 0; i < recordedPoints; i++) {
+            double[] kept = this.kept.get(segment);
+            if (latitudes[i] == kept[0] && longitudes[i] == kept[1] && segment < this.kept.size() - 1) {
+                max = Math.max(max, deviation(latitudes[i], longitudes[i], track.get(segment - 1), track.get(segment)));
+                segment++;
+            }
+            max = Math.max(max, deviation(latitudes[i], longitudes[i], track.get(segment - 1), track.get(segment)));
+        }
+        return max;
+    }
+
+    /**
+     * @return the distance in meters between the point and the segment, projected around its start
+     * as TrackSimplifier does
+     */
+    private static double deviation(double latitude, double longitude, double[] start, double[] end) {
+        double metersPerLongitudeDegree = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(start[0]));
+        double endX = GeoMath.wrapLongitude(end[1] - start[1]) * metersPerLongitudeDegree;
+        double endY = (end[0] - start[0]) * GeoMath.METERS_PER_DEGREE;
+        double pointX = GeoMath.wrapLongitude(longitude - start[1]) * metersPerLongitudeDegree;
+        double pointY = (latitude - start[0]) * GeoMath.METERS_PER_DEGREE;
+
+        double lengthSquared = endX * endX + endY * endY;
+        double t = lengthSquared > 0 ? (pointX * endX + pointY * endY) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+
+        return Math.hypot(pointX - t * endX, pointY - t * endY);
+    }
+
+    /**
+     * Decodes an encoded polyline, as the web side does
+     */
+    static List<double[]> decode(String polyline, int precision) {
+        double factor = Math.pow(10, precision);
+        List<double[]> points = new ArrayList<>();
+
+        long latitude = 0;
+        long longitude = 0;
+        int index = 0;
+        while (index < polyline.length()) {
+            long[] value = new long[1];
+            index = decodeValue(polyline, index, value);
+            latitude += value[0];
+            index = decodeValue(polyline, index, value);
+            longitude += value[0];
+            points.add(new double[] { latitude / factor, longitude / factor });
+        }
+        return points;
+    }
+
+    private static int decodeValue(String polyline, int index, long[] value) {
+        long result = 0;
+        int shift = 0;
+        int chunk;
+        do {
+            chunk = polyline.charAt(index++) - 63;
+            result |= (long) (chunk & 0x1f) << shift;
+            shift += 5;
+        } while (chunk >= 0x20);
+
+        value[0] = (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+        return index;
+    }
+}
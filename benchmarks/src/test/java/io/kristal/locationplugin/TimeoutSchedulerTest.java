@@ -0,0 +1,202 @@
+/**
+ *
+ * TimeoutSchedulerTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimeoutSchedulerTest {
+
+    private static final long TICK = 100;
+
+    private HandlerThread thread;
+    private TimeoutScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        thread = new HandlerThread("TimeoutSchedulerTest");
+        thread.start();
+        scheduler = new TimeoutScheduler(new Handler(thread.getLooper()));
+    }
+
+    @After
+    public void tearDown() {
+        thread.quit();
+    }
+
+    private static final class Task implements Runnable {
+        final long scheduledTime = SystemClock.uptimeMillis();
+        final AtomicLong firedTime = new AtomicLong(-1);
+        final CountDownLatch latch;
+
+        Task(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            firedTime.set(SystemClock.uptimeMillis());
+            latch.countDown();
+        }
+
+        long waited() {
+            return firedTime.get() - scheduledTime;
+        }
+    }
+
+    @Test
+    public void timeoutFiresAfterItsDelay() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Task task = new Task(latch);
+        scheduler.schedule(task, 250);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(task.waited() + " ms", task.waited() >= 250);
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void timeoutScheduledJustBeforeATickIsNotEarly() throws InterruptedException {
+        // Starts the wheel, ticking every TICK from now
+        scheduler.schedule(new Task(new CountDownLatch(1)), 10 * TICK);
+        Thread.sleep(TICK - 10);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        Task task = new Task(latch);
+        scheduler.schedule(task, TICK);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(task.waited() + " ms", task.waited() >= TICK);
+    }
+
+    @Test
+    public void timeoutsAreNeverEarly() throws InterruptedException {
+        int count = 200;
+        CountDownLatch latch = new CountDownLatch(count);
+        Task[] tasks = new Task[count];
+        long[] delays = new long[count];
+        for (int i = 0; i < count; i++) {
+            delays[i] = (i * 37) % 500;
+            tasks[i] = new Task(latch);
+            scheduler.schedule(tasks[i], delays[i]);
+            if (i % 20 == 0) {
+                // Spreads the timeouts over the tick
+                Thread.sleep(13);
+            }
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            assertTrue(i + ": " + tasks[i].waited() + " ms for " + delays[i], tasks[i].waited() >= delays[i]);
+        }
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotFire() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Task cancelled = new Task(latch);
+        TimeoutScheduler.Timeout timeout = scheduler.schedule(cancelled, TICK);
+        assertEquals(1, scheduler.getPendingCount());
+
+        timeout.cancel();
+        assertEquals(0, scheduler.getPendingCount());
+        // Cancelling twice is harmless
+        timeout.cancel();
+
+        assertFalse(latch.await(3 * TICK, TimeUnit.MILLISECONDS));
+        assertEquals(-1, cancelled.firedTime.get());
+    }
+
+    @Test
+    public void taskMayScheduleAnotherTimeout() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.schedule(new Task(latch), TICK);
+            }
+        }, TICK);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void threadCountIsConstantWhateverThePendingCount() throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadCount = threads.getThreadCount();
+
+        int count = 10000;
+        final AtomicInteger fired = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(count);
+        TimeoutScheduler.Timeout[] timeouts = new TimeoutScheduler.Timeout[count];
+        for (int i = 0; i < count; i++) {
+            timeouts[i] = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fired.incrementAndGet();
+                    latch.countDown();
+                }
+            }, 2 * TICK + i % 300);
+        }
+
+        assertEquals(count, scheduler.getPendingCount());
+        assertEquals(threadCount, threads.getThreadCount());
+
+        // Half of the listeners stop before their timeout
+        for (int i = 0; i < count; i += 2) {
+            timeouts[i].cancel();
+            latch.countDown();
+        }
+        assertEquals(count / 2, scheduler.getPendingCount());
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(count / 2, fired.get());
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(threadCount, threads.getThreadCount());
+    }
+}
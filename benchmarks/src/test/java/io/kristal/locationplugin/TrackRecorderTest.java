@@ -0,0 +1,363 @@
+/**
+ *
+ * TrackRecorderTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrackRecorderTest {
+
+    // Offset of the capacity in the header
+    private static final int HEADER_CAPACITY = 8;
+    // Offset of the record count in the header
+    private static final int HEADER_COUNT = 16;
+    // Offset of the sequence in a record
+    private static final int RECORD_SEQUENCE = 24;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long START_TIME = 1500000000000L;
+
+    /**
+     * Appends count fixes, one per second from START_TIME, each at its own position
+     */
+    private static void appendFixes(TrackRecorder recorder, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            assertTrue(recorder.append(latitude(i), longitude(i), i, START_TIME + i * 1000L, TrackRecorder.PROVIDER_GPS));
+        }
+    }
+
+    private static double latitude(int i) {
+        return 48.8566 + i * 1e-5;
+    }
+
+    private static double longitude(int i) {
+        return 2.3522 - i * 1e-5;
+    }
+
+    private static void assertRecord(TrackRecorder recorder, long index) {
+        int i = (int) index;
+        assertEquals(START_TIME + i * 1000L, recorder.getTime(index));
+        assertEquals(latitude(i), recorder.getLatitude(index), 1e-7);
+        assertEquals(longitude(i), recorder.getLongitude(index), 1e-7);
+        assertEquals(i, recorder.getAccuracy(index), 0);
+        assertEquals(TrackRecorder.PROVIDER_GPS, recorder.getProvider(index));
+    }
+
+    private static void writeLong(File file, long position, long value) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            ByteBuffer bytes = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.putLong(0, value);
+            output.seek(position);
+            output.write(bytes.array());
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    private static long recordPosition(long index, int capacity) {
+        return TrackRecorder.HEADER_SIZE + (index % capacity) * TrackRecorder.RECORD_SIZE;
+    }
+
+    /***********************************************************************************************
+     *
+     * FORMAT
+     *
+     **********************************************************************************************/
+
+    @Test
+    public void fileFollowsTheDocumentedLayout() throws IOException {
+        File file = folder.newFile();
+        TrackRecorder recorder = new TrackRecorder(file, 4);
+        recorder.append(-33.8688197, 151.2092955, 12.5f, START_TIME, TrackRecorder.PROVIDER_NETWORK);
+        recorder.close();
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertEquals(TrackRecorder.HEADER_SIZE + 4 * TrackRecorder.RECORD_SIZE, bytes.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0x54524B31, buffer.getInt(0));
+        assertEquals(1, buffer.getInt(4));
+        assertEquals(4, buffer.getInt(8));
+        assertEquals(TrackRecorder.RECORD_SIZE, buffer.getInt(12));
+        assertEquals(1, buffer.getLong(HEADER_COUNT));
+
+        int record = TrackRecorder.HEADER_SIZE;
+        assertEquals(START_TIME, buffer.getLong(record));
+        assertEquals(-338688197, buffer.getInt(record + 8));
+        assertEquals(1512092955, buffer.getInt(record + 12));
+        assertEquals(12.5f, buffer.getFloat(record + 16), 0);
+        assertEquals(TrackRecorder.PROVIDER_NETWORK, buffer.get(record + 20));
+        assertEquals(1, buffer.getLong(record + RECORD_SEQUENCE));
+
+        // The other records are zeroed
+        for (int i = record + TrackRecorder.RECORD_SIZE; i < bytes.length; i++) {
+            assertEquals(0, bytes[i]);
+        }
+    }
+
+    @Test
+    public void recordsSurviveReopening() throws IOException {
+        File file = folder.newFile();
+        TrackRecorder recorder = new TrackRecorder(file, 100);
+        appendFixes(recorder, 0, 10);
+        recorder.close();
+
+        recorder = new TrackRecorder(file, 100);
+        assertEquals(10, recorder.size());
+        assertEquals(0, recorder.firstIndex());
+        assertEquals(10, recorder.endIndex());
+        for (long index = 0; index < 10; index++) {
+            assertRecord(recorder, index);
+        }
+
+        // Appending resumes after the last record
+        appendFixes(recorder, 10, 1);
+        assertRecord(recorder, 10);
+        recorder.close();
+    }
+
+    @Test
+    public void ringKeepsTheNewestRecords() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(folder.newFile(), 4);
+        appendFixes(recorder, 0, 10);
+
+        assertEquals(4, recorder.size());
+        assertEquals(6, recorder.firstIndex());
+        assertEquals(10, recorder.endIndex());
+        for (long index = 6; index < 10; index++) {
+            assertRecord(recorder, index);
+        }
+        recorder.close();
+    }
+
+    @Test
+    public void fixNotNewerThanTheLastOneIsIgnored() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(folder.newFile(), 4);
+        appendFixes(recorder, 0, 2);
+
+        assertFalse(recorder.append(0, 0, 1, START_TIME + 1000, TrackRecorder.PROVIDER_GPS));
+        assertFalse(recorder.append(0, 0, 1, START_TIME, TrackRecorder.PROVIDER_GPS));
+        assertEquals(2, recorder.endIndex());
+        assertRecord(recorder, 1);
+        recorder.close();
+    }
+
+    @Test
+    public void lowerBoundFindsTimeRanges() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(folder.newFile(), 8);
+        appendFixes(recorder, 0, 20);
+
+        // Kept: 12 to 19
+        assertEquals(12, recorder.lowerBound(0));
+        assertEquals(12, recorder.lowerBound(START_TIME + 12000));
+        assertEquals(15, recorder.lowerBound(START_TIME + 14001));
+        assertEquals(15, recorder.lowerBound(START_TIME + 15000));
+        assertEquals(19, recorder.lowerBound(START_TIME + 19000));
+        assertEquals(20, recorder.lowerBound(START_TIME + 19001));
+        assertEquals(20, recorder.lowerBound(Long.MAX_VALUE));
+        recorder.close();
+    }
+
+    @Test
+    public void otherCapacityOrFormatResetsTheFile() throws IOException {
+        File file = folder.newFile();
+        TrackRecorder recorder = new TrackRecorder(file, 4);
+        appendFixes(recorder, 0, 3);
+        recorder.close();
+
+        recorder = new TrackRecorder(file, 8);
+        assertEquals(0, recorder.size());
+        recorder.close();
+
+        // Wrong magic
+        writeLong(file, 0, 0);
+        recorder = new TrackRecorder(file, 8);
+        assertEquals(0, recorder.size());
+        recorder.close();
+    }
+
+    @Test
+    public void capacityIsReadFromTheHeader() throws IOException {
+        File file = folder.newFile();
+        assertEquals(16, TrackRecorder.readCapacity(new File(folder.getRoot(), "missing"), 16));
+        // Empty file
+        assertEquals(16, TrackRecorder.readCapacity(file, 16));
+
+        new TrackRecorder(file, 4).close();
+        assertEquals(4, TrackRecorder.readCapacity(file, 16));
+
+        // Capacity beyond the maximum, record size kept
+        writeLong(file, HEADER_CAPACITY, ((long) TrackRecorder.RECORD_SIZE << 32) | Integer.MAX_VALUE);
+        assertEquals(16, TrackRecorder.readCapacity(file, 16));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityBeyondTheMaximumIsRejected() throws IOException {
+        new TrackRecorder(folder.newFile(), TrackRecorder.MAX_CAPACITY + 1);
+    }
+
+    @Test
+    public void providerIdsRoundTrip() {
+        for (String provider : new String[] { "gps", "network", "passive", "fused" }) {
+            assertEquals(provider, TrackRecorder.getProviderName(TrackRecorder.getProviderId(provider)));
+        }
+        assertEquals(TrackRecorder.PROVIDER_UNKNOWN, TrackRecorder.getProviderId("other"));
+        assertEquals(TrackRecorder.PROVIDER_UNKNOWN, TrackRecorder.getProviderId(null));
+        assertNull(TrackRecorder.getProviderName(TrackRecorder.PROVIDER_UNKNOWN));
+        assertNull(TrackRecorder.getProviderName((byte) 42));
+    }
+
+    /***********************************************************************************************
+     *
+     * RECOVERY
+     *
+     **********************************************************************************************/
+
+    /**
+     * Writes count fixes, then overwrites the header count as a crash could have left it
+     */
+    private File crash(int capacity, int count, long headerCount) throws IOException {
+        File file = folder.newFile();
+        TrackRecorder recorder = new TrackRecorder(file, capacity);
+        appendFixes(recorder, 0, count);
+        recorder.close();
+
+        writeLong(file, HEADER_COUNT, headerCount);
+        return file;
+    }
+
+    @Test
+    public void headerBehindItsRecordsIsCaughtUp() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(crash(100, 10, 4), 100);
+        assertEquals(10, recorder.endIndex());
+        assertRecord(recorder, 9);
+        recorder.close();
+    }
+
+    @Test
+    public void headerBehindItsRecordsIsCaughtUpAcrossTheRing() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(crash(4, 10, 7), 4);
+        assertEquals(10, recorder.endIndex());
+        assertEquals(6, recorder.firstIndex());
+        assertRecord(recorder, 6);
+        assertRecord(recorder, 9);
+        recorder.close();
+    }
+
+    @Test
+    public void emptyHeaderIsCaughtUp() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(crash(100, 10, 0), 100);
+        assertEquals(10, recorder.endIndex());
+        recorder.close();
+    }
+
+    @Test
+    public void headerMoreThanARingBehindIsCaughtUp() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(crash(4, 10, 2), 4);
+        assertEquals(10, recorder.endIndex());
+        assertEquals(6, recorder.firstIndex());
+        assertRecord(recorder, 6);
+        recorder.close();
+    }
+
+    @Test
+    public void headerAheadOfItsRecordsIsWalkedBack() throws IOException {
+        File file = crash(100, 10, 14);
+        TrackRecorder recorder = new TrackRecorder(file, 100);
+        assertEquals(10, recorder.endIndex());
+        assertRecord(recorder, 9);
+
+        // The next record follows the last one, and the header was rewritten
+        appendFixes(recorder, 10, 1);
+        recorder.close();
+        recorder = new TrackRecorder(file, 100);
+        assertEquals(11, recorder.endIndex());
+        assertRecord(recorder, 10);
+        recorder.close();
+    }
+
+    @Test
+    public void headerAheadOfItsRecordsIsWalkedBackAcrossTheRing() throws IOException {
+        // Slots of indexes 10 and 11 still hold the records 6 and 7
+        TrackRecorder recorder = new TrackRecorder(crash(4, 10, 12), 4);
+        assertEquals(10, recorder.endIndex());
+        assertEquals(6, recorder.firstIndex());
+        assertRecord(recorder, 9);
+        recorder.close();
+    }
+
+    @Test
+    public void recordWithoutItsSequenceIsDropped() throws IOException {
+        // The last record was not completely written, but the header was
+        File file = crash(100, 10, 10);
+        writeLong(file, recordPosition(9, 100) + RECORD_SEQUENCE, 0);
+
+        TrackRecorder recorder = new TrackRecorder(file, 100);
+        assertEquals(9, recorder.endIndex());
+        assertRecord(recorder, 8);
+        recorder.close();
+    }
+
+    @Test
+    public void corruptedHeaderCountIsRecovered() throws IOException {
+        // Far ahead of the records
+        TrackRecorder recorder = new TrackRecorder(crash(4, 10, Long.MAX_VALUE), 4);
+        assertEquals(10, recorder.endIndex());
+        assertRecord(recorder, 9);
+        recorder.close();
+
+        recorder = new TrackRecorder(crash(4, 10, -1), 4);
+        assertEquals(10, recorder.endIndex());
+        assertRecord(recorder, 6);
+        recorder.close();
+
+        recorder = new TrackRecorder(crash(4, 0, 1000), 4);
+        assertEquals(0, recorder.endIndex());
+        recorder.close();
+    }
+}
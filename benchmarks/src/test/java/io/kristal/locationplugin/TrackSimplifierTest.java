@@ -0,0 +1,87 @@
+/**
+ *
+ * TrackSimplifierTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+package io.kristal.locationplugin;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrackSimplifierTest {
+
+    private static final int POINTS = 100000;
+
+    // Rounding of the polyline at the default precision moves a point by at most 0.8 m, so a
+    // decoded segment is at most that much further from a point
+    private static final double ROUNDING = 0.8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void deviationStaysWithinTolerance() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(folder.newFile(), POINTS);
+        FixStreams.recordTrack(recorder, 1, POINTS);
+
+        for (double tolerance : new double[] { 1, 5, TrackSimplifier.DEFAULT_TOLERANCE, 25 }) {
+            SimplifiedTrack track = new SimplifiedTrack(recorder, tolerance, PolylineEncoder.DEFAULT_PRECISION);
+            System.out.println(String.format(Locale.US, "Tolerance %.0f m: %d of %d points kept (%.1f:1), %.2f polyline bytes per recorded point, max deviation %.2f m, %.2f m decoded",
+                                             tolerance, track.keptPoints, track.recordedPoints,
+                                             (double) track.recordedPoints / track.keptPoints,
+                                             (double) track.polyline.length() / track.recordedPoints,
+                                             track.maxDeviation(), track.maxDecodedDeviation()));
+
+            assertEquals(track.keptPoints, track.decodedPoints());
+            assertTrue(track.keptPoints < track.recordedPoints);
+            assertTrue(track.maxDeviation() <= tolerance + 1e-6);
+            assertTrue(track.maxDecodedDeviation() <= tolerance + ROUNDING);
+        }
+
+        recorder.close();
+    }
+
+    @Test
+    public void straightLineKeepsEnds() throws IOException {
+        TrackRecorder recorder = new TrackRecorder(folder.newFile(), 32);
+        for (int i = 0; i < 32; i++) {
+            recorder.append(48.8566 + i * 1e-5, 2.3522, 5, i * 1000L, TrackRecorder.PROVIDER_GPS);
+        }
+
+        SimplifiedTrack track = new SimplifiedTrack(recorder, 1, PolylineEncoder.DEFAULT_PRECISION);
+        assertEquals(2, track.keptPoints);
+        assertEquals(0, track.maxDeviation(), 1e-6);
+
+        recorder.close();
+    }
+}
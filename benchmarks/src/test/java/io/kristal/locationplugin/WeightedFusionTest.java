@@ -0,0 +1,224 @@
+/**
+ *
+ * WeightedFusionTest
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WeightedFusionTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static Location fix(String provider, double latitude, double longitude, float accuracy, long time) {
+        Location location = new Location(provider);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        location.setAccuracy(accuracy);
+        location.setTime(time);
+        return location;
+    }
+
+    private static WeightedFusion fusion() {
+        return new WeightedFusion(WeightedFusion.DEFAULT_WINDOW, 0);
+    }
+
+    @Test
+    public void firstFixIsReturnedAsIs() {
+        WeightedFusion fusion = fusion();
+        assertNull(fusion.getBestLocation());
+
+        Location fused = fusion.add(fix(LocationManager.GPS_PROVIDER, 48.85, 2.35, 10, 1000));
+        assertEquals(WeightedFusion.FUSED_PROVIDER, fused.getProvider());
+        assertEquals(48.85, fused.getLatitude(), DELTA);
+        assertEquals(2.35, fused.getLongitude(), DELTA);
+        assertEquals(10, fused.getAccuracy(), DELTA);
+        assertEquals(1000, fused.getTime());
+        assertSame(fused, fusion.getBestLocation());
+    }
+
+    @Test
+    public void repeatedFixesOfOneProviderDoNotImproveAccuracy() {
+        WeightedFusion fusion = fusion();
+        Location fused = null;
+        for (int i = 0; i < 32; i++) {
+            fused = fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.85, 2.35, 150, 1000 + i * 500));
+        }
+        assertEquals(150, fused.getAccuracy(), DELTA);
+        assertEquals(1000 + 31 * 500, fused.getTime());
+    }
+
+    @Test
+    public void newerFixReplacesTheFixOfItsProvider() {
+        WeightedFusion fusion = fusion();
+        fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.85, 2.35, 100, 1000));
+        Location fused = fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.86, 2.36, 100, 2000));
+        assertEquals(48.86, fused.getLatitude(), DELTA);
+        assertEquals(2.36, fused.getLongitude(), DELTA);
+    }
+
+    @Test
+    public void olderFixOfTheSameProviderIsIgnored() {
+        WeightedFusion fusion = fusion();
+        Location fused = fusion.add(fix(LocationManager.GPS_PROVIDER, 48.85, 2.35, 10, 2000));
+        assertSame(fused, fusion.add(fix(LocationManager.GPS_PROVIDER, 48.86, 2.36, 10, 1000)));
+    }
+
+    @Test
+    public void providersAreWeightedByInverseVariance() {
+        WeightedFusion fusion = fusion();
+        fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.0, 2.0, 30, 1000));
+        Location fused = fusion.add(fix(LocationManager.GPS_PROVIDER, 48.1, 2.1, 10, 1000));
+
+        // Weights 1/900 and 1/100
+        assertEquals((48.0 / 900 + 48.1 / 100) / (1 / 900.0 + 1 / 100.0), fused.getLatitude(), 1e-9);
+        assertEquals((2.0 / 900 + 2.1 / 100) / (1 / 900.0 + 1 / 100.0), fused.getLongitude(), 1e-9);
+    }
+
+    @Test
+    public void fusedAccuracyIsTheBestAccuracy() {
+        WeightedFusion fusion = fusion();
+        fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.85, 2.35, 100, 1000));
+        Location fused = fusion.add(fix(LocationManager.GPS_PROVIDER, 48.85, 2.35, 100, 1000));
+        assertEquals(100, fused.getAccuracy(), DELTA);
+    }
+
+    @Test
+    public void fusedAccuracyGrowsWithAge() {
+        WeightedFusion fusion = new WeightedFusion(WeightedFusion.DEFAULT_WINDOW, 2);
+        fusion.add(fix(LocationManager.GPS_PROVIDER, 48.85, 2.35, 5, 1000));
+        Location fused = fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.85, 2.35, 50, 6000));
+        // 5 m + 5 s at 2 m/s
+        assertEquals(15, fused.getAccuracy(), DELTA);
+    }
+
+    @Test
+    public void fusedFixIsDatedByItsOldestFix() {
+        WeightedFusion fusion = fusion();
+        fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.85, 2.35, 50, 1000));
+        Location fused = fusion.add(fix(LocationManager.GPS_PROVIDER, 48.85, 2.35, 5, 9000));
+        assertEquals(1000, fused.getTime());
+    }
+
+    @Test
+    public void fixesLeaveTheWindow() {
+        WeightedFusion fusion = new WeightedFusion(5000, 0);
+        fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.0, 2.0, 50, 1000));
+        Location fused = fusion.add(fix(LocationManager.GPS_PROVIDER, 48.1, 2.1, 50, 7000));
+        assertEquals(48.1, fused.getLatitude(), DELTA);
+        assertEquals(7000, fused.getTime());
+
+        // Dated before the window of the newest fix
+        assertSame(fused, fusion.add(fix(LocationManager.NETWORK_PROVIDER, 48.0, 2.0, 50, 1500)));
+    }
+
+    @Test
+    public void duplicateThroughPassiveIsIgnored() {
+        WeightedFusion fusion = fusion();
+        Location gps = fix(LocationManager.GPS_PROVIDER, 48.85, 2.35, 10, 1000);
+        Location fused = fusion.add(gps);
+
+        Location passive = new Location(gps);
+        passive.setProvider(LocationManager.PASSIVE_PROVIDER);
+        assertSame(fused, fusion.add(passive));
+    }
+
+    @Test
+    public void fixWithoutAccuracyBarelyCounts() {
+        WeightedFusion fusion = fusion();
+        fusion.add(fix(LocationManager.GPS_PROVIDER, 48.0, 2.0, 10, 1000));
+
+        Location unknown = new Location(LocationManager.NETWORK_PROVIDER);
+        unknown.setLatitude(49.0);
+        unknown.setLongitude(3.0);
+        unknown.setTime(1000);
+        Location fused = fusion.add(unknown);
+
+        assertNotSame(unknown, fused);
+        assertEquals(48.0, fused.getLatitude(), 1e-5);
+        assertEquals(10, fused.getAccuracy(), DELTA);
+    }
+
+    @Test
+    public void longitudesAreAveragedAcrossTheAntimeridian() {
+        WeightedFusion fusion = fusion();
+        fusion.add(fix(LocationManager.NETWORK_PROVIDER, 0, 179.9, 10, 1000));
+        Location fused = fusion.add(fix(LocationManager.GPS_PROVIDER, 0, -179.9, 10, 1000));
+        assertEquals(180, Math.abs(fused.getLongitude()), 1e-9);
+    }
+
+    @Test
+    public void accuracyIsNotOverstatedOnRecordedStreams() {
+        for (String name : FixStreams.NAMES) {
+            FixStreams stream = FixStreams.create(name);
+            WeightedFusion fusion = new WeightedFusion(WeightedFusion.DEFAULT_WINDOW, WeightedFusion.DEFAULT_SPEED);
+
+            int fused = 0;
+            int outside = 0;
+            for (int i = 0; i < stream.fixes.length; i++) {
+                Location location = fusion.add(stream.fixes[i]);
+                fused++;
+                if (stream.error(i, location) > location.getAccuracy()) {
+                    outside++;
+                }
+            }
+
+            // A 68% radius leaves about a third of the positions outside
+            double rate = (double) outside / fused;
+            assertTrue(name + ": " + rate, rate < 0.4);
+        }
+    }
+
+    @Test
+    public void closerThanTheHeuristicOnRecordedStreams() {
+        for (String name : FixStreams.NAMES) {
+            FixStreams stream = FixStreams.create(name);
+            HeuristicFusion heuristic = new HeuristicFusion();
+            WeightedFusion weighted = new WeightedFusion(WeightedFusion.DEFAULT_WINDOW, WeightedFusion.DEFAULT_SPEED);
+
+            double heuristicError = 0;
+            double weightedError = 0;
+            for (int i = 0; i < stream.fixes.length; i++) {
+                heuristicError += stream.error(i, heuristic.add(stream.fixes[i]));
+                weightedError += stream.error(i, weighted.add(stream.fixes[i]));
+            }
+
+            assertTrue(name + ": " + weightedError + " >= " + heuristicError, weightedError < heuristicError);
+        }
+    }
+}
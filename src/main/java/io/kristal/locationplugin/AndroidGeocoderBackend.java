@@ -0,0 +1,71 @@
+/**
+ *
+ * AndroidGeocoderBackend
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Default GeocoderBackend, backed by android.location.Geocoder in the default locale
+ */
+final class AndroidGeocoderBackend implements GeocoderBackend {
+
+    private final Geocoder geocoder;
+
+    AndroidGeocoderBackend(Context context) {
+        geocoder = new Geocoder(context);
+    }
+
+    @Override
+    public GeocodedAddress reverseGeocode(double latitude, double longitude) throws IOException {
+        // No geocoding service on this device
+        if (!Geocoder.isPresent()) {
+            return null;
+        }
+
+        List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+        if (addresses == null || addresses.isEmpty()) {
+            return null;
+        }
+
+        Address address = addresses.get(0);
+        return new GeocodedAddress(address.getMaxAddressLineIndex() >= 0 ? address.getAddressLine(0) : null,
+                                   address.getThoroughfare(),
+                                   address.getLocality(),
+                                   address.getPostalCode(),
+                                   address.getCountryName(),
+                                   address.getCountryCode());
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ *
+ * CacheFiles
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.util.Log;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * File helpers shared by the caches persisted in the cache directory
+ */
+final class CacheFiles {
+
+    // TAG
+    private static final String TAG = CacheFiles.class.getSimpleName();
+
+    private CacheFiles() {
+
+    }
+
+    /**
+     * Writes the content to a temporary file then renames it over the file, so that a crash never
+     * leaves a partially written cache. Blocks on the disk, so must not run on the main thread.
+     * @return true if the file was replaced
+     */
+    static boolean writeAtomically(File file, byte[] content) {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temporaryFile);
+            output.write(content);
+            output.getFD().sync();
+            output.close();
+            output = null;
+
+            if (temporaryFile.renameTo(file)) {
+                return true;
+            }
+
+            if (Cobalt.DEBUG) {
+                Log.w(TAG, "writeAtomically: unable to rename " + temporaryFile);
+            }
+        }
+        catch (IOException e) {
+            if (Cobalt.DEBUG) {
+                Log.w(TAG, "writeAtomically: unable to write " + temporaryFile, e);
+            }
+        }
+        finally {
+            close(output);
+        }
+        return false;
+    }
+
+    static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException ignored) {
+
+            }
+        }
+    }
+}
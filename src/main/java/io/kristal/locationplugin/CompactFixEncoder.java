@@ -0,0 +1,119 @@
+/**
+ *
+ * CompactFixEncoder
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+/**
+ * Encodes fixes into the compact string format, delta-encoded against the previous fix sent to
+ * the same fragment.
+ *
+ * Each payload starts with KEY_FRAME when the first fix is encoded against zero, or with
+ * DELTA_FRAME when it continues the previous payload. Then each fix is four values: latitude and
+ * longitude in millionths of degree, accuracy in decimeters and time in milliseconds, each as the
+ * difference with the previous fix, written as polyline chunks (see PolylineEncoder.encode).
+ * The matching decoder is web/location-compact-decoder.js.
+ */
+final class CompactFixEncoder {
+
+    static final char KEY_FRAME = 'K';
+    static final char DELTA_FRAME = 'D';
+
+    private static final double COORDINATE_SCALE = 1e6;
+    private static final double ACCURACY_SCALE = 10;
+
+    private final StringBuilder builder = new StringBuilder();
+    private int pendingCount = 0;
+    private boolean keyFrame = true;
+
+    private long previousLatitude;
+    private long previousLongitude;
+    private long previousAccuracy;
+    private long previousTime;
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Appends a fix to the pending payload
+     */
+    void add(double latitude, double longitude, float accuracy, long time) {
+        if (pendingCount == 0) {
+            builder.setLength(0);
+            builder.append(keyFrame ? KEY_FRAME : DELTA_FRAME);
+            keyFrame = false;
+        }
+
+        long scaledLatitude = Math.round(latitude * COORDINATE_SCALE);
+        long scaledLongitude = Math.round(longitude * COORDINATE_SCALE);
+        long scaledAccuracy = Math.round(accuracy * ACCURACY_SCALE);
+
+        PolylineEncoder.encode(scaledLatitude - previousLatitude, builder);
+        PolylineEncoder.encode(scaledLongitude - previousLongitude, builder);
+        PolylineEncoder.encode(scaledAccuracy - previousAccuracy, builder);
+        PolylineEncoder.encode(time - previousTime, builder);
+
+        previousLatitude = scaledLatitude;
+        previousLongitude = scaledLongitude;
+        previousAccuracy = scaledAccuracy;
+        previousTime = time;
+        pendingCount++;
+    }
+
+    int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the pending payload, which is then cleared
+     */
+    String takePayload() {
+        String payload = builder.toString();
+        builder.setLength(0);
+        pendingCount = 0;
+        return payload;
+    }
+
+    /**
+     * Restarts the encoding from zero, for instance when fixes were not delivered in compact
+     * format. The pending payload is discarded.
+     */
+    void reset() {
+        builder.setLength(0);
+        pendingCount = 0;
+        keyFrame = true;
+        previousLatitude = 0;
+        previousLongitude = 0;
+        previousAccuracy = 0;
+        previousTime = 0;
+    }
+}
@@ -0,0 +1,396 @@
+/**
+ *
+ * DeliveryQueue
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import org.cobaltians.cobalt.Cobalt;
+import org.cobaltians.cobalt.fragments.CobaltFragment;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bounded queue of the messages waiting for a paused fragment, drained in the order they arrived.
+ * Fixes are kept according to the policy and counted when dropped. Other messages are kept up to
+ * MAX_MESSAGES, the oldest droppable one being dropped beyond. Messages offered as not droppable,
+ * such as terminal statuses and geofence transitions, replace the queued status of the same name
+ * and the queued transitions of the same geofences, and are kept up to MAX_KEPT_MESSAGES, the
+ * oldest one being dropped beyond. Such drops are sent first as one onMessagesDropped message.
+ */
+final class DeliveryQueue {
+
+    /**
+     * Keeps only the latest fix
+     */
+    static final String POLICY_LATEST = "latest";
+    /**
+     * Keeps at most capacity fixes evenly sampled over the pause, halving the sampling rate
+     * every time the queue is full
+     */
+    static final String POLICY_SAMPLE = "sample";
+    /**
+     * Keeps the last capacity fixes
+     */
+    static final String POLICY_DROP_OLDEST = "drop-oldest";
+
+    static final int DEFAULT_CAPACITY = 16;
+    static final int MAX_MESSAGES = 8;
+    static final int MAX_KEPT_MESSAGES = 64;
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final WeakReference<CobaltFragment> fragmentReference;
+    private String policy = POLICY_LATEST;
+    private int capacity = DEFAULT_CAPACITY;
+
+    // Fixes and messages in the order they arrived
+    private final List<Entry> entries = new ArrayList<>();
+    private int locationCount = 0;
+    private int droppableCount = 0;
+    private int keptCount = 0;
+    private int stride = 1;
+    private int offered = 0;
+    private int dropped = 0;
+    private int droppedMessages = 0;
+
+    DeliveryQueue(CobaltFragment fragment) {
+        fragmentReference = new WeakReference<>(fragment);
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Changes the policy, applied to the fixes offered from now on
+     */
+    void setPolicy(String policy, int capacity) {
+        this.policy = POLICY_SAMPLE.equals(policy) || POLICY_DROP_OLDEST.equals(policy) ? policy : POLICY_LATEST;
+        this.capacity = Math.max(2, capacity);
+    }
+
+    CobaltFragment getFragment() {
+        return fragmentReference.get();
+    }
+
+    /**
+     * Queues the fields of a fix built by LocationMessageEncoder.encodeLocationData
+     * @return the number of fixes dropped by this call
+     */
+    int offerLocation(JSONObject locationData) {
+        int droppedBefore = dropped;
+
+        switch (policy) {
+            case POLICY_SAMPLE:
+                if (offered++ % stride != 0) {
+                    dropped++;
+                    break;
+                }
+
+                add(new Entry(locationData, Entry.LOCATION));
+                if (locationCount > capacity) {
+                    // Keep every other fix and sample half as often
+                    boolean keep = true;
+                    for (int i = 0; i < entries.size(); i++) {
+                        if (entries.get(i).type != Entry.LOCATION) {
+                            continue;
+                        }
+                        if (!keep) {
+                            remove(i--);
+                            dropped++;
+                        }
+                        keep = !keep;
+                    }
+                    stride *= 2;
+                }
+                break;
+
+            case POLICY_DROP_OLDEST:
+                add(new Entry(locationData, Entry.LOCATION));
+                if (locationCount > capacity) {
+                    remove(indexOf(Entry.LOCATION));
+                    dropped++;
+                }
+                break;
+
+            default:
+                if (locationCount > 0) {
+                    remove(indexOf(Entry.LOCATION));
+                    dropped++;
+                }
+                add(new Entry(locationData, Entry.LOCATION));
+                break;
+        }
+
+        return dropped - droppedBefore;
+    }
+
+    /**
+     * Queues any other message
+     * @param droppable false for a message superseded only by a newer one about the same status or
+     *                  geofences, or by MAX_KEPT_MESSAGES newer ones
+     * @return the number of messages dropped by this call
+     */
+    int offerMessage(JSONObject message, boolean droppable) {
+        if (droppable) {
+            add(new Entry(message, Entry.DROPPABLE_MESSAGE));
+
+            if (droppableCount > MAX_MESSAGES) {
+                remove(indexOf(Entry.DROPPABLE_MESSAGE));
+                return 1;
+            }
+            return 0;
+        }
+
+        int droppedBefore = droppedMessages;
+
+        String action = message.optString(Cobalt.kJSAction);
+        if (LocationPlugin.JSActionOnStatusChanged.equals(action)) {
+            removeStatus(getData(message).optString(LocationPlugin.kJSStatus));
+        }
+        else if (LocationPlugin.JSActionOnGeofenceTransitions.equals(action)) {
+            removeTransitions(getData(message).optJSONArray(LocationPlugin.kJSTransitions));
+        }
+
+        add(new Entry(message, Entry.MESSAGE));
+
+        if (keptCount > MAX_KEPT_MESSAGES) {
+            remove(indexOf(Entry.MESSAGE));
+            droppedMessages++;
+        }
+
+        return droppedMessages - droppedBefore;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return the number of queued fixes
+     */
+    int getDepth() {
+        return locationCount;
+    }
+
+    /**
+     * Empties the queue
+     * @return the messages to send in the order they arrived, each run of consecutive fixes being
+     * sent as one summary. The first summary holds the number of fixes dropped, the others 0.
+     */
+    List<JSONObject> drain() {
+        List<JSONObject> drained = new ArrayList<>(entries.size() + 1);
+        List<JSONObject> run = new ArrayList<>(locationCount);
+
+        // The dropped messages were the oldest ones
+        if (droppedMessages > 0) {
+            JSONObject message = LocationMessageEncoder.encodeMessagesDropped(droppedMessages);
+            if (message != null) {
+                drained.add(message);
+            }
+        }
+
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            Entry entry = entries.get(i);
+            if (entry.type == Entry.LOCATION) {
+                run.add(entry.data);
+            }
+            else {
+                addSummary(drained, run);
+                drained.add(entry.data);
+            }
+        }
+        addSummary(drained, run);
+
+        entries.clear();
+        locationCount = 0;
+        droppableCount = 0;
+        keptCount = 0;
+        stride = 1;
+        offered = 0;
+        dropped = 0;
+        droppedMessages = 0;
+
+        return drained;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Adds a summary of the given fixes to the drained messages and empties them
+     */
+    private void addSummary(List<JSONObject> drained, List<JSONObject> run) {
+        if (run.isEmpty()) {
+            return;
+        }
+
+        JSONObject summary = run.size() == 1
+                             ? LocationMessageEncoder.encodeLocationSummary(run.get(0), dropped)
+                             : LocationMessageEncoder.encodeLocationsSummary(run, dropped);
+        if (summary != null) {
+            drained.add(summary);
+        }
+
+        run.clear();
+        dropped = 0;
+    }
+
+    private void add(Entry entry) {
+        entries.add(entry);
+        updateCounts(entry.type, 1);
+    }
+
+    private void remove(int index) {
+        updateCounts(entries.remove(index).type, -1);
+    }
+
+    private void updateCounts(int type, int delta) {
+        if (type == Entry.LOCATION) {
+            locationCount += delta;
+        }
+        else if (type == Entry.DROPPABLE_MESSAGE) {
+            droppableCount += delta;
+        }
+        else {
+            keptCount += delta;
+        }
+    }
+
+    private static JSONObject getData(JSONObject message) {
+        JSONObject data = message.optJSONObject(Cobalt.kJSData);
+        return data != null ? data : new JSONObject();
+    }
+
+    /**
+     * Drops the queued status of the given name, superseded by a newer one
+     */
+    private void removeStatus(String status) {
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.type == Entry.MESSAGE
+                && LocationPlugin.JSActionOnStatusChanged.equals(entry.data.optString(Cobalt.kJSAction))
+                && status.equals(getData(entry.data).optString(LocationPlugin.kJSStatus))) {
+                remove(i--);
+                droppedMessages++;
+            }
+        }
+    }
+
+    /**
+     * Drops the queued transitions of the geofences of the given ones, superseded by them, and the
+     * messages left without any transition
+     */
+    private void removeTransitions(JSONArray transitions) {
+        if (transitions == null) {
+            return;
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < transitions.length(); i++) {
+            JSONObject transition = transitions.optJSONObject(i);
+            if (transition != null) {
+                ids.add(transition.optString(LocationPlugin.kJSId));
+            }
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.type != Entry.MESSAGE
+                || !LocationPlugin.JSActionOnGeofenceTransitions.equals(entry.data.optString(Cobalt.kJSAction))) {
+                continue;
+            }
+
+            JSONObject data = getData(entry.data);
+            JSONArray queued = data.optJSONArray(LocationPlugin.kJSTransitions);
+            JSONArray kept = new JSONArray();
+            for (int j = 0; queued != null && j < queued.length(); j++) {
+                JSONObject transition = queued.optJSONObject(j);
+                if (transition != null && !ids.contains(transition.optString(LocationPlugin.kJSId))) {
+                    kept.put(transition);
+                }
+            }
+
+            if (kept.length() == 0) {
+                remove(i--);
+                droppedMessages++;
+            }
+            else if (queued != null && kept.length() < queued.length()) {
+                try {
+                    data.put(LocationPlugin.kJSTransitions, kept);
+                }
+                catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the index of the oldest entry of the given type, or -1 if there is none
+     */
+    private int indexOf(int type) {
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            if (entries.get(i).type == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Entry {
+        static final int LOCATION = 0;
+        static final int MESSAGE = 1;
+        static final int DROPPABLE_MESSAGE = 2;
+
+        final JSONObject data;
+        final int type;
+
+        Entry(JSONObject data, int type) {
+            this.data = data;
+            this.type = type;
+        }
+    }
+}
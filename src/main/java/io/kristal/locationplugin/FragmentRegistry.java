@@ -0,0 +1,137 @@
+/**
+ *
+ * FragmentRegistry
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe map from a fragment, compared by identity and weakly referenced, to a value.
+ * Add, remove and lookup are O(1); entries whose fragment has been garbage collected are purged
+ * on every operation. Iterating over values() does not copy the map and never throws
+ * ConcurrentModificationException.
+ */
+final class FragmentRegistry<K, V> {
+
+    private final ConcurrentHashMap<Key<K>, V> entries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Associates the value with the fragment
+     * @return the value previously associated with the fragment, if any
+     */
+    V put(K fragment, V value) {
+        purge();
+        return entries.put(new Key<>(fragment, queue), value);
+    }
+
+    V get(K fragment) {
+        purge();
+        return fragment != null ? entries.get(new Key<>(fragment, null)) : null;
+    }
+
+    V remove(K fragment) {
+        purge();
+        return fragment != null ? entries.remove(new Key<>(fragment, null)) : null;
+    }
+
+    /**
+     * Removes the entry of the fragment only if it is still associated with the given value
+     * @return true if the entry was removed
+     */
+    boolean remove(K fragment, V value) {
+        purge();
+        return fragment != null && entries.remove(new Key<>(fragment, null), value);
+    }
+
+    Collection<V> values() {
+        purge();
+        return entries.values();
+    }
+
+    int size() {
+        purge();
+        return entries.size();
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void purge() {
+        Reference<? extends K> reference;
+        while ((reference = queue.poll()) != null) {
+            entries.remove(reference);
+        }
+    }
+
+    /**
+     * Weak key comparing its referent by identity. A cleared key is only equal to itself, so it
+     * can still be removed once dequeued.
+     */
+    private static final class Key<K> extends WeakReference<K> {
+        private final int hash;
+
+        Key(K referent, ReferenceQueue<K> queue) {
+            super(referent, queue);
+            hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Object referent = get();
+            return referent != null && referent == ((Key<?>) o).get();
+        }
+    }
+}
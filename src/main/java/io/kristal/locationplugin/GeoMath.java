@@ -0,0 +1,85 @@
+/**
+ *
+ * GeoMath
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+/**
+ * Allocation-free distance helpers on the WGS84 sphere approximation.
+ */
+final class GeoMath {
+
+    static final double EARTH_RADIUS = 6371008.8;
+    static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+    /**
+     * Distance up to which fastDistance stays within a centimeter of distance, in meters
+     */
+    static final double FAST_DISTANCE_RANGE = 10000;
+
+    private GeoMath() {
+
+    }
+
+    /**
+     * Equirectangular approximation of the distance between two points, accurate to well under
+     * a meter for the short distances compared between consecutive fixes
+     * @return the distance in meters
+     */
+    static double fastDistance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double x = Math.toRadians(wrapLongitude(longitude2 - longitude1))
+                   * Math.cos(Math.toRadians((latitude1 + latitude2) / 2));
+        double y = Math.toRadians(latitude2 - latitude1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+
+    /**
+     * Haversine distance between two points, valid at any distance
+     * @return the distance in meters
+     */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double sinLatitude = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = sinLatitude * sinLatitude
+                   + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * sinLongitude * sinLongitude;
+        return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * @return the longitude difference brought back into [-180, 180]
+     */
+    static double wrapLongitude(double longitudeDelta) {
+        if (longitudeDelta > 180) {
+            return longitudeDelta - 360;
+        }
+        if (longitudeDelta < -180) {
+            return longitudeDelta + 360;
+        }
+        return longitudeDelta;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ * GeocodedAddress
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Address returned by a GeocoderBackend. Every field may be null.
+ */
+public final class GeocodedAddress {
+
+    private final String line;
+    private final String thoroughfare;
+    private final String locality;
+    private final String postalCode;
+    private final String countryName;
+    private final String countryCode;
+
+    /**
+     * @param line the formatted address, e.g. its first address line
+     */
+    public GeocodedAddress(@Nullable String line, @Nullable String thoroughfare, @Nullable String locality,
+                           @Nullable String postalCode, @Nullable String countryName, @Nullable String countryCode) {
+        this.line = line;
+        this.thoroughfare = thoroughfare;
+        this.locality = locality;
+        this.postalCode = postalCode;
+        this.countryName = countryName;
+        this.countryCode = countryCode;
+    }
+
+    @Nullable
+    public String getLine() {
+        return line;
+    }
+
+    @Nullable
+    public String getThoroughfare() {
+        return thoroughfare;
+    }
+
+    @Nullable
+    public String getLocality() {
+        return locality;
+    }
+
+    @Nullable
+    public String getPostalCode() {
+        return postalCode;
+    }
+
+    @Nullable
+    public String getCountryName() {
+        return countryName;
+    }
+
+    @Nullable
+    public String getCountryCode() {
+        return countryCode;
+    }
+
+    /**
+     * @return a rough estimate of the memory used by the address, in bytes
+     */
+    int estimateSize() {
+        return 40 + estimateSize(line) + estimateSize(thoroughfare) + estimateSize(locality)
+               + estimateSize(postalCode) + estimateSize(countryName) + estimateSize(countryCode);
+    }
+
+    private static int estimateSize(String value) {
+        return value != null ? 40 + 2 * value.length() : 0;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ *
+ * GeocoderBackend
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Resolves coordinates into an address for the reverse geocoding cache. The default backend
+ * uses android.location.Geocoder; another one, such as an InMemoryGeocoderBackend, may be set
+ * with LocationPlugin.setGeocoderBackend.
+ */
+public interface GeocoderBackend {
+
+    /**
+     * Called on a background thread, at most once at a time per geohash cell
+     * @return the address at the given coordinates, or null if there is none
+     * @throws IOException if the lookup failed, e.g. without network. Failures are not cached.
+     */
+    @Nullable
+    GeocodedAddress reverseGeocode(double latitude, double longitude) throws IOException;
+}
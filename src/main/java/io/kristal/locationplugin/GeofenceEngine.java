@@ -0,0 +1,446 @@
+/**
+ *
+ * GeofenceEngine
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Evaluates circular geofences against fixes and reports enter, exit and dwell transitions.
+ *
+ * Fences are indexed in a uniform grid of cells: each fence is linked into every cell its
+ * bounding box overlaps, so a fix only tests the fences of its own cell. Cells live in an
+ * open-addressing hash table and fences and cell lists in primitive arrays, so evaluating a fix
+ * does not allocate. Fences covering too many cells, because of their radius or of their
+ * latitude, are tested against every fix instead.
+ *
+ * Dwell transitions are reported on the first fix received after the dwell delay.
+ */
+final class GeofenceEngine {
+
+    static final int TRANSITION_ENTER = 1;
+    static final int TRANSITION_EXIT = 2;
+    static final int TRANSITION_DWELL = 4;
+
+    interface Sink {
+        void onTransition(String id, int transition);
+    }
+
+    /**
+     * Side of the cells, in meters of latitude
+     */
+    static final double DEFAULT_CELL_SIZE = 500;
+
+    private static final int MAX_CELLS_PER_FENCE = 64;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long EMPTY_CELL = Long.MIN_VALUE;
+    private static final int NONE = -1;
+
+    private static final byte STATE_OUTSIDE = 0;
+    private static final byte STATE_INSIDE = 1;
+    private static final byte STATE_DWELLING = 2;
+
+    private final double cellDegrees;
+    private final int columns;
+    private final double columnDegrees;
+
+    // Fences, indexed by slot
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private float[] radii = new float[INITIAL_CAPACITY];
+    private long[] dwellDelays = new long[INITIAL_CAPACITY];
+    private long[] enterTimes = new long[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private boolean[] large = new boolean[INITIAL_CAPACITY];
+    private int[] visits = new int[INITIAL_CAPACITY];
+    private int slotCount = 0;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeSlotCount = 0;
+
+    // Cells: open-addressing table of cell keys, each with the head of its entry list
+    private long[] cellKeys;
+    private int[] cellHeads;
+    private int cellCount = 0;
+
+    // Entries of the cell lists
+    private int[] entrySlots = new int[INITIAL_CAPACITY];
+    private int[] entryNexts = new int[INITIAL_CAPACITY];
+    private int entryCount = 0;
+    private int freeEntry = NONE;
+
+    private int[] largeSlots = new int[INITIAL_CAPACITY];
+    private int largeCount = 0;
+
+    private int[] insideSlots = new int[INITIAL_CAPACITY];
+    private int insideCount = 0;
+
+    private int visit = 0;
+
+    /**
+     * @param cellSize the side of the cells in meters, around the typical fence diameter
+     */
+    GeofenceEngine(double cellSize) {
+        cellDegrees = cellSize / GeoMath.METERS_PER_DEGREE;
+        columns = (int) Math.ceil(360 / cellDegrees);
+        // Whole columns around the globe, so that columns wrap at the antimeridian
+        columnDegrees = 360.0 / columns;
+        cellKeys = new long[INITIAL_CAPACITY];
+        cellHeads = new int[INITIAL_CAPACITY];
+        Arrays.fill(cellKeys, EMPTY_CELL);
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Adds a fence, replacing any fence with the same id
+     * @param radius the radius of the fence, in meters
+     * @param dwellDelay the time to spend inside the fence before a dwell transition, in milliseconds, or 0 for none
+     */
+    void add(String id, double latitude, double longitude, float radius, long dwellDelay) {
+        remove(id);
+
+        int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        }
+        else {
+            if (slotCount == ids.length) {
+                growSlots();
+            }
+            slot = slotCount++;
+        }
+
+        slots.put(id, slot);
+        ids[slot] = id;
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        radii[slot] = radius;
+        dwellDelays[slot] = dwellDelay;
+        states[slot] = STATE_OUTSIDE;
+        visits[slot] = visit;
+
+        int minRow = row(latitude - radius / GeoMath.METERS_PER_DEGREE);
+        int maxRow = row(latitude + radius / GeoMath.METERS_PER_DEGREE);
+        double longitudeSpan = longitudeSpan(latitude, radius);
+        int minColumn = unwrappedColumn(longitude - longitudeSpan);
+        int maxColumn = unwrappedColumn(longitude + longitudeSpan);
+
+        large[slot] = longitudeSpan >= 180
+                      || (long) (maxRow - minRow + 1) * (maxColumn - minColumn + 1) > MAX_CELLS_PER_FENCE;
+        if (large[slot]) {
+            largeSlots = ensureCapacity(largeSlots, largeCount + 1);
+            largeSlots[largeCount++] = slot;
+            return;
+        }
+
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                link(cellKey(row, wrapColumn(column)), slot);
+            }
+        }
+    }
+
+    /**
+     * Removes a fence without reporting any transition
+     * @return true if the fence existed
+     */
+    boolean remove(String id) {
+        Integer boxedSlot = slots.remove(id);
+        if (boxedSlot == null) {
+            return false;
+        }
+        int slot = boxedSlot;
+
+        if (large[slot]) {
+            removeValue(largeSlots, largeCount--, slot);
+        }
+        else {
+            double latitude = latitudes[slot];
+            double longitude = longitudes[slot];
+            float radius = radii[slot];
+            double longitudeSpan = longitudeSpan(latitude, radius);
+            int maxRow = row(latitude + radius / GeoMath.METERS_PER_DEGREE);
+            int maxColumn = unwrappedColumn(longitude + longitudeSpan);
+            for (int row = row(latitude - radius / GeoMath.METERS_PER_DEGREE); row <= maxRow; row++) {
+                for (int column = unwrappedColumn(longitude - longitudeSpan); column <= maxColumn; column++) {
+                    unlink(cellKey(row, wrapColumn(column)), slot);
+                }
+            }
+        }
+
+        if (states[slot] != STATE_OUTSIDE) {
+            removeValue(insideSlots, insideCount--, slot);
+        }
+
+        ids[slot] = null;
+        freeSlots = ensureCapacity(freeSlots, freeSlotCount + 1);
+        freeSlots[freeSlotCount++] = slot;
+        return true;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * Tests a fix against the fences and reports the transitions to the given sink
+     * @param time the time of the fix, in milliseconds
+     */
+    void evaluate(double latitude, double longitude, long time, Sink sink) {
+        if (++visit == Integer.MAX_VALUE) {
+            Arrays.fill(visits, 0);
+            visit = 1;
+        }
+
+        int index = findCell(cellKey(row(latitude), wrapColumn(unwrappedColumn(longitude))));
+        if (cellKeys[index] != EMPTY_CELL) {
+            for (int entry = cellHeads[index]; entry != NONE; entry = entryNexts[entry]) {
+                test(entrySlots[entry], latitude, longitude, time, sink);
+            }
+        }
+        for (int i = 0; i < largeCount; i++) {
+            test(largeSlots[i], latitude, longitude, time, sink);
+        }
+
+        // Fences entered before but which are not candidates anymore have been left
+        int kept = 0;
+        for (int i = 0; i < insideCount; i++) {
+            int slot = insideSlots[i];
+            if (visits[slot] != visit && states[slot] != STATE_OUTSIDE) {
+                states[slot] = STATE_OUTSIDE;
+                sink.onTransition(ids[slot], TRANSITION_EXIT);
+            }
+            if (states[slot] != STATE_OUTSIDE) {
+                insideSlots[kept++] = slot;
+            }
+        }
+        insideCount = kept;
+    }
+
+    private void test(int slot, double latitude, double longitude, long time, Sink sink) {
+        visits[slot] = visit;
+
+        boolean inside = GeoMath.fastDistance(latitude, longitude, latitudes[slot], longitudes[slot]) <= radii[slot];
+        switch (states[slot]) {
+            case STATE_OUTSIDE:
+                if (inside) {
+                    states[slot] = STATE_INSIDE;
+                    enterTimes[slot] = time;
+                    insideSlots = ensureCapacity(insideSlots, insideCount + 1);
+                    insideSlots[insideCount++] = slot;
+                    sink.onTransition(ids[slot], TRANSITION_ENTER);
+                }
+                break;
+
+            case STATE_INSIDE:
+                if (!inside) {
+                    // Removed from the inside fences at the end of the evaluation
+                    states[slot] = STATE_OUTSIDE;
+                    sink.onTransition(ids[slot], TRANSITION_EXIT);
+                }
+                else if (dwellDelays[slot] > 0 && time - enterTimes[slot] >= dwellDelays[slot]) {
+                    states[slot] = STATE_DWELLING;
+                    sink.onTransition(ids[slot], TRANSITION_DWELL);
+                }
+                break;
+
+            case STATE_DWELLING:
+                if (!inside) {
+                    states[slot] = STATE_OUTSIDE;
+                    sink.onTransition(ids[slot], TRANSITION_EXIT);
+                }
+                break;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * GRID
+     *
+     **********************************************************************************************/
+
+    private int row(double latitude) {
+        return (int) Math.floor(latitude / cellDegrees);
+    }
+
+    /**
+     * @return the column of the given longitude, which may be out of the grid for longitudes
+     * beyond the antimeridian
+     */
+    private int unwrappedColumn(double longitude) {
+        return (int) Math.floor((longitude + 180) / columnDegrees);
+    }
+
+    private int wrapColumn(int column) {
+        return ((column % columns) + columns) % columns;
+    }
+
+    /**
+     * @return the longitude half-width of the bounding box of a fence, measured at its poleward
+     * edge so that it contains every point within the radius
+     */
+    private static double longitudeSpan(double latitude, float radius) {
+        double cos = Math.cos(Math.toRadians(Math.min(90, Math.abs(latitude) + radius / GeoMath.METERS_PER_DEGREE)));
+        return cos > 0 ? radius / (GeoMath.METERS_PER_DEGREE * cos) : 180;
+    }
+
+    private static long cellKey(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+
+    /**
+     * @return the index of the given cell in the table, or of the empty index where it would be
+     */
+    private int findCell(long key) {
+        int mask = cellKeys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int index = (int) (hash ^ (hash >>> 32)) & mask;
+        while (cellKeys[index] != EMPTY_CELL && cellKeys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void link(long key, int slot) {
+        int index = findCell(key);
+        if (cellKeys[index] == EMPTY_CELL) {
+            // Keep the table at most half full
+            if ((cellCount + 1) * 2 > cellKeys.length) {
+                growCells();
+                index = findCell(key);
+            }
+            cellKeys[index] = key;
+            cellHeads[index] = NONE;
+            cellCount++;
+        }
+
+        int entry;
+        if (freeEntry != NONE) {
+            entry = freeEntry;
+            freeEntry = entryNexts[entry];
+        }
+        else {
+            if (entryCount == entrySlots.length) {
+                entrySlots = Arrays.copyOf(entrySlots, entryCount * 2);
+                entryNexts = Arrays.copyOf(entryNexts, entryCount * 2);
+            }
+            entry = entryCount++;
+        }
+
+        entrySlots[entry] = slot;
+        entryNexts[entry] = cellHeads[index];
+        cellHeads[index] = entry;
+    }
+
+    /**
+     * Removes a fence from the list of a cell. The cell itself stays in the table.
+     */
+    private void unlink(long key, int slot) {
+        int index = findCell(key);
+        if (cellKeys[index] == EMPTY_CELL) {
+            return;
+        }
+
+        int previous = NONE;
+        for (int entry = cellHeads[index]; entry != NONE; previous = entry, entry = entryNexts[entry]) {
+            if (entrySlots[entry] == slot) {
+                if (previous == NONE) {
+                    cellHeads[index] = entryNexts[entry];
+                }
+                else {
+                    entryNexts[previous] = entryNexts[entry];
+                }
+                entryNexts[entry] = freeEntry;
+                freeEntry = entry;
+                return;
+            }
+        }
+    }
+
+    private void growCells() {
+        long[] oldKeys = cellKeys;
+        int[] oldHeads = cellHeads;
+
+        cellKeys = new long[oldKeys.length * 2];
+        cellHeads = new int[oldKeys.length * 2];
+        Arrays.fill(cellKeys, EMPTY_CELL);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_CELL) {
+                int index = findCell(oldKeys[i]);
+                cellKeys[index] = oldKeys[i];
+                cellHeads[index] = oldHeads[i];
+            }
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void growSlots() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        radii = Arrays.copyOf(radii, capacity);
+        dwellDelays = Arrays.copyOf(dwellDelays, capacity);
+        enterTimes = Arrays.copyOf(enterTimes, capacity);
+        states = Arrays.copyOf(states, capacity);
+        large = Arrays.copyOf(large, capacity);
+        visits = Arrays.copyOf(visits, capacity);
+    }
+
+    private static int[] ensureCapacity(int[] array, int size) {
+        return size > array.length ? Arrays.copyOf(array, Math.max(size, array.length * 2)) : array;
+    }
+
+    /**
+     * Removes a value from the first count elements of the array, without keeping the order
+     */
+    private static void removeValue(int[] array, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (array[i] == value) {
+                array[i] = array[count - 1];
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ * InMemoryGeocoderBackend
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GeocoderBackend answering from addresses given in advance, e.g. for tests or replayed tracks.
+ * A lookup returns the closest address within the radius, and each lookup is counted.
+ */
+public final class InMemoryGeocoderBackend implements GeocoderBackend {
+
+    private final double radius;
+    private final List<double[]> coordinates = new ArrayList<>();
+    private final List<GeocodedAddress> addresses = new ArrayList<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * @param radius the maximum distance between the looked up coordinates and an address, in meters
+     */
+    public InMemoryGeocoderBackend(double radius) {
+        this.radius = radius;
+    }
+
+    public synchronized void put(double latitude, double longitude, GeocodedAddress address) {
+        coordinates.add(new double[] { latitude, longitude });
+        addresses.add(address);
+    }
+
+    @Override
+    public synchronized GeocodedAddress reverseGeocode(double latitude, double longitude) {
+        calls.incrementAndGet();
+
+        GeocodedAddress closest = null;
+        double closestDistance = radius;
+        for (int i = 0, size = addresses.size(); i < size; i++) {
+            double distance = GeoMath.distance(latitude, longitude, coordinates.get(i)[0], coordinates.get(i)[1]);
+            if (distance <= closestDistance) {
+                closest = addresses.get(i);
+                closestDistance = distance;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @return the number of lookups received, which the cache keeps at one per cell
+     */
+    public int getCallCount() {
+        return calls.get();
+    }
+}
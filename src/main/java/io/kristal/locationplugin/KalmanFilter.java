@@ -0,0 +1,225 @@
+/**
+ *
+ * KalmanFilter
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+/**
+ * Constant-velocity Kalman filter over latitude and longitude.
+ * Both axes are filtered independently, in meters on a plane tangent to the first fix, with the
+ * reported accuracy as measurement noise. The state only lives in primitive fields, so filtering
+ * a fix does not allocate.
+ */
+final class KalmanFilter {
+
+    /**
+     * Variance of the acceleration noise, in (m/s^2)^2, i.e. how fast the velocity may change
+     */
+    private static final double DEFAULT_ACCELERATION_VARIANCE = 1;
+
+    /**
+     * Distance from the origin beyond which the tangent plane is recentered by a reset, in meters
+     */
+    private static final double MAX_ORIGIN_DISTANCE = 50000;
+
+    private static final float MIN_ACCURACY = 1;
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final double accelerationVariance;
+
+    private boolean initialized = false;
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerLongitudeDegree;
+    private long time;
+
+    // East axis: position, velocity and covariance
+    private double x;
+    private double vx;
+    private double pxx;
+    private double pxvx;
+    private double pvxvx;
+
+    // North axis: position, velocity and covariance
+    private double y;
+    private double vy;
+    private double pyy;
+    private double pyvy;
+    private double pvyvy;
+
+    KalmanFilter() {
+        this(DEFAULT_ACCELERATION_VARIANCE);
+    }
+
+    KalmanFilter(double accelerationVariance) {
+        this.accelerationVariance = accelerationVariance;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Adds a measurement to the filter. Measurements not newer than the last one are ignored.
+     * @param latitude the measured latitude, in degrees
+     * @param longitude the measured longitude, in degrees
+     * @param accuracy the measurement accuracy, in meters
+     * @param timestamp the measurement time, in milliseconds
+     * @return true if the measurement was used
+     */
+    boolean update(double latitude, double longitude, float accuracy, long timestamp) {
+        double variance = Math.max(accuracy, MIN_ACCURACY);
+        variance *= variance;
+
+        if (initialized) {
+            if (timestamp <= time) {
+                return false;
+            }
+
+            double measuredX = GeoMath.wrapLongitude(longitude - originLongitude) * metersPerLongitudeDegree;
+            double measuredY = (latitude - originLatitude) * GeoMath.METERS_PER_DEGREE;
+            if (Math.abs(measuredX) > MAX_ORIGIN_DISTANCE || Math.abs(measuredY) > MAX_ORIGIN_DISTANCE) {
+                reset(latitude, longitude, variance, timestamp);
+                return true;
+            }
+
+            double dt = (timestamp - time) / 1000.0;
+            time = timestamp;
+
+            // Predict
+            double dt2 = dt * dt;
+            double q00 = accelerationVariance * dt2 * dt2 / 4;
+            double q01 = accelerationVariance * dt2 * dt / 2;
+            double q11 = accelerationVariance * dt2;
+
+            x += vx * dt;
+            pxx += dt * (2 * pxvx + dt * pvxvx) + q00;
+            pxvx += dt * pvxvx + q01;
+            pvxvx += q11;
+
+            y += vy * dt;
+            pyy += dt * (2 * pyvy + dt * pvyvy) + q00;
+            pyvy += dt * pvyvy + q01;
+            pvyvy += q11;
+
+            // Update
+            double innovation = measuredX - x;
+            double s = pxx + variance;
+            double k0 = pxx / s;
+            double k1 = pxvx / s;
+            x += k0 * innovation;
+            vx += k1 * innovation;
+            pvxvx -= k1 * pxvx;
+            pxvx *= 1 - k0;
+            pxx *= 1 - k0;
+
+            innovation = measuredY - y;
+            s = pyy + variance;
+            k0 = pyy / s;
+            k1 = pyvy / s;
+            y += k0 * innovation;
+            vy += k1 * innovation;
+            pvyvy -= k1 * pyvy;
+            pyvy *= 1 - k0;
+            pyy *= 1 - k0;
+        }
+        else {
+            reset(latitude, longitude, variance, timestamp);
+        }
+
+        return true;
+    }
+
+    boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * @return the smoothed latitude, in degrees
+     */
+    double getLatitude() {
+        return originLatitude + y / GeoMath.METERS_PER_DEGREE;
+    }
+
+    /**
+     * @return the smoothed longitude, in degrees
+     */
+    double getLongitude() {
+        double longitude = originLongitude + x / metersPerLongitudeDegree;
+        return GeoMath.wrapLongitude(longitude);
+    }
+
+    /**
+     * @return the estimated speed, in meters per second
+     */
+    double getSpeed() {
+        return Math.sqrt(vx * vx + vy * vy);
+    }
+
+    /**
+     * @return the estimated position accuracy, in meters
+     */
+    double getAccuracy() {
+        return Math.sqrt(Math.max(pxx, pyy));
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void reset(double latitude, double longitude, double variance, long timestamp) {
+        initialized = true;
+        originLatitude = latitude;
+        originLongitude = longitude;
+        metersPerLongitudeDegree = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        time = timestamp;
+
+        x = 0;
+        vx = 0;
+        pxx = variance;
+        pxvx = 0;
+        // Unknown velocity: start with a large uncertainty
+        pvxvx = 100;
+
+        y = 0;
+        vy = 0;
+        pyy = variance;
+        pyvy = 0;
+        pvyvy = 100;
+    }
+}
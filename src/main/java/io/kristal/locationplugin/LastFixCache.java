@@ -0,0 +1,299 @@
+/**
+ *
+ * LastFixCache
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.os.Handler;
+import android.util.Log;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Persists the most recent best fix of each provider in a small binary file, so that a fix is
+ * available right after a process restart. The file is read on the write executor after the first
+ * access, its fixes being merged on the thread of the handler, and written on the same executor,
+ * at most once per WRITE_DELAY. Until it is loaded, only the fixes put since are cached.
+ *
+ * File format: MAGIC (int), VERSION (byte), count (int), then for each fix:
+ * provider (UTF), latitude (double), longitude (double), accuracy (float), time (long).
+ */
+final class LastFixCache {
+
+    // TAG
+    private static final String TAG = LastFixCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x4C4F4346;
+    private static final byte VERSION = 1;
+    private static final long WRITE_DELAY = 5000;
+
+    interface LoadListener {
+        /**
+         * Called on the thread of the handler once the file is loaded
+         * @param locations the fixes of the file newer than those put while loading
+         */
+        void onLoaded(List<Location> locations);
+    }
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final File file;
+    private final Handler handler;
+    private final Executor writeExecutor;
+    private final Map<String, Location> locations = new HashMap<>();
+    private final List<LoadListener> loadListeners = new ArrayList<>();
+    private boolean loadStarted = false;
+    private boolean loaded = false;
+    private boolean writePending = false;
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePending = false;
+            write();
+        }
+    };
+
+    /**
+     * @param file the cache file
+     * @param handler the handler of the thread using the cache
+     * @param writeExecutor the executor on which the file is read and written
+     */
+    LastFixCache(File file, Handler handler, Executor writeExecutor) {
+        this.file = file;
+        this.handler = handler;
+        this.writeExecutor = writeExecutor;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * @return the cached fixes, at most one per provider, without those of the file until it is loaded
+     */
+    List<Location> getLocations() {
+        load();
+        return new ArrayList<>(locations.values());
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Calls the listener once the file is loaded, unless it already is
+     */
+    void addLoadListener(LoadListener listener) {
+        if (!loaded) {
+            loadListeners.add(listener);
+            load();
+        }
+    }
+
+    /**
+     * Stores the fix if it is newer than the cached one of the same provider. Fused fixes are not
+     * stored, as no provider reported them.
+     */
+    void put(Location location) {
+        if (WeightedFusion.FUSED_PROVIDER.equals(location.getProvider())) {
+            return;
+        }
+
+        load();
+
+        if (merge(location) && loaded) {
+            scheduleWrite();
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Stores the fix if it is newer than the cached one of the same provider
+     * @return true if it was stored
+     */
+    private boolean merge(Location location) {
+        String provider = location.getProvider() != null ? location.getProvider() : "";
+        Location cached = locations.get(provider);
+        if (cached != null && cached.getTime() >= location.getTime()) {
+            return false;
+        }
+
+        locations.put(provider, location);
+        return true;
+    }
+
+    private void scheduleWrite() {
+        if (!writePending) {
+            writePending = true;
+            handler.postDelayed(writeRunnable, WRITE_DELAY);
+        }
+    }
+
+    /**
+     * Reads the file on the write executor, then merges its fixes on the thread of the handler
+     */
+    private void load() {
+        if (loadStarted) {
+            return;
+        }
+        loadStarted = true;
+
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Location> fileLocations = read();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(fileLocations);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onLoaded(List<Location> fileLocations) {
+        loaded = true;
+
+        // Fixes put while loading are written with those of the file
+        boolean put = !locations.isEmpty();
+        List<Location> merged = new ArrayList<>(fileLocations.size());
+        for (Location location : fileLocations) {
+            if (merge(location)) {
+                merged.add(location);
+            }
+        }
+        if (put) {
+            scheduleWrite();
+        }
+
+        List<LoadListener> listeners = new ArrayList<>(loadListeners);
+        loadListeners.clear();
+        for (LoadListener listener : listeners) {
+            listener.onLoaded(merged);
+        }
+    }
+
+    /**
+     * @return the fixes of the file, or none if it is missing or unreadable
+     */
+    private List<Location> read() {
+        List<Location> fileLocations = new ArrayList<>();
+        if (!file.exists()) {
+            return fileLocations;
+        }
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+                return fileLocations;
+            }
+
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                Location location = new Location(input.readUTF());
+                location.setLatitude(input.readDouble());
+                location.setLongitude(input.readDouble());
+                location.setAccuracy(input.readFloat());
+                location.setTime(input.readLong());
+                fileLocations.add(location);
+            }
+        }
+        catch (IOException e) {
+            // A truncated or corrupted file only costs the cached fixes
+            fileLocations.clear();
+
+            if (Cobalt.DEBUG) {
+                Log.w(TAG, "load: unable to read " + file, e);
+            }
+        }
+        finally {
+            CacheFiles.close(input);
+        }
+        return fileLocations;
+    }
+
+    private void write() {
+        final byte[] bytes;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(buffer);
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(locations.size());
+            for (Location location : locations.values()) {
+                output.writeUTF(location.getProvider() != null ? location.getProvider() : "");
+                output.writeDouble(location.getLatitude());
+                output.writeDouble(location.getLongitude());
+                output.writeFloat(location.getAccuracy());
+                output.writeLong(location.getTime());
+            }
+            output.flush();
+            bytes = buffer.toByteArray();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CacheFiles.writeAtomically(file, bytes);
+            }
+        });
+    }
+}
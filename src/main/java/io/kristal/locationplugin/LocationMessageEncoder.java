@@ -0,0 +1,434 @@
+/**
+ *
+ * LocationMessageEncoder
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * Builds the messages sent by the plugin to the web side.
+ * Every message shares the same plugin envelope and every fix is written with the same fields,
+ * so single, batched and status messages are all encoded here.
+ *
+ * Each message is a new JSONObject tree: CobaltFragment.sendMessage only takes a JSONObject, and
+ * queued messages are completed later, e.g. with the number of dropped fixes, so the envelope
+ * cannot be shared between messages. JSONObject boxes every number it holds, whichever put
+ * overload is used; the compact format is the allocation-light encoding of fixes.
+ */
+final class LocationMessageEncoder {
+
+    static final String PLUGIN_NAME = "CobaltLocationPlugin";
+
+    private LocationMessageEncoder() {
+
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    static JSONObject encodeLocation(Location location) {
+        return encodeLocation(encodeLocationData(location));
+    }
+
+    /**
+     * Wraps fix fields built by encodeLocationData into an onLocationChanged message
+     * @return null if the fields could not be built, as no message was sent for such a fix
+     */
+    static JSONObject encodeLocation(JSONObject locationData) {
+        if (locationData == null) {
+            return null;
+        }
+
+        try {
+            return envelope(LocationPlugin.JSActionOnLocationChanged, locationData);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * @return the fields of the fix, to which the caller may add its own fields
+     */
+    static JSONObject encodeLocationData(Location location) {
+        try {
+            return putLocation(new JSONObject(), location);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * Wraps fix fields built by encodeLocationData into a single onLocationsChanged message
+     */
+    static JSONObject encodeLocations(List<JSONObject> locationsData) {
+        try {
+            JSONArray array = new JSONArray();
+            for (int i = 0, size = locationsData.size(); i < size; i++) {
+                array.put(locationsData.get(i));
+            }
+
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSLocations, array);
+
+            return envelope(LocationPlugin.JSActionOnLocationsChanged, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * Wraps the last fix queued while the fragment was paused into an onLocationChanged message
+     * @param dropped the number of fixes dropped while paused
+     */
+    static JSONObject encodeLocationSummary(JSONObject locationData, int dropped) {
+        try {
+            locationData.put(LocationPlugin.kJSDropped, dropped);
+            return envelope(LocationPlugin.JSActionOnLocationChanged, locationData);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * Wraps the fixes queued while the fragment was paused into a single onLocationsChanged message
+     * @param dropped the number of fixes dropped while paused
+     */
+    static JSONObject encodeLocationsSummary(List<JSONObject> locationsData, int dropped) {
+        JSONObject message = encodeLocations(locationsData);
+
+        if (message != null) {
+            try {
+                message.optJSONObject(Cobalt.kJSData).put(LocationPlugin.kJSDropped, dropped);
+            }
+            catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * Encodes the recorded fixes of the given index range into an onTrackRead message
+     */
+    static JSONObject encodeTrack(TrackRecorder recorder, long fromIndex, long toIndex) {
+        try {
+            JSONArray array = new JSONArray();
+            for (long index = fromIndex; index < toIndex; index++) {
+                JSONObject item = new JSONObject();
+                item.put(LocationPlugin.kJSLatitude, recorder.getLatitude(index));
+                item.put(LocationPlugin.kJSLongitude, recorder.getLongitude(index));
+                item.put(LocationPlugin.kJSAccuracy, recorder.getAccuracy(index));
+                item.put(LocationPlugin.kJSTimestamp, recorder.getTime(index));
+
+                String provider = TrackRecorder.getProviderName(recorder.getProvider(index));
+                if (provider != null) {
+                    item.put(LocationPlugin.kJSProvider, provider);
+                }
+
+                array.put(item);
+            }
+
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSLocations, array);
+
+            return envelope(LocationPlugin.JSActionOnTrackRead, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * @param payload fixes encoded by a CompactFixEncoder
+     */
+    static JSONObject encodeCompactLocations(String payload, int count) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSCompact, payload);
+            data.put(LocationPlugin.kJSPoints, count);
+
+            return envelope(LocationPlugin.JSActionOnCompactLocationsChanged, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * @param transitions the transitions triggered by the fix, as objects with an id and a transition
+     * @param location the fix which triggered them
+     */
+    static JSONObject encodeGeofenceTransitions(JSONArray transitions, Location location) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSTransitions, transitions);
+            data.put(LocationPlugin.kJSLocation, putLocation(new JSONObject(), location));
+
+            return envelope(LocationPlugin.JSActionOnGeofenceTransitions, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    static JSONObject encodeMetrics(LocationMetrics metrics) {
+        try {
+            JSONObject fixes = new JSONObject();
+            JSONObject providerOn = new JSONObject();
+            for (String provider : LocationMetrics.PROVIDERS) {
+                fixes.put(provider, metrics.getFixesReceived(provider));
+                providerOn.put(provider, metrics.getProviderOnMillis(provider));
+            }
+            fixes.put(LocationMetrics.PROVIDER_OTHER, metrics.getFixesReceived(LocationMetrics.PROVIDER_OTHER));
+            providerOn.put(LocationMetrics.PROVIDER_OTHER, metrics.getProviderOnMillis(LocationMetrics.PROVIDER_OTHER));
+
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSFixesReceived, fixes);
+            data.put(LocationPlugin.kJSFixesForwarded, metrics.getFixesForwarded());
+            data.put(LocationPlugin.kJSFixesSuppressed, metrics.getFixesSuppressed());
+            data.put(LocationPlugin.kJSFixesThrottled, metrics.getFixesThrottled());
+            data.put(LocationPlugin.kJSFixesIgnored, metrics.getFixesIgnored());
+            data.put(LocationPlugin.kJSFixesDropped, metrics.getDroppedFixes());
+            data.put(LocationPlugin.kJSMessagesDropped, metrics.getDroppedMessages());
+            data.put(LocationPlugin.kJSProviderOnMillis, providerOn);
+            data.put(LocationPlugin.kJSActiveListeners, metrics.getActiveListeners());
+            data.put(LocationPlugin.kJSMaxActiveListeners, metrics.getMaxActiveListeners());
+            data.put(LocationPlugin.kJSTimeToFix, putHistogram(new JSONObject(), metrics.getTimeToFix()));
+            data.put(LocationPlugin.kJSTimeToAccuracy, putHistogram(new JSONObject(), metrics.getTimeToAccuracy()));
+            data.put(LocationPlugin.kJSEncodeNanos, putHistogram(new JSONObject(), metrics.getEncodeNanos()));
+            data.put(LocationPlugin.kJSBridgeNanos, putHistogram(new JSONObject(), metrics.getBridgeNanos()));
+            data.put(LocationPlugin.kJSProcessingNanos, metrics.getProcessingTimeNanos());
+            data.put(LocationPlugin.kJSUiNanos, metrics.getUiTimeNanos());
+
+            return envelope(LocationPlugin.JSActionOnMetrics, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * @param address the address at the given coordinates, or null if none was found
+     */
+    static JSONObject encodeReverseGeocoded(double latitude, double longitude, GeocodedAddress address) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSLatitude, latitude);
+            data.put(LocationPlugin.kJSLongitude, longitude);
+            if (address != null) {
+                data.put(LocationPlugin.kJSAddress, putAddress(new JSONObject(), address));
+            }
+
+            return envelope(LocationPlugin.JSActionOnReverseGeocoded, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * Encodes a simplified track into an onTrackExported message
+     * @param originalPoints the number of recorded points before simplification
+     */
+    static JSONObject encodeTrackExport(PolylineEncoder polyline, int precision, long originalPoints) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSPolyline, polyline.toString());
+            data.put(LocationPlugin.kJSPrecision, precision);
+            data.put(LocationPlugin.kJSPoints, polyline.getCount());
+            data.put(LocationPlugin.kJSOriginalPoints, originalPoints);
+
+            return envelope(LocationPlugin.JSActionOnTrackExported, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * @param dropped the number of messages which had to reach the fragment but were dropped while it was paused
+     */
+    static JSONObject encodeMessagesDropped(int dropped) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSDropped, dropped);
+
+            return envelope(LocationPlugin.JSActionOnMessagesDropped, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /**
+     * @param action the action of the rejected message
+     * @param message why it was rejected
+     */
+    static JSONObject encodeError(String action, String message) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSAction, action);
+            data.put(LocationPlugin.kJSMessage, message);
+
+            return envelope(LocationPlugin.JSActionOnError, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    static JSONObject encodeStatus(String status, Location bestLocation) {
+        try {
+            JSONObject data = new JSONObject();
+            data.put(LocationPlugin.kJSStatus, status);
+
+            if (bestLocation != null) {
+                data.put(LocationPlugin.kJSLocation, putLocation(new JSONObject(), bestLocation));
+            }
+
+            return envelope(LocationPlugin.JSActionOnStatusChanged, data);
+        }
+        catch (JSONException e) {
+            e.printStackTrace();
+
+            return null;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Writes the fields of a fix into the given object
+     * @return the given object
+     */
+    static JSONObject putLocation(JSONObject object, Location location) throws JSONException {
+        object.put(LocationPlugin.kJSLatitude, location.getLatitude());
+        object.put(LocationPlugin.kJSLongitude, location.getLongitude());
+        object.put(LocationPlugin.kJSAccuracy, location.getAccuracy());
+        object.put(LocationPlugin.kJSTimestamp, location.getTime());
+        return object;
+    }
+
+    /**
+     * Writes the smoothed position and estimated speed of the filter into the given object
+     * @return the given object
+     */
+    static JSONObject putSmoothing(JSONObject object, KalmanFilter filter) throws JSONException {
+        object.put(LocationPlugin.kJSSmoothedLatitude, filter.getLatitude());
+        object.put(LocationPlugin.kJSSmoothedLongitude, filter.getLongitude());
+        object.put(LocationPlugin.kJSSmoothedAccuracy, filter.getAccuracy());
+        object.put(LocationPlugin.kJSSpeed, filter.getSpeed());
+        return object;
+    }
+
+    /**
+     * Writes the count, sum, maximum and main percentiles of a histogram into the given object
+     * @return the given object
+     */
+    static JSONObject putHistogram(JSONObject object, LocationMetrics.Histogram histogram) throws JSONException {
+        object.put(LocationPlugin.kJSCount, histogram.getCount());
+        object.put(LocationPlugin.kJSSum, histogram.getSum());
+        object.put(LocationPlugin.kJSMax, histogram.getMax());
+        object.put(LocationPlugin.kJSP50, histogram.getPercentile(50));
+        object.put(LocationPlugin.kJSP90, histogram.getPercentile(90));
+        object.put(LocationPlugin.kJSP99, histogram.getPercentile(99));
+        return object;
+    }
+
+    /**
+     * Writes the non-null fields of an address into the given object
+     * @return the given object
+     */
+    static JSONObject putAddress(JSONObject object, GeocodedAddress address) throws JSONException {
+        object.putOpt(LocationPlugin.kJSAddressLine, address.getLine());
+        object.putOpt(LocationPlugin.kJSThoroughfare, address.getThoroughfare());
+        object.putOpt(LocationPlugin.kJSLocality, address.getLocality());
+        object.putOpt(LocationPlugin.kJSPostalCode, address.getPostalCode());
+        object.putOpt(LocationPlugin.kJSCountryName, address.getCountryName());
+        object.putOpt(LocationPlugin.kJSCountryCode, address.getCountryCode());
+        return object;
+    }
+
+    /**
+     * Wraps data into the plugin envelope for the given action
+     */
+    static JSONObject envelope(String action, JSONObject data) throws JSONException {
+        JSONObject message = new JSONObject();
+        message.put(Cobalt.kJSType, Cobalt.JSTypePlugin);
+        message.put(Cobalt.kJSPluginName, PLUGIN_NAME);
+        message.put(Cobalt.kJSAction, action);
+        message.put(Cobalt.kJSData, data);
+        return message;
+    }
+}
@@ -0,0 +1,481 @@
+/**
+ *
+ * LocationMetrics
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.LocationManager;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Performance counters of the location pipeline.
+ * Counters are updated without locking nor allocation and can be read from any thread.
+ */
+public final class LocationMetrics {
+
+    /**
+     * Receives the metrics periodically, e.g. to forward them to an APM
+     */
+    public interface MetricsListener {
+        void onMetrics(LocationMetrics metrics);
+    }
+
+    /**
+     * Providers for which fixes and registration time are counted, any other provider being counted as PROVIDER_OTHER
+     */
+    public static final String[] PROVIDERS = {
+        LocationManager.GPS_PROVIDER,
+        LocationManager.NETWORK_PROVIDER,
+        LocationManager.PASSIVE_PROVIDER
+    };
+    public static final String PROVIDER_OTHER = "other";
+
+    private final AtomicLong processingTimeNanos = new AtomicLong();
+    private final AtomicLong processingTasks = new AtomicLong();
+    private final AtomicLong uiTimeNanos = new AtomicLong();
+    private final AtomicLong uiTasks = new AtomicLong();
+    private final AtomicLong fixesForwarded = new AtomicLong();
+    private final AtomicLong fixesSuppressed = new AtomicLong();
+    private final AtomicLong fixesThrottled = new AtomicLong();
+    private final AtomicLong queuedFixes = new AtomicLong();
+    private final AtomicLong maxQueuedFixes = new AtomicLong();
+    private final AtomicLong droppedFixes = new AtomicLong();
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong requestsWithFix = new AtomicLong();
+    private final AtomicLong timeToFixMillis = new AtomicLong();
+    private final AtomicLong gpsOnMillis = new AtomicLong();
+    private final AtomicLong fixesIgnored = new AtomicLong();
+    private final AtomicLong activeListeners = new AtomicLong();
+    private final AtomicLong maxActiveListeners = new AtomicLong();
+    private final AtomicLongArray fixesReceived = new AtomicLongArray(PROVIDERS.length + 1);
+    private final AtomicLongArray providerOnMillis = new AtomicLongArray(PROVIDERS.length + 1);
+    // Time since which each provider is registered, or 0 if it is not
+    private final AtomicLongArray providerOnSince = new AtomicLongArray(PROVIDERS.length + 1);
+    private final Histogram timeToFix = new Histogram();
+    private final Histogram timeToAccuracy = new Histogram();
+    private final Histogram encodeNanos = new Histogram();
+    private final Histogram bridgeNanos = new Histogram();
+
+    LocationMetrics() {
+
+    }
+
+    /***********************************************************************************************
+     *
+     * RECORDING
+     *
+     **********************************************************************************************/
+
+    void recordProcessing(long durationNanos) {
+        processingTimeNanos.addAndGet(durationNanos);
+        processingTasks.incrementAndGet();
+    }
+
+    void recordUi(long durationNanos) {
+        uiTimeNanos.addAndGet(durationNanos);
+        uiTasks.incrementAndGet();
+    }
+
+    void recordForwarded() {
+        fixesForwarded.incrementAndGet();
+    }
+
+    void recordSuppressed() {
+        fixesSuppressed.incrementAndGet();
+    }
+
+    void recordThrottled() {
+        fixesThrottled.incrementAndGet();
+    }
+
+    /**
+     * @param delta the change of the number of fixes waiting for paused fragments
+     */
+    void recordQueued(long delta) {
+        long queued = queuedFixes.addAndGet(delta);
+
+        long max = maxQueuedFixes.get();
+        while (queued > max && !maxQueuedFixes.compareAndSet(max, queued)) {
+            max = maxQueuedFixes.get();
+        }
+    }
+
+    void recordDropped(long count) {
+        droppedFixes.addAndGet(count);
+    }
+
+    void recordDroppedMessages(long count) {
+        droppedMessages.addAndGet(count);
+    }
+
+    /**
+     * @param timeToFix the time between the start of the request and its first fix, or a negative value if none
+     * @param gpsOn the time during which GPS was registered for the request
+     */
+    void recordRequest(long timeToFix, long gpsOn) {
+        requests.incrementAndGet();
+        if (timeToFix >= 0) {
+            requestsWithFix.incrementAndGet();
+            timeToFixMillis.addAndGet(timeToFix);
+            this.timeToFix.record(timeToFix);
+        }
+        gpsOnMillis.addAndGet(gpsOn);
+    }
+
+    /**
+     * @param timeToAccuracy the time between the start of a request and its first fix meeting the required accuracy, in milliseconds
+     */
+    void recordTimeToAccuracy(long timeToAccuracy) {
+        this.timeToAccuracy.record(timeToAccuracy);
+    }
+
+    void recordIgnored() {
+        fixesIgnored.incrementAndGet();
+    }
+
+    void recordFixReceived(int providerIndex) {
+        fixesReceived.incrementAndGet(providerIndex);
+    }
+
+    /**
+     * @param durationNanos the time spent encoding a fix or a batch into a message
+     */
+    void recordEncode(long durationNanos) {
+        encodeNanos.record(durationNanos);
+    }
+
+    /**
+     * @param durationNanos the time between posting a message to the main thread and the end of its sending
+     */
+    void recordBridge(long durationNanos) {
+        bridgeNanos.record(durationNanos);
+    }
+
+    void recordActiveListeners(int count) {
+        activeListeners.set(count);
+
+        long max = maxActiveListeners.get();
+        while (count > max && !maxActiveListeners.compareAndSet(max, count)) {
+            max = maxActiveListeners.get();
+        }
+    }
+
+    void recordProviderRegistered(int providerIndex, boolean registered) {
+        long now = SystemClock.elapsedRealtime();
+        if (registered) {
+            providerOnSince.compareAndSet(providerIndex, 0, now);
+        }
+        else {
+            long since = providerOnSince.getAndSet(providerIndex, 0);
+            if (since > 0) {
+                providerOnMillis.addAndGet(providerIndex, now - since);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the given provider in the per provider counters
+     */
+    static int getProviderIndex(String provider) {
+        for (int i = 0; i < PROVIDERS.length; i++) {
+            if (PROVIDERS[i].equals(provider)) {
+                return i;
+            }
+        }
+        return PROVIDERS.length;
+    }
+
+    /***********************************************************************************************
+     *
+     * GETTERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * @return the total time spent processing messages and fixes on the processing thread, in nanoseconds
+     */
+    public long getProcessingTimeNanos() {
+        return processingTimeNanos.get();
+    }
+
+    /**
+     * @return the number of messages and fixes processed on the processing thread
+     */
+    public long getProcessingTasks() {
+        return processingTasks.get();
+    }
+
+    /**
+     * @return the total time spent on the UI thread sending messages to the web side, in nanoseconds
+     */
+    public long getUiTimeNanos() {
+        return uiTimeNanos.get();
+    }
+
+    /**
+     * @return the number of messages sent to the web side from the UI thread
+     */
+    public long getUiTasks() {
+        return uiTasks.get();
+    }
+
+    /**
+     * @return the number of fixes forwarded to the web side
+     */
+    public long getFixesForwarded() {
+        return fixesForwarded.get();
+    }
+
+    /**
+     * @return the number of fixes suppressed because they did not move or change enough
+     */
+    public long getFixesSuppressed() {
+        return fixesSuppressed.get();
+    }
+
+    /**
+     * @return the number of fixes not forwarded because they came before the update interval elapsed
+     */
+    public long getFixesThrottled() {
+        return fixesThrottled.get();
+    }
+
+    /**
+     * @return the number of fixes currently waiting for paused fragments
+     */
+    public long getQueuedFixes() {
+        return queuedFixes.get();
+    }
+
+    /**
+     * @return the highest number of fixes which waited for paused fragments at the same time
+     */
+    public long getMaxQueuedFixes() {
+        return maxQueuedFixes.get();
+    }
+
+    /**
+     * @return the number of fixes dropped by the delivery queues of paused fragments
+     */
+    public long getDroppedFixes() {
+        return droppedFixes.get();
+    }
+
+    /**
+     * @return the number of messages other than fixes dropped by the delivery queues of paused fragments
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * @return the number of finished location requests
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of finished location requests which received a fix from a provider
+     */
+    public long getRequestsWithFix() {
+        return requestsWithFix.get();
+    }
+
+    /**
+     * @return the total time to first fix of the requests which received one, in milliseconds
+     */
+    public long getTimeToFixMillis() {
+        return timeToFixMillis.get();
+    }
+
+    /**
+     * @return the total time during which GPS was registered for finished requests, in milliseconds
+     */
+    public long getGpsOnMillis() {
+        return gpsOnMillis.get();
+    }
+
+    /**
+     * @return the number of fixes ignored because the fusion kept a better location
+     */
+    public long getFixesIgnored() {
+        return fixesIgnored.get();
+    }
+
+    /**
+     * @param provider one of PROVIDERS or PROVIDER_OTHER
+     * @return the number of fixes received from the provider, counted once whatever the number of subscribers
+     */
+    public long getFixesReceived(String provider) {
+        return fixesReceived.get(getProviderIndex(provider));
+    }
+
+    /**
+     * @param provider one of PROVIDERS or PROVIDER_OTHER
+     * @return the total time during which the provider was registered, including the current registration, in milliseconds
+     */
+    public long getProviderOnMillis(String provider) {
+        int index = getProviderIndex(provider);
+        long since = providerOnSince.get(index);
+        return providerOnMillis.get(index) + (since > 0 ? SystemClock.elapsedRealtime() - since : 0);
+    }
+
+    /**
+     * @return the number of running startLocation listeners
+     */
+    public long getActiveListeners() {
+        return activeListeners.get();
+    }
+
+    /**
+     * @return the highest number of startLocation listeners which ran at the same time
+     */
+    public long getMaxActiveListeners() {
+        return maxActiveListeners.get();
+    }
+
+    /**
+     * @return the times between the start of the requests and their first fix, in milliseconds
+     */
+    public Histogram getTimeToFix() {
+        return timeToFix;
+    }
+
+    /**
+     * @return the times between the start of the requests and their first fix meeting the required accuracy, in milliseconds
+     */
+    public Histogram getTimeToAccuracy() {
+        return timeToAccuracy;
+    }
+
+    /**
+     * @return the times spent encoding fixes and batches into messages, in nanoseconds
+     */
+    public Histogram getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * @return the times between posting messages to the main thread and the end of their sending, in nanoseconds
+     */
+    public Histogram getBridgeNanos() {
+        return bridgeNanos;
+    }
+
+    /***********************************************************************************************
+     *
+     * HISTOGRAM
+     *
+     **********************************************************************************************/
+
+    /**
+     * Distribution of non-negative values in power of two buckets: bucket 0 counts the zeros and
+     * bucket i the values from 2^(i-1) to 2^i - 1.
+     */
+    public static final class Histogram {
+
+        public static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+
+            buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return the number of values in the given bucket
+         */
+        public long getBucketCount(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        /**
+         * @return the highest value counted in the given bucket
+         */
+        public static long getBucketUpperBound(int bucket) {
+            return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return an upper bound of the given percentile, accurate within a factor of two, or 0 if empty
+         */
+        public long getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank) {
+                    return Math.min(getBucketUpperBound(bucket), max.get());
+                }
+            }
+            return max.get();
+        }
+    }
+}
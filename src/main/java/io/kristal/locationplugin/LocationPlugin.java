@@ -29,7 +29,12 @@
 
 package io.kristal.locationplugin;
 
-import android.os.Bundle;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import org.cobaltians.cobalt.Cobalt;
 import org.cobaltians.cobalt.fragments.CobaltFragment;
 import org.cobaltians.cobalt.plugin.CobaltAbstractPlugin;
@@ -42,21 +47,24 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationManager;
-import android.location.LocationProvider;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
 import android.util.Log;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public final class LocationPlugin extends CobaltAbstractPlugin {
 
@@ -71,31 +79,155 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
 
     private static final String JSActionStartLocation = "startLocation";
     private static final String JSActionStopLocation = "stopLocation";
-    private static final String JSActionOnLocationChanged = "onLocationChanged";
-    private static final String JSActionOnStatusChanged = "onStatusChanged";
-
-    private static final String kJSLocation = "location";
-    private static final String kJSAccuracy = "accuracy";
+    private static final String JSActionGetCurrentPosition = "getCurrentPosition";
+    private static final String JSActionStartRecording = "startRecording";
+    private static final String JSActionStopRecording = "stopRecording";
+    private static final String JSActionReadTrack = "readTrack";
+    private static final String JSActionExportTrack = "exportTrack";
+    private static final String JSActionAddGeofences = "addGeofences";
+    private static final String JSActionRemoveGeofences = "removeGeofences";
+    private static final String JSActionGetMetrics = "getMetrics";
+    private static final String JSActionReverseGeocode = "reverseGeocode";
+    static final String JSActionOnLocationChanged = "onLocationChanged";
+    static final String JSActionOnLocationsChanged = "onLocationsChanged";
+    static final String JSActionOnCompactLocationsChanged = "onCompactLocationsChanged";
+    static final String JSActionOnStatusChanged = "onStatusChanged";
+    static final String JSActionOnTrackRead = "onTrackRead";
+    static final String JSActionOnTrackExported = "onTrackExported";
+    static final String JSActionOnGeofenceTransitions = "onGeofenceTransitions";
+    static final String JSActionOnMetrics = "onMetrics";
+    static final String JSActionOnReverseGeocoded = "onReverseGeocoded";
+    static final String JSActionOnError = "onError";
+    static final String JSActionOnMessagesDropped = "onMessagesDropped";
+
+    static final String kJSLocation = "location";
+    static final String kJSLocations = "locations";
+    private static final String kJSBatch = "batch";
+    private static final String kJSBatchMaxSize = "maxSize";
+    private static final String kJSBatchMaxDelay = "maxDelayMs";
+    static final String kJSAccuracy = "accuracy";
     private static final String kJSInterval = "interval";
     private static final String kJSMode = "mode";
     private static final String kJSTimeout = "timeout";
     private static final String kJSMaxAge = "age";
-    private static final String kJSLatitude = "latitude";
-    private static final String kJSLongitude = "longitude";
-    private static final String kJSTimestamp = "timestamp";
-    private static final String kJSStatus = "status";
+    private static final String kJSDistance = "distance";
+    private static final String kJSGpsDelay = "gpsDelay";
+    private static final String kJSStationaryDelay = "stationaryDelay";
+    private static final String kJSMinAccuracyChange = "minAccuracyChange";
+    static final String kJSLatitude = "latitude";
+    static final String kJSLongitude = "longitude";
+    static final String kJSTimestamp = "timestamp";
+    static final String kJSStatus = "status";
+    private static final String kJSSmoothing = "smoothing";
+    private static final String kJSFormat = "format";
+    static final String kJSCompact = "compact";
+    private static final String kJSDelivery = "delivery";
+    private static final String kJSDeliveryPolicy = "policy";
+    private static final String kJSDeliveryCapacity = "capacity";
+    static final String kJSDropped = "dropped";
+    static final String kJSProvider = "provider";
+    private static final String kJSCapacity = "capacity";
+    private static final String kJSFrom = "from";
+    private static final String kJSTo = "to";
+    private static final String kJSLimit = "limit";
+    private static final String kJSTolerance = "tolerance";
+    static final String kJSPrecision = "precision";
+    static final String kJSPolyline = "polyline";
+    static final String kJSPoints = "points";
+    static final String kJSOriginalPoints = "originalPoints";
+    private static final String kJSGeofences = "geofences";
+    private static final String kJSIds = "ids";
+    static final String kJSId = "id";
+    private static final String kJSRadius = "radius";
+    private static final String kJSDwell = "dwell";
+    static final String kJSTransitions = "transitions";
+    static final String kJSTransition = "transition";
+    static final String kJSFixesReceived = "fixesReceived";
+    static final String kJSFixesForwarded = "fixesForwarded";
+    static final String kJSFixesSuppressed = "fixesSuppressed";
+    static final String kJSFixesThrottled = "fixesThrottled";
+    static final String kJSFixesIgnored = "fixesIgnored";
+    static final String kJSFixesDropped = "fixesDropped";
+    static final String kJSMessagesDropped = "messagesDropped";
+    static final String kJSProviderOnMillis = "providerOnMs";
+    static final String kJSActiveListeners = "activeListeners";
+    static final String kJSMaxActiveListeners = "maxActiveListeners";
+    static final String kJSTimeToFix = "timeToFixMs";
+    static final String kJSTimeToAccuracy = "timeToAccuracyMs";
+    static final String kJSEncodeNanos = "encodeNs";
+    static final String kJSBridgeNanos = "bridgeNs";
+    static final String kJSProcessingNanos = "processingNs";
+    static final String kJSUiNanos = "uiNs";
+    static final String kJSCount = "count";
+    static final String kJSSum = "sum";
+    static final String kJSMax = "max";
+    static final String kJSAction = "action";
+    static final String kJSMessage = "message";
+    static final String kJSP50 = "p50";
+    static final String kJSP90 = "p90";
+    static final String kJSP99 = "p99";
+    static final String kJSAddress = "address";
+    static final String kJSAddressLine = "line";
+    static final String kJSThoroughfare = "thoroughfare";
+    static final String kJSLocality = "locality";
+    static final String kJSPostalCode = "postalCode";
+    static final String kJSCountryName = "countryName";
+    static final String kJSCountryCode = "countryCode";
+    private static final String kJSFusion = "fusion";
+    private static final String kJSFusionStrategy = "strategy";
+    private static final String kJSFusionWindow = "window";
+    private static final String kJSFusionSpeed = "speed";
+    static final String kJSSmoothedLatitude = "smoothedLatitude";
+    static final String kJSSmoothedLongitude = "smoothedLongitude";
+    static final String kJSSmoothedAccuracy = "smoothedAccuracy";
+    static final String kJSSpeed = "speed";
 
     private static final String MODE_ALL = "all";
     private static final String MODE_FILTER = "filter";
+    private static final String SMOOTHING_NONE = "none";
+    private static final String SMOOTHING_KALMAN = "kalman";
+    private static final String FORMAT_JSON = "json";
+    private static final String FORMAT_COMPACT = "compact";
+    private static final String FUSION_WEIGHTED = "weighted";
+    private static final String FUSION_BEST = "best";
     private static final String STATUS_DISABLED = "disabled";
     private static final String STATUS_REFUSED = "refused";
     private static final String STATUS_TIMEOUT = "timeout";
+    private static final String STATUS_STATIONARY = "stationary";
+    private static final String STATUS_MOVING = "moving";
+    private static final String TRANSITION_ENTER = "enter";
+    private static final String TRANSITION_EXIT = "exit";
+    private static final String TRANSITION_DWELL = "dwell";
 
     private static final String MODE_DEFAULT_VALUE = MODE_FILTER;
+    private static final String SMOOTHING_DEFAULT_VALUE = SMOOTHING_NONE;
+    private static final String FORMAT_DEFAULT_VALUE = FORMAT_JSON;
+    private static final String FUSION_DEFAULT_VALUE = FUSION_WEIGHTED;
     private static final float ACCURACY_DEFAULT_VALUE = 100;
     private static final long INTERVAL_DEFAULT_VALUE = 500;
     private static final long TIMEOUT_DEFAULT_VALUE = 0;
     private static final long TIMESTAMP_DEFAULT_VALUE = 2 * 60 * 1000;
+    private static final float DISTANCE_DEFAULT_VALUE = 0;
+    private static final long GPS_DELAY_DEFAULT_VALUE = 3000;
+    private static final long STATIONARY_DELAY_DEFAULT_VALUE = 60 * 1000;
+    private static final long STATIONARY_INTERVAL = 60 * 1000;
+    private static final long RECORDING_INTERVAL_DEFAULT_VALUE = 1000;
+    private static final long GEOFENCE_INTERVAL_DEFAULT_VALUE = 10000;
+    private static final int RECORDING_CAPACITY_DEFAULT_VALUE = 24 * 60 * 60;
+    private static final int READ_LIMIT_DEFAULT_VALUE = 1000;
+    private static final float MIN_ACCURACY_CHANGE_DEFAULT_VALUE = 0;
+    private static final String[] ALL_PROVIDERS = {
+        LocationManager.PASSIVE_PROVIDER,
+        LocationManager.NETWORK_PROVIDER,
+        LocationManager.GPS_PROVIDER
+    };
+
+    private static final String LAST_FIX_CACHE_FILE_NAME = "cobalt_location_last_fixes.bin";
+    private static final String GEOCODING_CACHE_FILE_NAME = "cobalt_location_addresses.bin";
+    private static final String TRACK_FILE_NAME = "cobalt_location_track.bin";
+
+    private static final int BATCH_MAX_SIZE_DEFAULT_VALUE = 10;
+    private static final long BATCH_MAX_DELAY_DEFAULT_VALUE = 1000;
 
     /***********************************************************************************************
      *
@@ -104,6 +236,69 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
      **********************************************************************************************/
 
     protected static LocationPlugin sInstance;
+    private static boolean sProcessingThreadEnabled = false;
+    private static LocationSource sLocationSource;
+    private static GeocoderBackend sGeocoderBackend;
+    private static boolean sGeocodingPersistenceEnabled = false;
+
+    /**
+     * Runs registration, filtering, best fix selection and encoding on a plugin-owned thread
+     * instead of the main thread. Only sending messages to the web side stays on the main thread.
+     * Must be called before the plugin receives its first message, e.g. in Application.onCreate.
+     * @param enabled true to use the processing thread, false (default) to stay on the main thread
+     */
+    public static void setProcessingThreadEnabled(boolean enabled) {
+        sProcessingThreadEnabled = enabled;
+    }
+
+    /**
+     * Replaces the system LocationManager as the source of fixes and provider states, e.g. with a
+     * ReplayLocationSource. Must be called before the plugin first registers for fixes.
+     * @param locationSource the source to use, or null (default) for the system one
+     */
+    public static void setLocationSource(LocationSource locationSource) {
+        sLocationSource = locationSource;
+    }
+
+    /**
+     * Replaces android.location.Geocoder as the backend of reverse geocoding, e.g. with an
+     * InMemoryGeocoderBackend. Must be called before the first reverse geocoding.
+     * @param geocoderBackend the backend to use, or null (default) for the system one
+     */
+    public static void setGeocoderBackend(GeocoderBackend geocoderBackend) {
+        sGeocoderBackend = geocoderBackend;
+    }
+
+    /**
+     * Persists the reverse geocoding cache in the cache directory, so that addresses survive a
+     * process restart. Must be called before the first reverse geocoding.
+     * @param enabled true to persist the cache, false (default) to keep it in memory only
+     */
+    public static void setGeocodingPersistenceEnabled(boolean enabled) {
+        sGeocodingPersistenceEnabled = enabled;
+    }
+
+    /**
+     * @return the performance counters of the plugin
+     */
+    public static LocationMetrics getMetrics() {
+        return ((LocationPlugin) getInstance()).metrics;
+    }
+
+    /**
+     * Reports the metrics periodically to the given listener, on the processing thread
+     * @param listener the listener, or null to stop reporting
+     * @param period the time between reports, in milliseconds
+     */
+    public static void setMetricsListener(@Nullable LocationMetrics.MetricsListener listener, long period) {
+        LocationPlugin plugin = (LocationPlugin) getInstance();
+        plugin.processingHandler.removeCallbacks(plugin.metricsReport);
+        plugin.metricsListener = listener;
+        plugin.metricsPeriod = period;
+        if (listener != null && period > 0) {
+            plugin.processingHandler.postDelayed(plugin.metricsReport, period);
+        }
+    }
 
     public static CobaltAbstractPlugin getInstance()
     {
@@ -115,7 +310,22 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
     }
 
     private LocationPlugin() {
-        listeners = new ArrayList<>();
+        listeners = new FragmentRegistry<>();
+        deliveryQueues = new FragmentRegistry<>();
+        geofenceMonitors = new FragmentRegistry<>();
+        metrics = new LocationMetrics();
+        mainHandler = new Handler(Looper.getMainLooper());
+
+        if (sProcessingThreadEnabled) {
+            HandlerThread processingThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            processingThread.start();
+            processingHandler = new Handler(processingThread.getLooper());
+        }
+        else {
+            processingHandler = mainHandler;
+        }
+
+        timeoutScheduler = new TimeoutScheduler(processingHandler);
     }
 
     /***********************************************************************************************
@@ -124,11 +334,48 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
      *
      **********************************************************************************************/
 
-    private List<LocationListener> listeners;
-    
+    private final FragmentRegistry<CobaltFragment, LocationListener> listeners;
+    private final FragmentRegistry<CobaltFragment, DeliveryQueue> deliveryQueues;
+    private final FragmentRegistry<CobaltFragment, GeofenceMonitor> geofenceMonitors;
+    // Fragment managers the lifecycle callbacks were registered to
+    private final Map<FragmentManager, Boolean> lifecycleCallbacksManagers = new WeakHashMap<>();
+    private ProviderMultiplexer multiplexer;
+    private LastFixCache lastFixCache;
+    private ReverseGeocodingCache geocodingCache;
+    private final PositionAcquisition positionAcquisition = new PositionAcquisition();
+    private final TrackRecording trackRecording = new TrackRecording();
+    private final LocationMetrics metrics;
+    private final Handler mainHandler;
+    private final Handler processingHandler;
+    private final TimeoutScheduler timeoutScheduler;
+    private volatile LocationMetrics.MetricsListener metricsListener;
+    private volatile long metricsPeriod;
+
+    private final Runnable metricsReport = new Runnable() {
+        @Override
+        public void run() {
+            LocationMetrics.MetricsListener listener = metricsListener;
+            if (listener != null) {
+                listener.onMetrics(metrics);
+                processingHandler.postDelayed(this, metricsPeriod);
+            }
+        }
+    };
+
     @Override
-    public void onMessage(@NonNull CobaltPluginWebContainer webContainer, @NonNull String action,
-            @Nullable JSONObject data, @Nullable String callbackChannel)
+    public void onMessage(@NonNull final CobaltPluginWebContainer webContainer, @NonNull final String action,
+            @Nullable final JSONObject data, @Nullable String callbackChannel)
+    {
+        runOnProcessingThread(new Runnable() {
+            @Override
+            public void run() {
+                handleMessage(webContainer, action, data);
+            }
+        });
+    }
+
+    private void handleMessage(@NonNull CobaltPluginWebContainer webContainer, @NonNull String action,
+            @Nullable JSONObject data)
     {
         switch(action)
         {
@@ -143,16 +390,134 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
                     long interval = data.optLong(kJSInterval, INTERVAL_DEFAULT_VALUE);
                     long maxAge = data.optLong(kJSMaxAge, TIMESTAMP_DEFAULT_VALUE);
                     long timeout = data.optLong(kJSTimeout, TIMEOUT_DEFAULT_VALUE);
+                    long gpsDelay = data.optLong(kJSGpsDelay, GPS_DELAY_DEFAULT_VALUE);
+                    long stationaryDelay = data.optLong(kJSStationaryDelay, STATIONARY_DELAY_DEFAULT_VALUE);
+                    float distance = (float) data.optDouble(kJSDistance, DISTANCE_DEFAULT_VALUE);
+                    float minAccuracyChange = (float) data.optDouble(kJSMinAccuracyChange, MIN_ACCURACY_CHANGE_DEFAULT_VALUE);
+                    boolean smoothing = SMOOTHING_KALMAN.equals(data.optString(kJSSmoothing, SMOOTHING_DEFAULT_VALUE));
+                    boolean compact = FORMAT_COMPACT.equals(data.optString(kJSFormat, FORMAT_DEFAULT_VALUE));
+                    boolean address = data.optBoolean(kJSAddress, false);
+
+                    // Batching is disabled unless a batch object is given
+                    int batchMaxSize = 1;
+                    long batchMaxDelay = 0;
+                    JSONObject batch = data.optJSONObject(kJSBatch);
+                    if (batch != null) {
+                        batchMaxSize = Math.max(1, batch.optInt(kJSBatchMaxSize, BATCH_MAX_SIZE_DEFAULT_VALUE));
+                        batchMaxDelay = Math.max(0, batch.optLong(kJSBatchMaxDelay, BATCH_MAX_DELAY_DEFAULT_VALUE));
+                    }
+
+                    LocationFusion fusion = createFusion(data.optJSONObject(kJSFusion));
 
                     CobaltFragment fragment = webContainer.getFragment();
-                    LocationListener listener = new LocationListener(fragment, mode, interval,
-                                                                     accuracy, maxAge, timeout);
-                    addListeningFragment(listener);
+
+                    JSONObject delivery = data.optJSONObject(kJSDelivery);
+                    getDeliveryQueue(fragment).setPolicy(
+                            delivery != null ? delivery.optString(kJSDeliveryPolicy, DeliveryQueue.POLICY_LATEST) : DeliveryQueue.POLICY_LATEST,
+                            delivery != null ? delivery.optInt(kJSDeliveryCapacity, DeliveryQueue.DEFAULT_CAPACITY) : DeliveryQueue.DEFAULT_CAPACITY);
+
+                    LocationListener listener = new LocationListener(fragment, mode, fusion, interval,
+                                                                     accuracy, maxAge, timeout, gpsDelay, stationaryDelay,
+                                                                     distance, minAccuracyChange, smoothing, compact,
+                                                                     address, batchMaxSize, batchMaxDelay);
+                    addListeningFragment(fragment, listener);
+                    listener.start();
                 }
                 break;
             case JSActionStopLocation:
                 this.removeListeningFragment(webContainer.getFragment());
                 break;
+            case JSActionGetCurrentPosition:
+                float accuracy = ACCURACY_DEFAULT_VALUE;
+                long maxAge = TIMESTAMP_DEFAULT_VALUE;
+                long timeout = TIMEOUT_DEFAULT_VALUE;
+                if (data != null)
+                {
+                    accuracy = (float) data.optDouble(kJSAccuracy, ACCURACY_DEFAULT_VALUE);
+                    maxAge = data.optLong(kJSMaxAge, TIMESTAMP_DEFAULT_VALUE);
+                    timeout = data.optLong(kJSTimeout, TIMEOUT_DEFAULT_VALUE);
+                }
+
+                positionAcquisition.request(webContainer.getFragment(), accuracy, maxAge, timeout);
+                break;
+            case JSActionStartRecording:
+                // Read as a long, as optInt would wrap values beyond the int range
+                long capacity = data != null ? data.optLong(kJSCapacity, RECORDING_CAPACITY_DEFAULT_VALUE) : RECORDING_CAPACITY_DEFAULT_VALUE;
+                if (capacity >= 1 && capacity <= TrackRecorder.MAX_CAPACITY)
+                {
+                    trackRecording.start(webContainer.getFragment(),
+                                         data != null ? data.optLong(kJSInterval, RECORDING_INTERVAL_DEFAULT_VALUE) : RECORDING_INTERVAL_DEFAULT_VALUE,
+                                         (int) capacity);
+                }
+                else
+                {
+                    deliver(webContainer.getFragment(),
+                            LocationMessageEncoder.encodeError(action, "capacity must be between 1 and " + TrackRecorder.MAX_CAPACITY),
+                            false);
+                }
+                break;
+            case JSActionStopRecording:
+                trackRecording.stop();
+                break;
+            case JSActionReadTrack:
+                trackRecording.read(webContainer.getFragment(),
+                                    data != null ? data.optLong(kJSFrom, 0) : 0,
+                                    data != null ? data.optLong(kJSTo, Long.MAX_VALUE) : Long.MAX_VALUE,
+                                    data != null ? data.optInt(kJSLimit, READ_LIMIT_DEFAULT_VALUE) : READ_LIMIT_DEFAULT_VALUE);
+                break;
+            case JSActionExportTrack:
+                double tolerance = data != null ? data.optDouble(kJSTolerance, TrackSimplifier.DEFAULT_TOLERANCE) : TrackSimplifier.DEFAULT_TOLERANCE;
+                // Read as a long, as optInt would wrap values beyond the int range
+                long precision = data != null ? data.optLong(kJSPrecision, PolylineEncoder.DEFAULT_PRECISION) : PolylineEncoder.DEFAULT_PRECISION;
+                if (!(tolerance >= 0) || Double.isInfinite(tolerance))
+                {
+                    deliver(webContainer.getFragment(),
+                            LocationMessageEncoder.encodeError(action, "tolerance must be a finite number of meters, at least 0"),
+                            false);
+                }
+                else if (precision < 0 || precision > PolylineEncoder.MAX_PRECISION)
+                {
+                    deliver(webContainer.getFragment(),
+                            LocationMessageEncoder.encodeError(action, "precision must be between 0 and " + PolylineEncoder.MAX_PRECISION),
+                            false);
+                }
+                else
+                {
+                    trackRecording.export(webContainer.getFragment(),
+                                          data != null ? data.optLong(kJSFrom, 0) : 0,
+                                          data != null ? data.optLong(kJSTo, Long.MAX_VALUE) : Long.MAX_VALUE,
+                                          tolerance,
+                                          (int) precision);
+                }
+                break;
+            case JSActionAddGeofences:
+                if (data != null)
+                {
+                    addGeofences(webContainer.getFragment(), data.optJSONArray(kJSGeofences),
+                                 data.optLong(kJSInterval, GEOFENCE_INTERVAL_DEFAULT_VALUE));
+                }
+                break;
+            case JSActionReverseGeocode:
+                // Missing coordinates are read as NaN, hence invalid
+                double latitude = data != null ? data.optDouble(kJSLatitude, Double.NaN) : Double.NaN;
+                double longitude = data != null ? data.optDouble(kJSLongitude, Double.NaN) : Double.NaN;
+                if (isValidCoordinate(latitude, longitude))
+                {
+                    reverseGeocode(webContainer.getFragment(), latitude, longitude);
+                }
+                else
+                {
+                    deliver(webContainer.getFragment(),
+                            LocationMessageEncoder.encodeError(action, "invalid coordinates " + latitude + ", " + longitude),
+                            false);
+                }
+                break;
+            case JSActionGetMetrics:
+                deliver(webContainer.getFragment(), LocationMessageEncoder.encodeMetrics(metrics));
+                break;
+            case JSActionRemoveGeofences:
+                removeGeofences(webContainer.getFragment(), data != null ? data.optJSONArray(kJSIds) : null);
+                break;
             default:
                 if (Cobalt.DEBUG)
                 {
@@ -162,22 +527,260 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
         }
     }
 
-    private void addListeningFragment(LocationListener locationListener) {
-        if (!this.listeners.contains(locationListener)) {
-            this.listeners.add(locationListener);
+    private static LocationFusion createFusion(@Nullable JSONObject fusion) {
+        String strategy = FUSION_DEFAULT_VALUE;
+        long window = WeightedFusion.DEFAULT_WINDOW;
+        float speed = WeightedFusion.DEFAULT_SPEED;
+
+        if (fusion != null) {
+            strategy = fusion.optString(kJSFusionStrategy, FUSION_DEFAULT_VALUE);
+            window = fusion.optLong(kJSFusionWindow, WeightedFusion.DEFAULT_WINDOW);
+            speed = (float) fusion.optDouble(kJSFusionSpeed, WeightedFusion.DEFAULT_SPEED);
+        }
+
+        if (FUSION_BEST.equals(strategy)) {
+            return new HeuristicFusion();
+        }
+        return new WeightedFusion(window, speed);
+    }
+
+    private void addListeningFragment(CobaltFragment fragment, LocationListener locationListener) {
+        LocationListener previousListener = listeners.put(fragment, locationListener);
+        if (previousListener != null) {
+            previousListener.stop();
         }
+        metrics.recordActiveListeners(listeners.size());
     }
 
     private void removeListeningFragment(CobaltFragment fragment) {
-        for (LocationListener locationListener : listeners) {
-            if (locationListener.getFragment() == null || locationListener.getFragment().equals(fragment)) {
-                locationListener.stop();
-            }
+        LocationListener locationListener = listeners.remove(fragment);
+        if (locationListener != null) {
+            locationListener.stop();
         }
+        metrics.recordActiveListeners(listeners.size());
     }
 
     private void removeListeningFragment(LocationListener locationListener) {
-        listeners.remove(locationListener);
+        listeners.remove(locationListener.getFragment(), locationListener);
+        metrics.recordActiveListeners(listeners.size());
+    }
+
+    private ProviderMultiplexer getMultiplexer(Context context) {
+        if (multiplexer == null) {
+            LocationSource locationSource = sLocationSource != null
+                                            ? sLocationSource
+                                            : new SystemLocationSource((LocationManager) context.getSystemService(Context.LOCATION_SERVICE));
+            multiplexer = new ProviderMultiplexer(locationSource, processingHandler.getLooper(), metrics);
+        }
+        return multiplexer;
+    }
+
+    private ReverseGeocodingCache getGeocodingCache(Context context) {
+        if (geocodingCache == null) {
+            geocodingCache = new ReverseGeocodingCache(sGeocoderBackend != null ? sGeocoderBackend : new AndroidGeocoderBackend(context),
+                                                       processingHandler, AsyncTask.THREAD_POOL_EXECUTOR,
+                                                       sGeocodingPersistenceEnabled ? new File(context.getCacheDir(), GEOCODING_CACHE_FILE_NAME) : null,
+                                                       AsyncTask.SERIAL_EXECUTOR,
+                                                       ReverseGeocodingCache.DEFAULT_PRECISION,
+                                                       ReverseGeocodingCache.DEFAULT_TTL,
+                                                       ReverseGeocodingCache.DEFAULT_MAX_BYTES);
+        }
+        return geocodingCache;
+    }
+
+    private LastFixCache getLastFixCache(Context context) {
+        if (lastFixCache == null) {
+            lastFixCache = new LastFixCache(new File(context.getCacheDir(), LAST_FIX_CACHE_FILE_NAME),
+                                            processingHandler, AsyncTask.SERIAL_EXECUTOR);
+        }
+        return lastFixCache;
+    }
+
+    /***********************************************************************************************
+     *
+     * THREADING
+     *
+     **********************************************************************************************/
+
+    private void runOnProcessingThread(final Runnable task) {
+        if (Looper.myLooper() == processingHandler.getLooper()) {
+            runMeasured(task);
+        }
+        else {
+            processingHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    runMeasured(task);
+                }
+            });
+        }
+    }
+
+    private void runMeasured(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        metrics.recordProcessing(System.nanoTime() - start);
+    }
+
+    /***********************************************************************************************
+     *
+     * DELIVERY
+     *
+     **********************************************************************************************/
+
+    private DeliveryQueue getDeliveryQueue(final CobaltFragment fragment) {
+        DeliveryQueue deliveryQueue = deliveryQueues.get(fragment);
+        if (deliveryQueue == null) {
+            deliveryQueue = new DeliveryQueue(fragment);
+            deliveryQueues.put(fragment, deliveryQueue);
+        }
+
+        final FragmentManager fragmentManager = fragment.getFragmentManager();
+        if (fragmentManager != null && !lifecycleCallbacksManagers.containsKey(fragmentManager)) {
+            lifecycleCallbacksManagers.put(fragmentManager, Boolean.TRUE);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    fragmentManager.registerFragmentLifecycleCallbacks(lifecycleCallbacks, true);
+                    // Resumed before the callbacks were registered
+                    if (fragment.isResumed()) {
+                        lifecycleCallbacks.onFragmentResumed(fragmentManager, fragment);
+                    }
+                }
+            });
+        }
+
+        return deliveryQueue;
+    }
+
+    private static boolean isPaused(CobaltFragment fragment) {
+        return !fragment.isResumed();
+    }
+
+    /**
+     * @return true for the statuses which end a request
+     */
+    private static boolean isTerminalStatus(String status) {
+        return STATUS_DISABLED.equals(status)
+               || STATUS_REFUSED.equals(status)
+               || STATUS_TIMEOUT.equals(status);
+    }
+
+    /**
+     * Sends the fields of a fix to the fragment, or queues them while the fragment is paused
+     */
+    private void deliverLocation(CobaltFragment fragment, JSONObject locationData) {
+        if (locationData == null) {
+            return;
+        }
+
+        if (isPaused(fragment)) {
+            DeliveryQueue deliveryQueue = getDeliveryQueue(fragment);
+            int dropped = deliveryQueue.offerLocation(locationData);
+            metrics.recordQueued(1 - dropped);
+            metrics.recordDropped(dropped);
+        }
+        else {
+            deliver(fragment, LocationMessageEncoder.encodeLocation(locationData));
+        }
+    }
+
+    /**
+     * Sends the message to the fragment, or queues it while the fragment is paused, in which case
+     * it may be dropped if too many messages are queued
+     */
+    private void deliver(CobaltFragment fragment, JSONObject message) {
+        deliver(fragment, message, true);
+    }
+
+    /**
+     * Sends the message to the fragment, or queues it while the fragment is paused
+     * @param droppable false for the messages which must reach the fragment, such as terminal
+     *                  statuses and geofence transitions
+     */
+    private void deliver(CobaltFragment fragment, JSONObject message, boolean droppable) {
+        if (message == null) {
+            return;
+        }
+
+        DeliveryQueue deliveryQueue = deliveryQueues.get(fragment);
+        if (isPaused(fragment)) {
+            if (deliveryQueue == null) {
+                deliveryQueue = getDeliveryQueue(fragment);
+            }
+            metrics.recordDroppedMessages(deliveryQueue.offerMessage(message, droppable));
+            return;
+        }
+
+        // Messages queued while paused go first
+        if (deliveryQueue != null && !deliveryQueue.isEmpty()) {
+            drain(deliveryQueue, fragment);
+        }
+
+        send(fragment, message);
+    }
+
+    private void drain(DeliveryQueue deliveryQueue, CobaltFragment fragment) {
+        metrics.recordQueued(-deliveryQueue.getDepth());
+
+        for (JSONObject message : deliveryQueue.drain()) {
+            send(fragment, message);
+        }
+    }
+
+    /**
+     * Sends the queued messages of a resumed fragment
+     */
+    private void onFragmentResumed(CobaltFragment fragment) {
+        DeliveryQueue deliveryQueue = deliveryQueues.get(fragment);
+        if (deliveryQueue != null
+            && !deliveryQueue.isEmpty()
+            && !isPaused(fragment)) {
+            drain(deliveryQueue, fragment);
+        }
+    }
+
+    private final FragmentManager.FragmentLifecycleCallbacks lifecycleCallbacks = new FragmentManager.FragmentLifecycleCallbacks() {
+        @Override
+        public void onFragmentResumed(FragmentManager fragmentManager, Fragment fragment) {
+            if (!(fragment instanceof CobaltFragment)) {
+                return;
+            }
+
+            final CobaltFragment cobaltFragment = (CobaltFragment) fragment;
+            runOnProcessingThread(new Runnable() {
+                @Override
+                public void run() {
+                    LocationPlugin.this.onFragmentResumed(cobaltFragment);
+                }
+            });
+        }
+    };
+
+    /**
+     * Sends the message to the fragment from the main thread
+     */
+    private void send(final CobaltFragment fragment, final JSONObject message) {
+        if (Looper.myLooper() == mainHandler.getLooper()) {
+            long start = System.nanoTime();
+            fragment.sendMessage(message);
+            long duration = System.nanoTime() - start;
+            metrics.recordUi(duration);
+            metrics.recordBridge(duration);
+        }
+        else {
+            final long posted = System.nanoTime();
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    fragment.sendMessage(message);
+                    long end = System.nanoTime();
+                    metrics.recordUi(end - start);
+                    metrics.recordBridge(end - posted);
+                }
+            });
+        }
     }
     
     /***********************************************************************************************
@@ -186,20 +789,44 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
      *
      **********************************************************************************************/
 
-    private class LocationListener implements android.location.LocationListener, ActivityCompat.OnRequestPermissionsResultCallback {
+    private class LocationListener implements ProviderMultiplexer.Subscriber, ActivityCompat.OnRequestPermissionsResultCallback {
         private WeakReference<CobaltFragment> fragmentReference;
 
         private final boolean sendAllUpdates;
+        private final LocationFusion fusion;
         private final long interval;
         private final float accuracy;
         private final long maxAge;
-        private Timer timer;
+        private final long gpsDelay;
+        private final MotionDetector motionDetector;
+        private boolean gpsReleased = false;
+        private final float distance;
+        private final float minAccuracyChange;
+        private final KalmanFilter kalmanFilter;
+        private final CompactFixEncoder compactEncoder;
+        private final ReverseGeocodingCache geocodingCache;
+        private String lastAddressCell;
+        private final int batchMaxSize;
+        private final long batchMaxDelay;
+        private final List<JSONObject> batch;
+        private TimeoutScheduler.Timeout timeout;
+        private TimeoutScheduler.Timeout escalation;
+        private long startTime = -1;
+        // Wall clock time of the start, older fixes do not anchor the motion detector
+        private long sessionStartTime = Long.MAX_VALUE;
+        private long firstFixTime = -1;
+        private long gpsOnTime = -1;
+        private long gpsOnDuration = 0;
 
         private Context applicationContext;
-        private LocationManager locationManager;
+        private ProviderMultiplexer multiplexer;
+        private LastFixCache lastFixCache;
         private List<String> providers;
-        private Location bestLocation;
         private long lastSentLocationTimestamp = 0;
+        private boolean hasLastSentLocation = false;
+        private double lastSentLatitude;
+        private double lastSentLongitude;
+        private float lastSentAccuracy;
 
         private boolean listening = false;
 
@@ -209,61 +836,122 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
          *
          ******************************************************************************************/
 
-        public LocationListener(CobaltFragment fragment, String mode, long interval, float accuracy, long maxAge, long timer) {
+        public LocationListener(CobaltFragment fragment, String mode, LocationFusion fusion, long interval, float accuracy, long maxAge, long timeout, long gpsDelay, long stationaryDelay,
+                                float distance, float minAccuracyChange, boolean smoothing, boolean compact,
+                                boolean address, int batchMaxSize, long batchMaxDelay) {
             fragmentReference = new WeakReference<>(fragment);
 
             sendAllUpdates = mode.equals(MODE_ALL);
+            this.fusion = fusion;
             this.interval = interval;
             this.accuracy = accuracy;
             this.maxAge = maxAge;
+            this.gpsDelay = gpsDelay;
+            // Only long-running sessions are duty cycled
+            motionDetector = sendAllUpdates && stationaryDelay > 0 ? new MotionDetector(stationaryDelay) : null;
+            this.distance = distance;
+            this.minAccuracyChange = minAccuracyChange;
+            kalmanFilter = smoothing ? new KalmanFilter() : null;
+            compactEncoder = compact ? new CompactFixEncoder() : null;
+            this.batchMaxSize = batchMaxSize;
+            this.batchMaxDelay = batchMaxDelay;
+            batch = batchMaxSize > 1 ? new ArrayList<JSONObject>(batchMaxSize) : null;
 
             applicationContext = fragment.getActivity().getApplicationContext();
-            locationManager = (LocationManager) fragment.getActivity().getSystemService(Context.LOCATION_SERVICE);
+            multiplexer = getMultiplexer(applicationContext);
+            lastFixCache = getLastFixCache(applicationContext);
+            geocodingCache = address ? getGeocodingCache(applicationContext) : null;
 
-            if (timer > 0) {
-                this.timer = new Timer();
-                this.timer.schedule(new TimerTask() {
+            if (timeout > 0) {
+                this.timeout = timeoutScheduler.schedule(new Runnable() {
                     @Override
                     public void run() {
-                        sendStatus(STATUS_TIMEOUT, bestLocation);
+                        LocationListener.this.timeout = null;
+                        sendStatus(STATUS_TIMEOUT, fusion.getBestLocation());
                         stop();
                     }
-                }, timer);
+                }, timeout);
             }
-
-            start();
         }
 
         public void start() {
             if (checkLocationPermission(applicationContext)) {
                 providers = new ArrayList<>();
 
-                if (locationManager.isProviderEnabled(LocationManager.PASSIVE_PROVIDER)) {
+                if (multiplexer.isProviderEnabled(LocationManager.PASSIVE_PROVIDER)) {
                     providers.add(LocationManager.PASSIVE_PROVIDER);
                 }
-                if (locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
+                if (multiplexer.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
                     providers.add(LocationManager.NETWORK_PROVIDER);
                 }
-                if (locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
+                if (multiplexer.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
                     providers.add(LocationManager.GPS_PROVIDER);
                 }
 
-                for (String provider : providers) {
-                    locationManager.requestLocationUpdates(provider, sendAllUpdates ? interval : INTERVAL_DEFAULT_VALUE, 0, this);
+                Location knownLocation = null;
 
-                    Location location = locationManager.getLastKnownLocation(provider);
+                for (Location location : lastFixCache.getLocations()) {
+                    if (HeuristicFusion.isBetterLocation(location, knownLocation)) {
+                        knownLocation = location;
+                    }
+                }
+
+                for (String provider : providers) {
+                    Location location = multiplexer.getLastKnownLocation(provider);
                     if (location != null) {
-                        if (isBetterLocation(location, bestLocation)) {
-                            bestLocation = location;
+                        if (HeuristicFusion.isBetterLocation(location, knownLocation)) {
+                            knownLocation = location;
                         }
                     }
                 }
 
                 listening = true;
 
+                // A one-shot request already fulfilled by a known fix does not need any provider
+                if (!sendAllUpdates && locationFulfillsRequirements(knownLocation)) {
+                    sendLocation(knownLocation);
+                    return;
+                }
+
+                startTime = SystemClock.elapsedRealtime();
+                sessionStartTime = System.currentTimeMillis();
+
+                // GPS waits for the coarse providers for up to gpsDelay
+                boolean staged = gpsDelay > 0
+                                 && providers.contains(LocationManager.GPS_PROVIDER)
+                                 && providers.size() > 1;
+
+                for (String provider : providers) {
+                    if (!staged || !LocationManager.GPS_PROVIDER.equals(provider)) {
+                        subscribe(provider);
+                    }
+                }
+
+                if (staged) {
+                    escalation = timeoutScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            escalation = null;
+                            escalate();
+                        }
+                    }, gpsDelay);
+                }
+
                 // sendStatus("started", null);
 
-                sendLocation(bestLocation);
+                sendLocation(knownLocation);
+
+                // The file of the cache is read in the background on its first access
+                lastFixCache.addLoadListener(new LastFixCache.LoadListener() {
+                    @Override
+                    public void onLoaded(List<Location> locations) {
+                        for (Location location : locations) {
+                            if (listening && HeuristicFusion.isBetterLocation(location, fusion.getBestLocation())) {
+                                sendLocation(location);
+                            }
+                        }
+                    }
+                });
             }
             else {
                 requestLocationPermission(getFragment().getActivity());
@@ -271,9 +959,17 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
         }
 
         public void stop() {
+            clearTimeout();
+
+            if (escalation != null) {
+                escalation.cancel();
+                escalation = null;
+            }
+
             if (listening) {
-                clearTimeout();
-                locationManager.removeUpdates(this);
+                multiplexer.unsubscribeAll(this);
+                flushBatch();
+                recordRequest();
 
                 // sendStatus("stopped", null);
 
@@ -283,17 +979,107 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
             LocationPlugin.this.removeListeningFragment(this);
         }
 
+        private void subscribe(String provider) {
+            long providerInterval = sendAllUpdates ? interval : INTERVAL_DEFAULT_VALUE;
+            if (motionDetector != null && motionDetector.isStationary()) {
+                providerInterval = Math.max(providerInterval, STATIONARY_INTERVAL);
+            }
+
+            multiplexer.subscribe(this, provider, providerInterval);
+
+            if (LocationManager.GPS_PROVIDER.equals(provider) && gpsOnTime < 0) {
+                gpsOnTime = SystemClock.elapsedRealtime();
+            }
+        }
+
+        private void unsubscribe(String provider) {
+            multiplexer.unsubscribe(this, provider);
+
+            if (LocationManager.GPS_PROVIDER.equals(provider) && gpsOnTime >= 0) {
+                gpsOnDuration += SystemClock.elapsedRealtime() - gpsOnTime;
+                gpsOnTime = -1;
+            }
+        }
+
+        /**
+         * Slows the providers down and releases GPS while stationary, restores them once moving
+         */
+        private void onMotionChanged(boolean stationary) {
+            if (stationary) {
+                gpsReleased = multiplexer.isSubscribed(this, LocationManager.GPS_PROVIDER);
+                if (gpsReleased) {
+                    unsubscribe(LocationManager.GPS_PROVIDER);
+                }
+            }
+
+            for (String provider : providers) {
+                if (multiplexer.isSubscribed(this, provider)
+                    || (!stationary && gpsReleased && LocationManager.GPS_PROVIDER.equals(provider))) {
+                    subscribe(provider);
+                }
+            }
+
+            if (!stationary) {
+                gpsReleased = false;
+            }
+
+            if (Cobalt.DEBUG) {
+                Log.d(TAG, "onMotionChanged: " + (stationary ? STATUS_STATIONARY : STATUS_MOVING));
+            }
+
+            sendStatus(stationary ? STATUS_STATIONARY : STATUS_MOVING, fusion.getBestLocation());
+        }
+
+        /**
+         * Turns GPS on if the coarse providers did not fulfill the requirements within gpsDelay,
+         * or once moving again when stationary
+         */
+        private void escalate() {
+            if (listening
+                && providers.contains(LocationManager.GPS_PROVIDER)
+                && !locationFulfillsRequirements(fusion.getBestLocation())) {
+                if (motionDetector != null && motionDetector.isStationary()) {
+                    // Started once moving again, as GPS released while stationary
+                    gpsReleased = true;
+                    return;
+                }
+
+                if (Cobalt.DEBUG) {
+                    Log.d(TAG, "escalate: requirements not met after " + gpsDelay + " ms, starting GPS");
+                }
+
+                subscribe(LocationManager.GPS_PROVIDER);
+            }
+        }
+
+        private void recordRequest() {
+            if (startTime < 0) {
+                return;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            if (gpsOnTime >= 0) {
+                gpsOnDuration += now - gpsOnTime;
+                gpsOnTime = -1;
+            }
+
+            long timeToFix = firstFixTime >= 0 ? firstFixTime - startTime : -1;
+            metrics.recordRequest(timeToFix, gpsOnDuration);
+
+            if (Cobalt.DEBUG) {
+                Log.d(TAG, "request: time to fix " + timeToFix + " ms, GPS on " + gpsOnDuration + " ms");
+            }
+        }
+
         private void clearTimeout() {
-            if (timer != null) {
-                timer.cancel();
-                timer = null;
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
             }
         }
 
         private boolean locationFulfillsRequirements(Location location) {
-            return location != null
-                    && location.getAccuracy() < accuracy
-                    && location.getTime() >= (new Date().getTime() - maxAge);
+            return LocationPlugin.locationFulfillsRequirements(location, accuracy, maxAge);
         }
 
         public void sendLocation(Location location) {
@@ -304,22 +1090,87 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
                     boolean sendLocation = false;
                     boolean stopUpdates = false;
 
-                    if (isBetterLocation(location, bestLocation)) {
-                        bestLocation = location;
+                    // Only provider fixes are cached, the fused ones are not reported by any provider
+                    lastFixCache.put(location);
+
+                    Location previousBestLocation = fusion.getBestLocation();
+                    Location fusedLocation = fusion.add(location);
+
+                    if (kalmanFilter != null) {
+                        kalmanFilter.update(location.getLatitude(), location.getLongitude(),
+                                            location.getAccuracy(), location.getTime());
+                    }
+
+                    // The known fix sent at start may be minutes old, it would make the first fresh fix look stationary
+                    if (motionDetector != null && listening && location.getTime() >= sessionStartTime) {
+                        switch (motionDetector.update(location.getLatitude(), location.getLongitude(),
+                                                      location.getAccuracy(), location.getTime())) {
+                            case MotionDetector.BECAME_STATIONARY:
+                                onMotionChanged(true);
+                                break;
+                            case MotionDetector.BECAME_MOVING:
+                                onMotionChanged(false);
+                                break;
+                        }
+                    }
+
+                    // Nothing new to evaluate when the fusion ignored the fix
+                    if (fusedLocation == null
+                        || (fusedLocation != location && fusedLocation == previousBestLocation)) {
+                        metrics.recordIgnored();
+                        return;
                     }
+                    location = fusedLocation;
 
                     if (locationFulfillsRequirements(location)) {
+                        // Not started when a known fix already fulfilled the request
+                        if (startTime >= 0) {
+                            metrics.recordTimeToAccuracy(SystemClock.elapsedRealtime() - startTime);
+                        }
                         sendLocation = true;
                         stopUpdates = true;
                     }
-                    else if (sendAllUpdates && System.currentTimeMillis() >= (lastSentLocationTimestamp + interval)) {
-                        lastSentLocationTimestamp = System.currentTimeMillis();
+                    else if (sendAllUpdates) {
+                        if (System.currentTimeMillis() < (lastSentLocationTimestamp + interval)) {
+                            metrics.recordThrottled();
+                        }
+                        else if (hasChangedEnough(location)) {
+                            lastSentLocationTimestamp = System.currentTimeMillis();
 
-                        sendLocation = true;
+                            sendLocation = true;
+                        }
+                        else {
+                            metrics.recordSuppressed();
+                        }
                     }
 
                     if (sendLocation) {
-                        fragment.sendMessage(buildLocationMessage(location));
+                        metrics.recordForwarded();
+
+                        hasLastSentLocation = true;
+                        lastSentLatitude = location.getLatitude();
+                        lastSentLongitude = location.getLongitude();
+                        lastSentAccuracy = location.getAccuracy();
+
+                        if (compactEncoder != null && !isPaused(fragment)) {
+                            addToCompactBatch(location);
+                            addAddress(location, null);
+                        }
+                        else {
+                            JSONObject locationData = encodeLocationData(location);
+                            addAddress(location, locationData);
+                            if (batch != null && !isPaused(fragment)) {
+                                addToBatch(locationData);
+                            }
+                            else {
+                                flushBatch();
+                                if (compactEncoder != null) {
+                                    // The queued fix is sent as JSON, so the next compact payload restarts from zero
+                                    compactEncoder.reset();
+                                }
+                                deliverLocation(fragment, locationData);
+                            }
+                        }
                     }
 
                     if (stopUpdates) {
@@ -332,50 +1183,197 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
             }
         }
 
-        public void sendStatus(String status, Location bestLocation) {
-            CobaltFragment fragment = getFragment();
+        /*******************************************************************************************
+         *
+         * BATCH
+         *
+         ******************************************************************************************/
 
-            if (fragment != null) {
-                fragment.sendMessage(buildStatusMessage(status, bestLocation));
+        private final Runnable flushBatchRunnable = new Runnable() {
+            @Override
+            public void run() {
+                flushBatch();
             }
-            else {
-                stop();
+        };
+
+        private void addToBatch(JSONObject locationData) {
+            batch.add(locationData);
+
+            if (batch.size() >= batchMaxSize) {
+                flushBatch();
+            }
+            else if (batch.size() == 1) {
+                // The delay is bounded by the first fix of the batch
+                processingHandler.postDelayed(flushBatchRunnable, batchMaxDelay);
             }
         }
 
         /*******************************************************************************************
          *
-         * CALLBACKS
+         * ADDRESS
          *
          ******************************************************************************************/
 
-        @Override
-        public void onLocationChanged(Location location) {
-            if (listening) {
-                this.sendLocation(location);
+        /**
+         * Adds the cached address of the fix to its fields. Otherwise, or in compact format, looks
+         * the address up and sends it separately, once per cell.
+         * @param locationData the fields of the fix, or null in compact format
+         */
+        private void addAddress(final Location location, @Nullable JSONObject locationData) {
+            if (geocodingCache == null) {
+                return;
             }
-        }
-
-        @Override
-        public void onStatusChanged(String provider, int status, Bundle bundle) {
-            switch (status) {
-                case LocationProvider.AVAILABLE:
-                    onProviderEnabled(provider);
-                    break;
 
-                case LocationProvider.OUT_OF_SERVICE:
-                    onProviderDisabled(provider);
-                    break;
+            String cell = geocodingCache.getCell(location.getLatitude(), location.getLongitude());
+            if (locationData != null && geocodingCache.isCached(cell)) {
+                GeocodedAddress address = geocodingCache.getCached(cell);
+                if (address != null) {
+                    try {
+                        locationData.put(kJSAddress, LocationMessageEncoder.putAddress(new JSONObject(), address));
+                    }
+                    catch (JSONException e) {
+                        e.printStackTrace();
+                    }
+                }
+                lastAddressCell = cell;
+                return;
+            }
 
-                // TODO: How to handle this case?
-                // case LocationProvider.TEMPORARILY_UNAVAILABLE:
+            if (cell.equals(lastAddressCell)) {
+                return;
             }
+            lastAddressCell = cell;
+
+            geocodingCache.lookup(cell, location.getLatitude(), location.getLongitude(), new ReverseGeocodingCache.Callback() {
+                @Override
+                public void onAddress(GeocodedAddress address) {
+                    CobaltFragment fragment = getFragment();
+                    if (fragment != null && listening) {
+                        deliver(fragment, LocationMessageEncoder.encodeReverseGeocoded(location.getLatitude(), location.getLongitude(), address));
+                    }
+                }
+            });
         }
 
-        @Override
-        public void onProviderEnabled(String provider) {
-            if (!providers.contains(provider)) {
-                providers.add(provider);
+        /**
+         * Compact fixes are only encoded while the fragment is resumed: the payloads chain together,
+         * so they must not go through the delivery queue which may drop fixes.
+         */
+        private void addToCompactBatch(Location location) {
+            long start = System.nanoTime();
+            compactEncoder.add(location.getLatitude(), location.getLongitude(), location.getAccuracy(), location.getTime());
+            metrics.recordEncode(System.nanoTime() - start);
+
+            int count = compactEncoder.getPendingCount();
+            if (count >= batchMaxSize) {
+                flushBatch();
+            }
+            else if (count == 1) {
+                processingHandler.postDelayed(flushBatchRunnable, batchMaxDelay);
+            }
+        }
+
+        private void flushBatch() {
+            processingHandler.removeCallbacks(flushBatchRunnable);
+
+            if (compactEncoder != null && compactEncoder.getPendingCount() > 0) {
+                CobaltFragment fragment = getFragment();
+                int count = compactEncoder.getPendingCount();
+                String payload = compactEncoder.takePayload();
+                if (fragment != null) {
+                    if (isPaused(fragment)) {
+                        // Paused since the payload was started: it is queued as a message which may
+                        // be dropped, so the next payload must not depend on it
+                        compactEncoder.reset();
+                    }
+                    deliver(fragment, LocationMessageEncoder.encodeCompactLocations(payload, count));
+                }
+            }
+
+            if (batch == null) {
+                return;
+            }
+
+            if (batch.size() > 0) {
+                CobaltFragment fragment = getFragment();
+                if (fragment != null) {
+                    if (isPaused(fragment)) {
+                        for (JSONObject locationData : batch) {
+                            deliverLocation(fragment, locationData);
+                        }
+                    }
+                    else {
+                        long start = System.nanoTime();
+                        JSONObject message = LocationMessageEncoder.encodeLocations(batch);
+                        metrics.recordEncode(System.nanoTime() - start);
+                        deliver(fragment, message);
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        /**
+         * Checks the fix against the last sent one. With neither distance nor minAccuracyChange set,
+         * every fix has changed enough. Otherwise, it must have moved by distance or its accuracy
+         * must have changed by minAccuracyChange.
+         */
+        private boolean hasChangedEnough(Location location) {
+            if (!hasLastSentLocation || (distance <= 0 && minAccuracyChange <= 0)) {
+                return true;
+            }
+
+            if (distance > 0) {
+                // The equirectangular approximation drifts beyond its range, where haversine takes over
+                double displacement = distance <= GeoMath.FAST_DISTANCE_RANGE
+                                      ? GeoMath.fastDistance(lastSentLatitude, lastSentLongitude,
+                                                             location.getLatitude(), location.getLongitude())
+                                      : GeoMath.distance(lastSentLatitude, lastSentLongitude,
+                                                         location.getLatitude(), location.getLongitude());
+                if (displacement >= distance) {
+                    return true;
+                }
+            }
+
+            return minAccuracyChange > 0
+                   && Math.abs(location.getAccuracy() - lastSentAccuracy) >= minAccuracyChange;
+        }
+
+        public void sendStatus(String status, Location bestLocation) {
+            // The fixes received before the status go first
+            flushBatch();
+
+            CobaltFragment fragment = getFragment();
+
+            if (fragment != null) {
+                deliver(fragment, LocationMessageEncoder.encodeStatus(status, bestLocation), !isTerminalStatus(status));
+            }
+            else {
+                stop();
+            }
+        }
+
+        /*******************************************************************************************
+         *
+         * CALLBACKS
+         *
+         ******************************************************************************************/
+
+        @Override
+        public void onLocationChanged(Location location) {
+            if (listening) {
+                if (firstFixTime < 0) {
+                    firstFixTime = SystemClock.elapsedRealtime();
+                }
+
+                this.sendLocation(location);
+            }
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+            if (!providers.contains(provider)) {
+                providers.add(provider);
             }
         }
 
@@ -396,13 +1394,14 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
 
         private final int LOCATION_PERMISSION_REQUEST = this.hashCode();
 
-        private boolean checkLocationPermission(Context context) {
-            return ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
-        }
-
-        private void requestLocationPermission(Activity activity) {
+        private void requestLocationPermission(final Activity activity) {
             if (ActivityCompat.shouldShowRequestPermissionRationale(activity, Manifest.permission.ACCESS_FINE_LOCATION)) {
-                ActivityCompat.requestPermissions(activity, new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, LOCATION_PERMISSION_REQUEST);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ActivityCompat.requestPermissions(activity, new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, LOCATION_PERMISSION_REQUEST);
+                    }
+                });
             }
             else {
                 sendStatus(STATUS_REFUSED, null);
@@ -417,14 +1416,19 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
             }
         }
 
-        private void onRequestLocationPermissionResult(boolean granted) {
-            if (granted) {
-                start();
-            }
-            else {
-                sendStatus(STATUS_REFUSED, null);
-                stop();
-            }
+        private void onRequestLocationPermissionResult(final boolean granted) {
+            runOnProcessingThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (granted) {
+                        start();
+                    }
+                    else {
+                        sendStatus(STATUS_REFUSED, null);
+                        stop();
+                    }
+                }
+            });
         }
 
         /*******************************************************************************************
@@ -437,121 +1441,598 @@ public final class LocationPlugin extends CobaltAbstractPlugin {
             return fragmentReference.get();
         }
 
-        private JSONObject buildLocationMessage(Location location) {
-            try {
-                JSONObject data = new JSONObject();
-                data.put(kJSLatitude, location.getLatitude());
-                data.put(kJSLongitude, location.getLongitude());
-                data.put(kJSAccuracy, location.getAccuracy());
-                data.put(kJSTimestamp, location.getTime());
+        private JSONObject encodeLocationData(Location location) {
+            long start = System.nanoTime();
+            JSONObject locationData = LocationMessageEncoder.encodeLocationData(location);
 
-                JSONObject message = new JSONObject();
-                message.put(Cobalt.kJSType, Cobalt.JSTypePlugin);
-                message.put(Cobalt.kJSPluginName, "CobaltLocationPlugin");
-                message.put(Cobalt.kJSAction, JSActionOnLocationChanged);
-                message.put(Cobalt.kJSData, data);
+            if (locationData != null && kalmanFilter != null && kalmanFilter.isInitialized()) {
+                try {
+                    LocationMessageEncoder.putSmoothing(locationData, kalmanFilter);
+                }
+                catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            }
 
-                return message;
+            metrics.recordEncode(System.nanoTime() - start);
+            return locationData;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * SHARED ACQUISITION
+     *
+     **********************************************************************************************/
+
+    /**
+     * Single acquisition shared by all pending getCurrentPosition requests.
+     * Every fix is checked against the requirements of each waiter, which is answered as soon as
+     * its own requirements are met. Providers are released when no waiter is left.
+     */
+    private class PositionAcquisition implements ProviderMultiplexer.Subscriber {
+
+        private final List<PositionWaiter> waiters = new ArrayList<>();
+        private final List<String> providers = new ArrayList<>();
+        private ProviderMultiplexer multiplexer;
+        private LastFixCache lastFixCache;
+        private Location bestLocation;
+        private boolean acquiring = false;
+
+        void request(CobaltFragment fragment, float accuracy, long maxAge, long timeout) {
+            Context applicationContext = fragment.getActivity().getApplicationContext();
+            multiplexer = getMultiplexer(applicationContext);
+            lastFixCache = getLastFixCache(applicationContext);
+
+            if (!checkLocationPermission(applicationContext)) {
+                deliver(fragment, LocationMessageEncoder.encodeStatus(STATUS_REFUSED, null), false);
+                return;
             }
-            catch (JSONException e) {
-                e.printStackTrace();
 
-                return null;
+            if (!acquiring) {
+                for (Location location : lastFixCache.getLocations()) {
+                    if (HeuristicFusion.isBetterLocation(location, bestLocation)) {
+                        bestLocation = location;
+                    }
+                }
+                for (String provider : ALL_PROVIDERS) {
+                    if (multiplexer.isProviderEnabled(provider)) {
+                        Location location = multiplexer.getLastKnownLocation(provider);
+                        if (location != null && HeuristicFusion.isBetterLocation(location, bestLocation)) {
+                            bestLocation = location;
+                        }
+                    }
+                }
+
+                // The file of the cache is read in the background on its first access
+                lastFixCache.addLoadListener(new LastFixCache.LoadListener() {
+                    @Override
+                    public void onLoaded(List<Location> locations) {
+                        for (Location location : locations) {
+                            onLocationChanged(location);
+                        }
+                    }
+                });
             }
-        }
 
-        private JSONObject buildStatusMessage(String status, Location bestLocation) {
-            try {
-                JSONObject data = new JSONObject();
-                data.put(kJSStatus, status);
+            if (locationFulfillsRequirements(bestLocation, accuracy, maxAge)) {
+                deliver(fragment, LocationMessageEncoder.encodeLocation(bestLocation), false);
+                return;
+            }
+
+            final PositionWaiter waiter = new PositionWaiter(fragment, accuracy, maxAge);
+            waiters.add(waiter);
 
-                if (bestLocation != null) {
-                    JSONObject location = new JSONObject();
-                    location.put(kJSLatitude, bestLocation.getLatitude());
-                    location.put(kJSLongitude, bestLocation.getLongitude());
-                    location.put(kJSAccuracy, bestLocation.getAccuracy());
-                    location.put(kJSTimestamp, bestLocation.getTime());
-                    data.put(kJSLocation, location);
+            if (timeout > 0) {
+                waiter.timeout = timeoutScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        waiter.timeout = null;
+                        complete(waiter, LocationMessageEncoder.encodeStatus(STATUS_TIMEOUT, bestLocation));
+                    }
+                }, timeout);
+            }
+
+            if (!acquiring) {
+                start();
+            }
+        }
+
+        private void start() {
+            providers.clear();
+            for (String provider : ALL_PROVIDERS) {
+                if (multiplexer.isProviderEnabled(provider)) {
+                    providers.add(provider);
+                    multiplexer.subscribe(this, provider, INTERVAL_DEFAULT_VALUE);
                 }
+            }
 
-                JSONObject message = new JSONObject();
-                message.put(Cobalt.kJSType, Cobalt.JSTypePlugin);
-                message.put(Cobalt.kJSPluginName, "CobaltLocationPlugin");
-                message.put(Cobalt.kJSAction, JSActionOnStatusChanged);
-                message.put(Cobalt.kJSData, data);
+            acquiring = true;
 
-                return message;
+            if (providers.isEmpty()) {
+                completeAll(LocationMessageEncoder.encodeStatus(STATUS_DISABLED, bestLocation));
             }
-            catch (JSONException e) {
-                e.printStackTrace();
+        }
 
-                return null;
+        private void stop() {
+            if (acquiring) {
+                multiplexer.unsubscribeAll(this);
+                acquiring = false;
             }
         }
 
+        private void complete(PositionWaiter waiter, JSONObject message) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+
+            if (waiter.timeout != null) {
+                waiter.timeout.cancel();
+                waiter.timeout = null;
+            }
+
+            CobaltFragment fragment = waiter.fragmentReference.get();
+            if (fragment != null) {
+                deliver(fragment, message, false);
+            }
+
+            if (waiters.isEmpty()) {
+                stop();
+            }
+        }
+
+        private void completeAll(JSONObject message) {
+            for (PositionWaiter waiter : new ArrayList<>(waiters)) {
+                complete(waiter, message);
+            }
+        }
+
+        /*******************************************************************************************
+         *
+         * CALLBACKS
+         *
+         ******************************************************************************************/
+
         @Override
-        public boolean equals(Object o) {
-            return (o instanceof LocationListener)
-                    && ((LocationListener) o).getFragment() != null
-                    && ((LocationListener) o).getFragment() == getFragment();
+        public void onLocationChanged(Location location) {
+            if (!acquiring) {
+                return;
+            }
+
+            if (HeuristicFusion.isBetterLocation(location, bestLocation)) {
+                bestLocation = location;
+                lastFixCache.put(location);
+            }
+
+            JSONObject message = null;
+            for (int i = waiters.size() - 1; i >= 0; i--) {
+                PositionWaiter waiter = waiters.get(i);
+                if (waiter.fragmentReference.get() == null) {
+                    complete(waiter, null);
+                }
+                else if (locationFulfillsRequirements(location, waiter.accuracy, waiter.maxAge)) {
+                    if (message == null) {
+                        message = LocationMessageEncoder.encodeLocation(location);
+                    }
+                    complete(waiter, message);
+                }
+            }
         }
 
-        /** Determines whether one Location reading is better than the current Location fix
-         * @param location  The new Location that you want to evaluate
-         * @param currentBestLocation  The current Location fix, to which you want to compare the new one
+        @Override
+        public void onProviderEnabled(String provider) {
+            if (!providers.contains(provider)) {
+                providers.add(provider);
+            }
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+            providers.remove(provider);
+
+            if (providers.size() <= 0) {
+                completeAll(LocationMessageEncoder.encodeStatus(STATUS_DISABLED, bestLocation));
+            }
+        }
+    }
+
+    private static final class PositionWaiter {
+        private final WeakReference<CobaltFragment> fragmentReference;
+        private final float accuracy;
+        private final long maxAge;
+        private TimeoutScheduler.Timeout timeout;
+
+        PositionWaiter(CobaltFragment fragment, float accuracy, long maxAge) {
+            fragmentReference = new WeakReference<>(fragment);
+            this.accuracy = accuracy;
+            this.maxAge = maxAge;
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * TRACK RECORDING
+     *
+     **********************************************************************************************/
+
+    /**
+     * Records every fix received from the providers into the track file, independently of the
+     * listeners of the fragments
+     */
+    private class TrackRecording implements ProviderMultiplexer.Subscriber {
+
+        private TrackRecorder recorder;
+        private File file;
+        private ProviderMultiplexer multiplexer;
+        private long interval;
+        private boolean recording = false;
+
+        void start(CobaltFragment fragment, long interval, int capacity) {
+            Context applicationContext = fragment.getActivity().getApplicationContext();
+
+            if (!checkLocationPermission(applicationContext)) {
+                deliver(fragment, LocationMessageEncoder.encodeStatus(STATUS_REFUSED, null), false);
+                return;
+            }
+
+            if (!open(applicationContext, capacity)) {
+                return;
+            }
+
+            this.interval = interval;
+            multiplexer = getMultiplexer(applicationContext);
+            for (String provider : ALL_PROVIDERS) {
+                if (multiplexer.isProviderEnabled(provider)) {
+                    multiplexer.subscribe(this, provider, interval);
+                }
+            }
+
+            recording = true;
+        }
+
+        void stop() {
+            if (recording) {
+                multiplexer.unsubscribeAll(this);
+                recorder.flush();
+                recording = false;
+            }
+        }
+
+        void read(CobaltFragment fragment, long from, long to, int limit) {
+            if (!openExisting(fragment)) {
+                return;
+            }
+
+            long fromIndex = recorder.lowerBound(from);
+            long toIndex = upperIndex(to);
+            if (limit > 0 && toIndex - fromIndex > limit) {
+                toIndex = fromIndex + limit;
+            }
+
+            deliver(fragment, LocationMessageEncoder.encodeTrack(recorder, fromIndex, toIndex));
+        }
+
+        /**
+         * Sends the simplified track of the given time range as an encoded polyline
+         * @param tolerance the maximum deviation of a dropped point, in meters
+         * @param precision the number of decimals kept in the polyline
          */
-        private boolean isBetterLocation(Location location, Location currentBestLocation) {
-            if (currentBestLocation == null) {
-                // A new location is always better than no location
-                return true;
+        void export(CobaltFragment fragment, long from, long to, double tolerance, int precision) {
+            if (!openExisting(fragment)) {
+                return;
+            }
+
+            long fromIndex = recorder.lowerBound(from);
+            long toIndex = upperIndex(to);
+
+            PolylineEncoder polyline = new PolylineEncoder(precision);
+            TrackSimplifier simplifier = new TrackSimplifier(tolerance, TrackSimplifier.DEFAULT_WINDOW, polyline);
+            for (long index = fromIndex; index < toIndex; index++) {
+                simplifier.add(recorder.getLatitude(index), recorder.getLongitude(index));
             }
+            simplifier.finish();
 
-            // Check whether the new location fix is newer or older
-            long timeDelta = location.getTime() - currentBestLocation.getTime();
-            boolean isSignificantlyNewer = timeDelta > 120000;
-            boolean isSignificantlyOlder = timeDelta < -120000;
-            boolean isNewer = timeDelta > 0;
+            deliver(fragment, LocationMessageEncoder.encodeTrackExport(polyline, precision, toIndex - fromIndex));
+        }
 
-            // If it's been more than two minutes since the current location, use the new location
-            // because the user has likely moved
-            if (isSignificantlyNewer) {
+        private boolean openExisting(CobaltFragment fragment) {
+            if (recorder != null) {
                 return true;
-                // If the new location is more than two minutes older, it must be worse
-            } else if (isSignificantlyOlder) {
-                return false;
             }
 
-            // Check whether the new location fix is more or less accurate
-            int accuracyDelta = (int) (location.getAccuracy() - currentBestLocation.getAccuracy());
-            boolean isLessAccurate = accuracyDelta > 0;
-            boolean isMoreAccurate = accuracyDelta < 0;
-            boolean isSignificantlyLessAccurate = accuracyDelta > 200;
+            Context applicationContext = fragment.getActivity().getApplicationContext();
+            return open(applicationContext, TrackRecorder.readCapacity(getFile(applicationContext), RECORDING_CAPACITY_DEFAULT_VALUE));
+        }
 
-            // Check if the old and new location are from the same provider
-            boolean isFromSameProvider = isSameProvider(location.getProvider(),
-                    currentBestLocation.getProvider());
+        /**
+         * @return the index after the last record with a time lower than or equal to the given time
+         */
+        private long upperIndex(long to) {
+            return to == Long.MAX_VALUE ? recorder.endIndex() : recorder.lowerBound(to + 1);
+        }
 
-            // Determine location quality using a combination of timeliness and accuracy
-            if (isMoreAccurate) {
-                return true;
-            } else if (isNewer && !isLessAccurate) {
+        private File getFile(Context context) {
+            if (file == null) {
+                file = new File(context.getFilesDir(), TRACK_FILE_NAME);
+            }
+            return file;
+        }
+
+        /**
+         * Opens the track file with the given capacity, reopening it if its capacity changed
+         */
+        private boolean open(Context context, int capacity) {
+            if (recorder != null && recorder.capacity() == capacity) {
                 return true;
-            } else if (isNewer && !isSignificantlyLessAccurate && isFromSameProvider) {
+            }
+
+            if (recorder != null) {
+                recorder.close();
+                recorder = null;
+            }
+
+            try {
+                recorder = new TrackRecorder(getFile(context), capacity);
                 return true;
             }
+            catch (IOException e) {
+                Log.e(TAG, "open: unable to open track file " + file, e);
+                return false;
+            }
+        }
+
+        /*******************************************************************************************
+         *
+         * CALLBACKS
+         *
+         ******************************************************************************************/
+
+        @Override
+        public void onLocationChanged(Location location) {
+            if (recording) {
+                recorder.append(location.getLatitude(), location.getLongitude(), location.getAccuracy(),
+                                location.getTime(), TrackRecorder.getProviderId(location.getProvider()));
+            }
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+            if (recording) {
+                multiplexer.subscribe(this, provider, interval);
+            }
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * REVERSE GEOCODING
+     *
+     **********************************************************************************************/
+
+    /**
+     * Sends the address at the given coordinates to the fragment, from the cache if possible
+     */
+    private void reverseGeocode(CobaltFragment fragment, final double latitude, final double longitude) {
+        final WeakReference<CobaltFragment> fragmentReference = new WeakReference<>(fragment);
+        ReverseGeocodingCache cache = getGeocodingCache(fragment.getActivity().getApplicationContext());
+        cache.lookup(cache.getCell(latitude, longitude), latitude, longitude, new ReverseGeocodingCache.Callback() {
+            @Override
+            public void onAddress(GeocodedAddress address) {
+                CobaltFragment fragment = fragmentReference.get();
+                if (fragment != null) {
+                    deliver(fragment, LocationMessageEncoder.encodeReverseGeocoded(latitude, longitude, address));
+                }
+            }
+        });
+    }
+
+    /***********************************************************************************************
+     *
+     * GEOFENCES
+     *
+     **********************************************************************************************/
+
+    private void addGeofences(CobaltFragment fragment, @Nullable JSONArray geofences, long interval) {
+        if (!checkLocationPermission(fragment.getActivity().getApplicationContext())) {
+            deliver(fragment, LocationMessageEncoder.encodeStatus(STATUS_REFUSED, null), false);
+            return;
+        }
+
+        GeofenceMonitor monitor = geofenceMonitors.get(fragment);
+        if (monitor == null) {
+            monitor = new GeofenceMonitor(fragment);
+            geofenceMonitors.put(fragment, monitor);
+        }
+
+        if (geofences != null) {
+            StringBuilder invalidIndexes = null;
+            for (int i = 0, length = geofences.length(); i < length; i++) {
+                JSONObject geofence = geofences.optJSONObject(i);
+                if (isValidGeofence(geofence)) {
+                    monitor.engine.add(geofence.optString(kJSId),
+                                       geofence.optDouble(kJSLatitude),
+                                       geofence.optDouble(kJSLongitude),
+                                       (float) geofence.optDouble(kJSRadius),
+                                       geofence.optLong(kJSDwell, 0));
+                }
+                else {
+                    invalidIndexes = invalidIndexes == null ? new StringBuilder() : invalidIndexes.append(", ");
+                    invalidIndexes.append(i);
+                }
+            }
+
+            if (invalidIndexes != null) {
+                deliver(fragment, LocationMessageEncoder.encodeError(JSActionAddGeofences, "invalid geofences at indexes " + invalidIndexes), false);
+            }
+        }
 
+        monitor.start(interval);
+    }
+
+    /**
+     * @return true if the geofence has a string id, valid coordinates, a finite positive radius
+     * and no negative dwell delay
+     */
+    private static boolean isValidGeofence(@Nullable JSONObject geofence) {
+        if (geofence == null || !(geofence.opt(kJSId) instanceof String)) {
             return false;
         }
 
+        double radius = geofence.optDouble(kJSRadius, Double.NaN);
+        return isValidCoordinate(geofence.optDouble(kJSLatitude, Double.NaN), geofence.optDouble(kJSLongitude, Double.NaN))
+               && radius > 0 && radius <= Float.MAX_VALUE
+               && geofence.optLong(kJSDwell, 0) >= 0;
+    }
+
+    /**
+     * @param ids the ids of the geofences to remove, or null to remove them all
+     */
+    private void removeGeofences(CobaltFragment fragment, @Nullable JSONArray ids) {
+        GeofenceMonitor monitor = geofenceMonitors.get(fragment);
+        if (monitor == null) {
+            return;
+        }
+
+        if (ids != null) {
+            for (int i = 0, length = ids.length(); i < length; i++) {
+                monitor.engine.remove(ids.optString(i));
+            }
+        }
+
+        if (ids == null || monitor.engine.size() == 0) {
+            monitor.stop();
+        }
+    }
+
+    /**
+     * Evaluates the geofences of a fragment against the fixes of all providers and sends it only
+     * the transitions
+     */
+    private class GeofenceMonitor implements ProviderMultiplexer.Subscriber, GeofenceEngine.Sink {
+
+        private final WeakReference<CobaltFragment> fragmentReference;
+        private final GeofenceEngine engine = new GeofenceEngine(GeofenceEngine.DEFAULT_CELL_SIZE);
+        private final LocationFusion fusion = createFusion(null);
+        private final ProviderMultiplexer multiplexer;
+        private long interval;
+        private JSONArray transitions;
+
+        GeofenceMonitor(CobaltFragment fragment) {
+            fragmentReference = new WeakReference<>(fragment);
+            multiplexer = getMultiplexer(fragment.getActivity().getApplicationContext());
+        }
+
         /**
-         * Checks whether two providers are the same
-         * */
-        private boolean isSameProvider(String provider1, String provider2) {
-            if (provider1 == null) {
-                return provider2 == null;
+         * Subscribes to the enabled providers, or updates the interval of the subscriptions
+         */
+        void start(long interval) {
+            this.interval = interval;
+
+            for (String provider : ALL_PROVIDERS) {
+                if (multiplexer.isProviderEnabled(provider)) {
+                    multiplexer.subscribe(this, provider, interval);
+                }
             }
+        }
 
-            return provider1.equals(provider2);
+        void stop() {
+            multiplexer.unsubscribeAll(this);
+            geofenceMonitors.remove(fragmentReference.get(), this);
         }
+
+        /*******************************************************************************************
+         *
+         * CALLBACKS
+         *
+         ******************************************************************************************/
+
+        @Override
+        public void onLocationChanged(Location location) {
+            CobaltFragment fragment = fragmentReference.get();
+            if (fragment == null) {
+                stop();
+                return;
+            }
+
+            Location previousBestLocation = fusion.getBestLocation();
+            Location fusedLocation = fusion.add(location);
+            if (fusedLocation == null
+                || (fusedLocation != location && fusedLocation == previousBestLocation)) {
+                return;
+            }
+
+            engine.evaluate(fusedLocation.getLatitude(), fusedLocation.getLongitude(), fusedLocation.getTime(), this);
+
+            if (transitions != null) {
+                deliver(fragment, LocationMessageEncoder.encodeGeofenceTransitions(transitions, fusedLocation), false);
+                transitions = null;
+            }
+        }
+
+        @Override
+        public void onTransition(String id, int transition) {
+            try {
+                JSONObject data = new JSONObject();
+                data.put(kJSId, id);
+                switch (transition) {
+                    case GeofenceEngine.TRANSITION_ENTER:
+                        data.put(kJSTransition, TRANSITION_ENTER);
+                        break;
+                    case GeofenceEngine.TRANSITION_EXIT:
+                        data.put(kJSTransition, TRANSITION_EXIT);
+                        break;
+                    case GeofenceEngine.TRANSITION_DWELL:
+                        data.put(kJSTransition, TRANSITION_DWELL);
+                        break;
+                }
+
+                if (transitions == null) {
+                    transitions = new JSONArray();
+                }
+                transitions.put(data);
+            }
+            catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+            multiplexer.subscribe(this, provider, interval);
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private static boolean checkLocationPermission(Context context) {
+        return ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * @return true if the latitude is within [-90, 90] and the longitude within [-180, 180]
+     */
+    private static boolean isValidCoordinate(double latitude, double longitude) {
+        return latitude >= -90 && latitude <= 90
+               && longitude >= -180 && longitude <= 180;
+    }
+
+    static boolean locationFulfillsRequirements(Location location, float accuracy, long maxAge) {
+        return location != null
+                && location.getAccuracy() < accuracy
+                && location.getTime() >= (System.currentTimeMillis() - maxAge);
     }
 }
@@ -0,0 +1,60 @@
+/**
+ *
+ * LocationSource
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Looper;
+
+/**
+ * Origin of the fixes and provider states used by the plugin. The default source is the system
+ * LocationManager; another one, such as a ReplayLocationSource, may be set with
+ * LocationPlugin.setLocationSource.
+ */
+public interface LocationSource {
+
+    /**
+     * Registers the listener for the fixes of the given provider, replacing any previous
+     * registration of the same listener
+     * @param interval the minimum time between fixes, in milliseconds
+     * @param looper the looper on which the listener is called
+     */
+    void requestUpdates(String provider, long interval, LocationListener listener, Looper looper);
+
+    void removeUpdates(LocationListener listener);
+
+    /**
+     * @return the last fix of the given provider, or null if none
+     */
+    Location getLastKnownLocation(String provider);
+
+    boolean isProviderEnabled(String provider);
+}
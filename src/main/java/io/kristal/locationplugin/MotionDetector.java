@@ -0,0 +1,124 @@
+/**
+ *
+ * MotionDetector
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+/**
+ * Detects from the fix stream alone whether the device is stationary.
+ * Fixes are compared to an anchor fix: the device is moving as soon as a fix is farther from the
+ * anchor than the noise floor given by both accuracy radii, i.e. its speed since the anchor
+ * exceeds what the accuracy can explain. It becomes stationary once no fix left the noise floor
+ * for the stationary delay.
+ */
+final class MotionDetector {
+
+    static final int NO_CHANGE = 0;
+    static final int BECAME_STATIONARY = 1;
+    static final int BECAME_MOVING = 2;
+
+    private final long stationaryDelay;
+
+    private boolean hasAnchor = false;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private float anchorAccuracy;
+    private long anchorTime;
+    private boolean stationary = false;
+
+    /**
+     * @param stationaryDelay the time without significant displacement after which the device is stationary, in milliseconds
+     */
+    MotionDetector(long stationaryDelay) {
+        this.stationaryDelay = stationaryDelay;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * @return NO_CHANGE, BECAME_STATIONARY or BECAME_MOVING
+     */
+    int update(double latitude, double longitude, float accuracy, long time) {
+        if (!hasAnchor) {
+            setAnchor(latitude, longitude, accuracy, time);
+            return NO_CHANGE;
+        }
+
+        if (time <= anchorTime) {
+            return NO_CHANGE;
+        }
+
+        double displacement = GeoMath.fastDistance(anchorLatitude, anchorLongitude, latitude, longitude);
+        double noiseFloor = Math.sqrt((double) anchorAccuracy * anchorAccuracy + (double) accuracy * accuracy);
+
+        if (displacement > noiseFloor) {
+            setAnchor(latitude, longitude, accuracy, time);
+
+            if (stationary) {
+                stationary = false;
+                return BECAME_MOVING;
+            }
+        }
+        else {
+            if (accuracy < anchorAccuracy) {
+                // Keep the anchor position but tighten its noise floor
+                anchorAccuracy = accuracy;
+            }
+
+            if (!stationary && time - anchorTime >= stationaryDelay) {
+                stationary = true;
+                return BECAME_STATIONARY;
+            }
+        }
+
+        return NO_CHANGE;
+    }
+
+    boolean isStationary() {
+        return stationary;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void setAnchor(double latitude, double longitude, float accuracy, long time) {
+        hasAnchor = true;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        anchorAccuracy = accuracy;
+        anchorTime = time;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ *
+ * PolylineEncoder
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+/**
+ * Encodes points into the encoded polyline format: coordinates rounded to the precision and
+ * delta-encoded against the previous point, as base64-like variable-length chunks.
+ */
+final class PolylineEncoder implements TrackSimplifier.Sink {
+
+    static final int DEFAULT_PRECISION = 5;
+    // About a centimeter at the equator
+    static final int MAX_PRECISION = 7;
+
+    private final double factor;
+    private final StringBuilder builder = new StringBuilder();
+    private long previousLatitude;
+    private long previousLongitude;
+    private int count;
+
+    /**
+     * @param precision the number of decimals kept, 5 for the usual polyline format
+     */
+    PolylineEncoder(int precision) {
+        factor = Math.pow(10, precision);
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    @Override
+    public void add(double latitude, double longitude) {
+        long scaledLatitude = Math.round(latitude * factor);
+        long scaledLongitude = Math.round(longitude * factor);
+
+        encode(scaledLatitude - previousLatitude, builder);
+        encode(scaledLongitude - previousLongitude, builder);
+
+        previousLatitude = scaledLatitude;
+        previousLongitude = scaledLongitude;
+        count++;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    void reset() {
+        builder.setLength(0);
+        previousLatitude = 0;
+        previousLongitude = 0;
+        count = 0;
+    }
+
+    @Override
+    public String toString() {
+        return builder.toString();
+    }
+
+    /**
+     * Appends a signed value as polyline chunks
+     */
+    static void encode(long value, StringBuilder builder) {
+        value = value < 0 ? ~(value << 1) : value << 1;
+        while (value >= 0x20) {
+            builder.append((char) ((0x20 | (value & 0x1f)) + 63));
+            value >>= 5;
+        }
+        builder.append((char) (value + 63));
+    }
+}
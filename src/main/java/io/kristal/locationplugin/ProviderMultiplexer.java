@@ -0,0 +1,230 @@
+/**
+ *
+ * ProviderMultiplexer
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationProvider;
+import android.os.Bundle;
+import android.os.Looper;
+import android.util.Log;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a single system registration per provider and fans each fix out to every subscriber.
+ * The registration interval of a provider is the tightest interval requested by its subscribers
+ * and is recomputed whenever a subscriber joins or leaves.
+ */
+final class ProviderMultiplexer {
+
+    // TAG
+    private static final String TAG = ProviderMultiplexer.class.getSimpleName();
+
+    /***********************************************************************************************
+     *
+     * SUBSCRIBER
+     *
+     **********************************************************************************************/
+
+    interface Subscriber {
+        void onLocationChanged(Location location);
+        void onProviderEnabled(String provider);
+        void onProviderDisabled(String provider);
+    }
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final LocationSource locationSource;
+    private final Looper looper;
+    private final LocationMetrics metrics;
+    private final Map<String, ProviderRegistration> registrations = new HashMap<>();
+
+    /**
+     * @param locationSource the source of the fixes and provider states
+     * @param looper the looper on which fixes are received and fanned out
+     * @param metrics the counters in which fan-out time is recorded
+     */
+    ProviderMultiplexer(LocationSource locationSource, Looper looper, LocationMetrics metrics) {
+        this.locationSource = locationSource;
+        this.looper = looper;
+        this.metrics = metrics;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Subscribes to the given provider, or updates the interval of an existing subscription
+     * @param subscriber the subscriber receiving the fixes
+     * @param provider the provider name
+     * @param interval the minimum time between fixes wanted by the subscriber, in milliseconds
+     */
+    void subscribe(Subscriber subscriber, String provider, long interval) {
+        ProviderRegistration registration = registrations.get(provider);
+        if (registration == null) {
+            registration = new ProviderRegistration(provider);
+            registrations.put(provider, registration);
+        }
+
+        registration.subscribers.put(subscriber, interval);
+        registration.update();
+    }
+
+    void unsubscribe(Subscriber subscriber, String provider) {
+        ProviderRegistration registration = registrations.get(provider);
+        if (registration != null
+            && registration.subscribers.remove(subscriber) != null) {
+            registration.update();
+        }
+    }
+
+    void unsubscribeAll(Subscriber subscriber) {
+        for (ProviderRegistration registration : registrations.values()) {
+            if (registration.subscribers.remove(subscriber) != null) {
+                registration.update();
+            }
+        }
+    }
+
+    boolean isSubscribed(Subscriber subscriber, String provider) {
+        ProviderRegistration registration = registrations.get(provider);
+        return registration != null && registration.subscribers.containsKey(subscriber);
+    }
+
+    boolean isProviderEnabled(String provider) {
+        return locationSource.isProviderEnabled(provider);
+    }
+
+    Location getLastKnownLocation(String provider) {
+        return locationSource.getLastKnownLocation(provider);
+    }
+
+    /***********************************************************************************************
+     *
+     * PROVIDER REGISTRATION
+     *
+     **********************************************************************************************/
+
+    private final class ProviderRegistration implements android.location.LocationListener {
+        private final String provider;
+        private final int providerIndex;
+        private final Map<Subscriber, Long> subscribers = new HashMap<>();
+        private Subscriber[] fanOut = new Subscriber[0];
+        private long registeredInterval = -1;
+
+        ProviderRegistration(String provider) {
+            this.provider = provider;
+            providerIndex = LocationMetrics.getProviderIndex(provider);
+        }
+
+        /**
+         * Registers, re-registers or unregisters this provider according to its subscribers
+         */
+        void update() {
+            fanOut = subscribers.keySet().toArray(new Subscriber[subscribers.size()]);
+
+            long interval = -1;
+            for (long subscriberInterval : subscribers.values()) {
+                if (interval < 0 || subscriberInterval < interval) {
+                    interval = subscriberInterval;
+                }
+            }
+
+            if (interval == registeredInterval) {
+                return;
+            }
+
+            if (registeredInterval >= 0) {
+                locationSource.removeUpdates(this);
+            }
+            if (interval >= 0) {
+                locationSource.requestUpdates(provider, interval, this, looper);
+            }
+            metrics.recordProviderRegistered(providerIndex, interval >= 0);
+
+            if (Cobalt.DEBUG) {
+                Log.d(TAG, provider + ": interval " + registeredInterval + " -> " + interval
+                           + " for " + subscribers.size() + " subscriber(s)");
+            }
+
+            registeredInterval = interval;
+        }
+
+        @Override
+        public void onLocationChanged(Location location) {
+            long start = System.nanoTime();
+            metrics.recordFixReceived(providerIndex);
+            for (Subscriber subscriber : fanOut) {
+                subscriber.onLocationChanged(location);
+            }
+            metrics.recordProcessing(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle bundle) {
+            switch (status) {
+                case LocationProvider.AVAILABLE:
+                    onProviderEnabled(provider);
+                    break;
+
+                case LocationProvider.OUT_OF_SERVICE:
+                    onProviderDisabled(provider);
+                    break;
+
+                // TODO: How to handle this case?
+                // case LocationProvider.TEMPORARILY_UNAVAILABLE:
+            }
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+            for (Subscriber subscriber : fanOut) {
+                subscriber.onProviderEnabled(provider);
+            }
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+            for (Subscriber subscriber : fanOut) {
+                subscriber.onProviderDisabled(provider);
+            }
+        }
+    }
+}
@@ -0,0 +1,661 @@
+/**
+ *
+ * ReplayLocationSource
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LocationSource streaming a recorded track, to reproduce field behaviour or load the pipeline
+ * off-device.
+ *
+ * Tracks are loaded from CSV, GPX or NMEA and may be mixed with provider enable and disable
+ * events. Once started, events are replayed at their recorded pace divided by the speed factor,
+ * or as fast as the looper allows with a speed of 0. Fix times keep their recorded spacing,
+ * shifted so that the first fix is dated from the start of the replay.
+ *
+ * CSV lines are either "time,latitude,longitude[,accuracy[,provider]]" or
+ * "time,enable|disable,provider", with times in milliseconds. Blank lines, lines starting with #
+ * and a header as first line are ignored.
+ */
+public final class ReplayLocationSource implements LocationSource {
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_GPX = "gpx";
+    public static final String FORMAT_NMEA = "nmea";
+
+    // Accuracy of a fix without accuracy nor HDOP, in meters
+    private static final float DEFAULT_ACCURACY = 10;
+    // Accuracy of a fix per unit of HDOP, in meters
+    private static final float HDOP_ACCURACY = 5;
+    // Events replayed per looper message with a speed of 0
+    private static final int FAST_CHUNK = 256;
+
+    private static final Pattern GPX_POINT = Pattern.compile("<trkpt\\b([^>]*)>(.*?)</trkpt>", Pattern.DOTALL);
+    private static final Pattern GPX_LATITUDE = Pattern.compile("\\blat\\s*=\\s*[\"']([^\"']+)");
+    private static final Pattern GPX_LONGITUDE = Pattern.compile("\\blon\\s*=\\s*[\"']([^\"']+)");
+    private static final Pattern GPX_TIME = Pattern.compile("<time>\\s*([^<]+?)\\s*</time>");
+    private static final Pattern GPX_HDOP = Pattern.compile("<hdop>\\s*([^<]+?)\\s*</hdop>");
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final Handler handler;
+    private final Looper looper;
+    private final double speed;
+
+    private final List<Event> events = new ArrayList<>();
+    private final List<Registration> registrations = new ArrayList<>();
+    private final Set<String> disabledProviders = new HashSet<>();
+    private final Map<String, Location> lastKnownLocations = new HashMap<>();
+    private Location lastKnownLocation;
+
+    private int nextEvent = 0;
+    private long startUptime;
+    private long timeOffset;
+    private boolean replaying = false;
+
+    /**
+     * @param looper the looper driving the replay
+     * @param speed the replay speed factor: 1 for real time, 10 for ten times faster, 0 for as fast as possible
+     */
+    public ReplayLocationSource(Looper looper, double speed) {
+        this.looper = looper;
+        this.speed = speed;
+        handler = new Handler(looper);
+    }
+
+    /***********************************************************************************************
+     *
+     * TIMELINE
+     *
+     **********************************************************************************************/
+
+    /**
+     * Adds a fix to the timeline
+     * @param time the time of the fix, in milliseconds
+     * @param accuracy the accuracy of the fix, in meters
+     */
+    public synchronized void addFix(long time, String provider, double latitude, double longitude, float accuracy) {
+        events.add(new Event(time, provider, latitude, longitude, accuracy));
+    }
+
+    /**
+     * Adds a provider state change to the timeline
+     * @param time the time of the change, in milliseconds
+     */
+    public synchronized void addProviderEvent(long time, String provider, boolean enabled) {
+        events.add(new Event(time, provider, enabled));
+    }
+
+    /**
+     * Changes the state of a provider immediately, e.g. to start the replay with it disabled
+     */
+    public void setProviderEnabled(String provider, boolean enabled) {
+        Registration[] targets;
+        synchronized (this) {
+            if (enabled ? !disabledProviders.remove(provider) : !disabledProviders.add(provider)) {
+                return;
+            }
+            targets = registrations.toArray(new Registration[registrations.size()]);
+        }
+
+        for (Registration registration : targets) {
+            if (registration.provider.equals(provider)) {
+                registration.dispatchProviderState(provider, enabled);
+            }
+        }
+    }
+
+    /**
+     * Adds the events of a track to the timeline
+     * @param format FORMAT_CSV, FORMAT_GPX or FORMAT_NMEA
+     * @throws IOException if the track cannot be read or has a malformed line, named by the message
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public void load(Reader reader, String format) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        switch (format) {
+            case FORMAT_CSV:
+                loadCsv(lines);
+                break;
+            case FORMAT_GPX:
+                loadGpx(lines);
+                break;
+            case FORMAT_NMEA:
+                loadNmea(lines);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown track format " + format);
+        }
+    }
+
+    /**
+     * Starts the replay from the first event
+     */
+    public synchronized void start() {
+        stop();
+
+        // Stable: events at the same time keep their order
+        Collections.sort(events, new Comparator<Event>() {
+            @Override
+            public int compare(Event event1, Event event2) {
+                return event1.time < event2.time ? -1 : (event1.time == event2.time ? 0 : 1);
+            }
+        });
+
+        nextEvent = 0;
+        startUptime = SystemClock.uptimeMillis();
+        timeOffset = events.isEmpty() ? 0 : System.currentTimeMillis() - events.get(0).time;
+        for (Registration registration : registrations) {
+            registration.lastFixTime = Long.MIN_VALUE;
+        }
+
+        replaying = true;
+        handler.post(replayRunnable);
+    }
+
+    public synchronized void stop() {
+        replaying = false;
+        handler.removeCallbacks(replayRunnable);
+    }
+
+    /**
+     * @return true while events remain to be replayed
+     */
+    public synchronized boolean isReplaying() {
+        return replaying;
+    }
+
+    private final Runnable replayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            replay();
+        }
+    };
+
+    private void replay() {
+        long firstTime;
+        synchronized (this) {
+            if (!replaying) {
+                return;
+            }
+            firstTime = events.isEmpty() ? 0 : events.get(0).time;
+        }
+
+        int replayed = 0;
+        while (true) {
+            Event event;
+            synchronized (this) {
+                if (!replaying) {
+                    return;
+                }
+                if (nextEvent == events.size()) {
+                    replaying = false;
+                    return;
+                }
+
+                event = events.get(nextEvent);
+                if (speed > 0) {
+                    long dueUptime = startUptime + (long) ((event.time - firstTime) / speed);
+                    if (dueUptime > SystemClock.uptimeMillis()) {
+                        handler.postAtTime(replayRunnable, dueUptime);
+                        return;
+                    }
+                }
+                else if (replayed == FAST_CHUNK) {
+                    // Lets other messages of the looper run
+                    handler.post(replayRunnable);
+                    return;
+                }
+
+                nextEvent++;
+            }
+
+            if (event.fix) {
+                dispatchFix(event);
+            }
+            else {
+                setProviderEnabled(event.provider, event.enabled);
+            }
+            replayed++;
+        }
+    }
+
+    private void dispatchFix(Event event) {
+        Location location = new Location(event.provider);
+        location.setLatitude(event.latitude);
+        location.setLongitude(event.longitude);
+        location.setAccuracy(event.accuracy);
+        location.setTime(event.time + timeOffset);
+
+        Registration[] targets;
+        synchronized (this) {
+            if (disabledProviders.contains(event.provider)) {
+                return;
+            }
+
+            lastKnownLocations.put(event.provider, location);
+            lastKnownLocation = location;
+            targets = registrations.toArray(new Registration[registrations.size()]);
+        }
+
+        for (Registration registration : targets) {
+            // The passive provider receives the fixes of every provider
+            if ((registration.provider.equals(event.provider)
+                 || LocationManager.PASSIVE_PROVIDER.equals(registration.provider))
+                && (registration.lastFixTime == Long.MIN_VALUE
+                    || event.time - registration.lastFixTime >= registration.interval)) {
+                registration.lastFixTime = event.time;
+                registration.dispatchFix(location);
+            }
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * LOCATION SOURCE
+     *
+     **********************************************************************************************/
+
+    @Override
+    public synchronized void requestUpdates(String provider, long interval, LocationListener listener, Looper looper) {
+        removeUpdates(listener);
+        registrations.add(new Registration(provider, interval, listener, looper));
+    }
+
+    @Override
+    public synchronized void removeUpdates(LocationListener listener) {
+        for (int i = registrations.size() - 1; i >= 0; i--) {
+            if (registrations.get(i).listener == listener) {
+                registrations.remove(i);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Location getLastKnownLocation(String provider) {
+        Location location = LocationManager.PASSIVE_PROVIDER.equals(provider)
+                            ? lastKnownLocation
+                            : lastKnownLocations.get(provider);
+        return location != null ? new Location(location) : null;
+    }
+
+    @Override
+    public synchronized boolean isProviderEnabled(String provider) {
+        return !disabledProviders.contains(provider);
+    }
+
+    /***********************************************************************************************
+     *
+     * PARSERS
+     *
+     **********************************************************************************************/
+
+    private void loadCsv(BufferedReader reader) throws IOException {
+        boolean first = true;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            boolean header = first;
+            first = false;
+
+            String[] fields = line.split("\\s*,\\s*");
+            if (fields.length < 3) {
+                continue;
+            }
+
+            try {
+                long time;
+                try {
+                    time = Long.parseLong(fields[0]);
+                }
+                catch (NumberFormatException e) {
+                    if (header) {
+                        continue;
+                    }
+                    throw e;
+                }
+
+                if ("enable".equals(fields[1]) || "disable".equals(fields[1])) {
+                    addProviderEvent(time, fields[2], "enable".equals(fields[1]));
+                }
+                else {
+                    addFix(time,
+                           fields.length > 4 ? fields[4] : LocationManager.GPS_PROVIDER,
+                           Double.parseDouble(fields[1]),
+                           Double.parseDouble(fields[2]),
+                           fields.length > 3 ? Float.parseFloat(fields[3]) : DEFAULT_ACCURACY);
+                }
+            }
+            catch (NumberFormatException e) {
+                throw malformed(lineNumber, line, e);
+            }
+        }
+    }
+
+    private void loadGpx(BufferedReader reader) throws IOException {
+        StringBuilder content = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) > 0) {
+            content.append(buffer, 0, read);
+        }
+
+        Matcher point = GPX_POINT.matcher(content);
+        int lineNumber = 1;
+        int lineIndex = 0;
+        while (point.find()) {
+            Matcher latitude = GPX_LATITUDE.matcher(point.group(1));
+            Matcher longitude = GPX_LONGITUDE.matcher(point.group(1));
+            Matcher time = GPX_TIME.matcher(point.group(2));
+            if (!latitude.find() || !longitude.find() || !time.find()) {
+                continue;
+            }
+
+            Matcher hdop = GPX_HDOP.matcher(point.group(2));
+            try {
+                addFix(parseIsoTime(time.group(1)),
+                       LocationManager.GPS_PROVIDER,
+                       Double.parseDouble(latitude.group(1)),
+                       Double.parseDouble(longitude.group(1)),
+                       hdop.find() ? Float.parseFloat(hdop.group(1)) * HDOP_ACCURACY : DEFAULT_ACCURACY);
+            }
+            catch (NumberFormatException | IndexOutOfBoundsException e) {
+                // Line of the start of the point
+                for (; lineIndex < point.start(); lineIndex++) {
+                    if (content.charAt(lineIndex) == '\n') {
+                        lineNumber++;
+                    }
+                }
+                throw malformed(lineNumber, point.group(), e);
+            }
+        }
+    }
+
+    /**
+     * Reads the RMC sentences, with the accuracy of the last GGA sentence
+     */
+    private void loadNmea(BufferedReader reader) throws IOException {
+        float accuracy = DEFAULT_ACCURACY;
+
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (!line.startsWith("$") || !hasValidChecksum(line)) {
+                continue;
+            }
+
+            try {
+                accuracy = loadNmeaSentence(line, accuracy);
+            }
+            catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw malformed(lineNumber, line, e);
+            }
+        }
+    }
+
+    /**
+     * Adds the fix of an RMC sentence
+     * @param accuracy the accuracy of the last GGA sentence
+     * @return the accuracy of the sentence if it is a GGA one, the given accuracy otherwise
+     */
+    private float loadNmeaSentence(String line, float accuracy) {
+        int checksum = line.indexOf('*');
+        String[] fields = line.substring(1, checksum >= 0 ? checksum : line.length()).split(",", -1);
+        if (fields[0].length() < 5) {
+            return accuracy;
+        }
+
+        String sentence = fields[0].substring(fields[0].length() - 3);
+        if ("GGA".equals(sentence) && fields.length > 8 && !fields[8].isEmpty()) {
+            return Float.parseFloat(fields[8]) * HDOP_ACCURACY;
+        }
+
+        if ("RMC".equals(sentence) && fields.length > 9 && "A".equals(fields[2])
+            && fields[1].length() >= 6 && fields[9].length() == 6) {
+            // Two-digit years from 80 are in the 1900s
+            int year = Integer.parseInt(fields[9].substring(4, 6));
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            calendar.clear();
+            calendar.set(year < 80 ? 2000 + year : 1900 + year,
+                         Integer.parseInt(fields[9].substring(2, 4)) - 1,
+                         Integer.parseInt(fields[9].substring(0, 2)),
+                         Integer.parseInt(fields[1].substring(0, 2)),
+                         Integer.parseInt(fields[1].substring(2, 4)),
+                         Integer.parseInt(fields[1].substring(4, 6)));
+            long time = calendar.getTimeInMillis();
+            if (fields[1].length() > 7) {
+                time += Math.round(Double.parseDouble("0" + fields[1].substring(6)) * 1000);
+            }
+
+            addFix(time, LocationManager.GPS_PROVIDER,
+                   parseNmeaCoordinate(fields[3], fields[4]),
+                   parseNmeaCoordinate(fields[5], fields[6]),
+                   accuracy);
+        }
+
+        return accuracy;
+    }
+
+    private static IOException malformed(int lineNumber, String line, RuntimeException cause) {
+        return new IOException("Malformed line " + lineNumber + ": " + line, cause);
+    }
+
+    /**
+     * @return true if the sentence has no checksum or a matching one
+     */
+    private static boolean hasValidChecksum(String sentence) {
+        int checksumIndex = sentence.indexOf('*');
+        if (checksumIndex < 0) {
+            return true;
+        }
+
+        int checksum = 0;
+        for (int i = 1; i < checksumIndex; i++) {
+            checksum ^= sentence.charAt(i);
+        }
+
+        try {
+            return checksum == Integer.parseInt(sentence.substring(checksumIndex + 1), 16);
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param value the coordinate as (d)ddmm.mmmm
+     * @param hemisphere N, S, E or W
+     */
+    private static double parseNmeaCoordinate(String value, String hemisphere) {
+        double raw = Double.parseDouble(value);
+        double degrees = Math.floor(raw / 100);
+        double coordinate = degrees + (raw - degrees * 100) / 60;
+        return "S".equals(hemisphere) || "W".equals(hemisphere) ? -coordinate : coordinate;
+    }
+
+    /**
+     * @param value a time as yyyy-MM-ddTHH:mm:ss[.SSS][Z|+hh:mm|-hh:mm]
+     * @return the time in milliseconds
+     */
+    private static long parseIsoTime(String value) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(Integer.parseInt(value.substring(0, 4)),
+                     Integer.parseInt(value.substring(5, 7)) - 1,
+                     Integer.parseInt(value.substring(8, 10)),
+                     Integer.parseInt(value.substring(11, 13)),
+                     Integer.parseInt(value.substring(14, 16)),
+                     Integer.parseInt(value.substring(17, 19)));
+        long time = calendar.getTimeInMillis();
+
+        int index = 19;
+        if (index < value.length() && value.charAt(index) == '.') {
+            int end = index + 1;
+            while (end < value.length() && Character.isDigit(value.charAt(end))) {
+                end++;
+            }
+            time += Math.round(Double.parseDouble("0" + value.substring(index, end)) * 1000);
+            index = end;
+        }
+
+        if (index < value.length() && (value.charAt(index) == '+' || value.charAt(index) == '-')) {
+            int sign = value.charAt(index) == '+' ? 1 : -1;
+            int hours = Integer.parseInt(value.substring(index + 1, index + 3));
+            int minutes = value.length() >= index + 6 ? Integer.parseInt(value.substring(index + 4, index + 6)) : 0;
+            time -= sign * (hours * 60 + minutes) * 60000L;
+        }
+
+        return time;
+    }
+
+    /***********************************************************************************************
+     *
+     * EVENTS
+     *
+     **********************************************************************************************/
+
+    private static final class Event {
+        final long time;
+        final String provider;
+        final boolean fix;
+        final double latitude;
+        final double longitude;
+        final float accuracy;
+        final boolean enabled;
+
+        Event(long time, String provider, double latitude, double longitude, float accuracy) {
+            this.time = time;
+            this.provider = provider;
+            fix = true;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracy = accuracy;
+            enabled = true;
+        }
+
+        Event(long time, String provider, boolean enabled) {
+            this.time = time;
+            this.provider = provider;
+            fix = false;
+            latitude = 0;
+            longitude = 0;
+            accuracy = 0;
+            this.enabled = enabled;
+        }
+    }
+
+    /**
+     * A listener registered for a provider, called on its own looper
+     */
+    private final class Registration {
+        final String provider;
+        final long interval;
+        final LocationListener listener;
+        final Handler listenerHandler;
+        long lastFixTime = Long.MIN_VALUE;
+
+        Registration(String provider, long interval, LocationListener listener, Looper listenerLooper) {
+            this.provider = provider;
+            this.interval = interval;
+            this.listener = listener;
+            // Listeners on the replay looper are called synchronously
+            listenerHandler = listenerLooper != looper ? new Handler(listenerLooper) : null;
+        }
+
+        void dispatchFix(final Location location) {
+            if (listenerHandler == null) {
+                listener.onLocationChanged(location);
+                return;
+            }
+
+            listenerHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onLocationChanged(location);
+                }
+            });
+        }
+
+        void dispatchProviderState(final String provider, final boolean enabled) {
+            Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    if (enabled) {
+                        listener.onProviderEnabled(provider);
+                    }
+                    else {
+                        listener.onProviderDisabled(provider);
+                    }
+                }
+            };
+
+            if (listenerHandler == null) {
+                runnable.run();
+            }
+            else {
+                listenerHandler.post(runnable);
+            }
+        }
+    }
+}
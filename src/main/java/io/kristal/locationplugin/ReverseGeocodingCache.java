@@ -0,0 +1,478 @@
+/**
+ *
+ * ReverseGeocodingCache
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.cobaltians.cobalt.Cobalt;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Caches reverse geocoding results by geohash cell, so that nearby fixes share one lookup.
+ *
+ * Entries expire after their time to live and the least recently used ones are evicted beyond
+ * the memory budget. Cells without address are cached too. Concurrent lookups of the same cell
+ * are coalesced into one backend call, run on the lookup executor. The cache must be used from
+ * the thread of the given handler, on which callbacks are called.
+ *
+ * When a file is given, entries are read from it on the write executor after the first access and
+ * written on the same executor, at most once per WRITE_DELAY. Until they are loaded, the cache is
+ * empty and lookups wait for them rather than calling the backend.
+ * File format: MAGIC (int), VERSION (byte), count (int), then for each entry from the least
+ * recently used: cell (UTF), expiry (long), hasAddress (boolean), then if it has an address,
+ * hasField (boolean) and field (UTF) for each of its six fields.
+ */
+final class ReverseGeocodingCache {
+
+    // TAG
+    private static final String TAG = ReverseGeocodingCache.class.getSimpleName();
+
+    static final int DEFAULT_PRECISION = 7;
+    static final long DEFAULT_TTL = 24 * 60 * 60 * 1000;
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    private static final int MAGIC = 0x52474543;
+    private static final byte VERSION = 1;
+    private static final long WRITE_DELAY = 5000;
+    private static final int ENTRY_SIZE = 80;
+
+    interface Callback {
+        /**
+         * @param address the address of the cell, or null if it has none or the lookup failed
+         */
+        void onAddress(@Nullable GeocodedAddress address);
+    }
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final GeocoderBackend backend;
+    private final Handler handler;
+    private final Executor lookupExecutor;
+    private final File file;
+    private final Executor writeExecutor;
+    private final int precision;
+    private final long ttl;
+    private final int maxBytes;
+
+    // Access ordered: the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, List<Callback>> pendingLookups = new HashMap<>();
+    // Coordinates of the pending lookups waiting for the file to be loaded, by cell
+    private final Map<String, double[]> deferredLookups = new LinkedHashMap<>();
+    private int bytes = 0;
+    private boolean loadStarted = false;
+    private boolean loaded;
+    private boolean writePending = false;
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePending = false;
+            write();
+        }
+    };
+
+    /**
+     * @param handler the handler of the thread using the cache
+     * @param lookupExecutor the executor on which the backend is called
+     * @param file the persistence file, or null to keep the cache in memory only
+     * @param writeExecutor the executor on which the file is written
+     * @param precision the geohash length of the cells
+     * @param ttl the time to live of the entries, in milliseconds
+     * @param maxBytes the memory budget of the entries, in bytes
+     */
+    ReverseGeocodingCache(GeocoderBackend backend, Handler handler, Executor lookupExecutor,
+                          @Nullable File file, Executor writeExecutor, int precision, long ttl, int maxBytes) {
+        this.backend = backend;
+        this.handler = handler;
+        this.lookupExecutor = lookupExecutor;
+        this.file = file;
+        this.writeExecutor = writeExecutor;
+        this.precision = precision;
+        this.ttl = ttl;
+        this.maxBytes = maxBytes;
+        loaded = file == null;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * @return the cell containing the given coordinates
+     */
+    String getCell(double latitude, double longitude) {
+        return Geohash.encode(latitude, longitude, precision);
+    }
+
+    /**
+     * @return true if a result which has not expired is cached for the cell
+     */
+    boolean isCached(String cell) {
+        return getEntry(cell) != null;
+    }
+
+    /**
+     * @return the cached address of the cell, or null if it has none or is not cached
+     */
+    @Nullable
+    GeocodedAddress getCached(String cell) {
+        Entry entry = getEntry(cell);
+        return entry != null ? entry.address : null;
+    }
+
+    /**
+     * Calls back with the address of the cell, right away if it is cached, otherwise once the
+     * lookup of the given coordinates, or of any coordinates of the same cell already pending,
+     * completes
+     */
+    void lookup(final String cell, final double latitude, final double longitude, Callback callback) {
+        Entry entry = getEntry(cell);
+        if (entry != null) {
+            callback.onAddress(entry.address);
+            return;
+        }
+
+        List<Callback> callbacks = pendingLookups.get(cell);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        pendingLookups.put(cell, callbacks);
+
+        if (!loaded) {
+            deferredLookups.put(cell, new double[] { latitude, longitude });
+            return;
+        }
+
+        startLookup(cell, latitude, longitude);
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void startLookup(final String cell, final double latitude, final double longitude) {
+        lookupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                GeocodedAddress address = null;
+                boolean succeeded = false;
+                try {
+                    address = backend.reverseGeocode(latitude, longitude);
+                    succeeded = true;
+                }
+                catch (IOException e) {
+                    if (Cobalt.DEBUG) {
+                        Log.w(TAG, "lookup: unable to reverse geocode " + cell, e);
+                    }
+                }
+                catch (RuntimeException e) {
+                    // e.g. IllegalArgumentException from Geocoder: not cached, but the callbacks are still called
+                    if (Cobalt.DEBUG) {
+                        Log.w(TAG, "lookup: backend failed to reverse geocode " + cell, e);
+                    }
+                }
+
+                final GeocodedAddress result = address;
+                final boolean cache = succeeded;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLookupCompleted(cell, result, cache);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onLookupCompleted(String cell, GeocodedAddress address, boolean cache) {
+        if (cache) {
+            put(cell, new Entry(address, System.currentTimeMillis() + ttl));
+        }
+
+        List<Callback> callbacks = pendingLookups.remove(cell);
+        if (callbacks != null) {
+            for (Callback callback : callbacks) {
+                callback.onAddress(address);
+            }
+        }
+    }
+
+    private Entry getEntry(String cell) {
+        load();
+
+        Entry entry = entries.get(cell);
+        if (entry != null && entry.expiry <= System.currentTimeMillis()) {
+            remove(cell);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Only called once loaded, as lookups wait for the file
+     */
+    private void put(String cell, Entry entry) {
+        remove(cell);
+        entries.put(cell, entry);
+        bytes += entry.size(cell);
+        evict();
+
+        if (file != null && !writePending) {
+            writePending = true;
+            handler.postDelayed(writeRunnable, WRITE_DELAY);
+        }
+    }
+
+    private void remove(String cell) {
+        Entry entry = entries.remove(cell);
+        if (entry != null) {
+            bytes -= entry.size(cell);
+        }
+    }
+
+    /**
+     * Evicts the least recently used entries beyond the budget
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            bytes -= eldest.getValue().size(eldest.getKey());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Reads the file on the write executor, after any pending write, then merges its entries on
+     * the thread of the handler
+     */
+    private void load() {
+        if (loadStarted || loaded) {
+            return;
+        }
+        loadStarted = true;
+
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final LinkedHashMap<String, Entry> fileEntries = read();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(fileEntries);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onLoaded(LinkedHashMap<String, Entry> fileEntries) {
+        loaded = true;
+
+        // The entries read are less recently used than any cached since
+        LinkedHashMap<String, Entry> cachedEntries = new LinkedHashMap<>(entries);
+        entries.clear();
+        bytes = 0;
+        for (Map.Entry<String, Entry> entry : fileEntries.entrySet()) {
+            if (!cachedEntries.containsKey(entry.getKey())) {
+                entries.put(entry.getKey(), entry.getValue());
+                bytes += entry.getValue().size(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, Entry> entry : cachedEntries.entrySet()) {
+            entries.put(entry.getKey(), entry.getValue());
+            bytes += entry.getValue().size(entry.getKey());
+        }
+        evict();
+
+        Map<String, double[]> lookups = new LinkedHashMap<>(deferredLookups);
+        deferredLookups.clear();
+        for (Map.Entry<String, double[]> lookup : lookups.entrySet()) {
+            String cell = lookup.getKey();
+            Entry entry = getEntry(cell);
+            if (entry != null) {
+                onLookupCompleted(cell, entry.address, false);
+            }
+            else {
+                startLookup(cell, lookup.getValue()[0], lookup.getValue()[1]);
+            }
+        }
+    }
+
+    /**
+     * @return the entries of the file which have not expired, from the least recently used, or
+     * none if it is missing or unreadable
+     */
+    private LinkedHashMap<String, Entry> read() {
+        LinkedHashMap<String, Entry> fileEntries = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return fileEntries;
+        }
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+                return fileEntries;
+            }
+
+            long now = System.currentTimeMillis();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String cell = input.readUTF();
+                long expiry = input.readLong();
+                GeocodedAddress address = null;
+                if (input.readBoolean()) {
+                    address = new GeocodedAddress(readString(input), readString(input), readString(input),
+                                                  readString(input), readString(input), readString(input));
+                }
+
+                if (expiry > now) {
+                    fileEntries.put(cell, new Entry(address, expiry));
+                }
+            }
+        }
+        catch (IOException e) {
+            // A truncated or corrupted file only costs the cached addresses
+            fileEntries.clear();
+
+            if (Cobalt.DEBUG) {
+                Log.w(TAG, "load: unable to read " + file, e);
+            }
+        }
+        finally {
+            CacheFiles.close(input);
+        }
+        return fileEntries;
+    }
+
+    private void write() {
+        final byte[] content;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(buffer);
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeLong(entry.getValue().expiry);
+
+                GeocodedAddress address = entry.getValue().address;
+                output.writeBoolean(address != null);
+                if (address != null) {
+                    writeString(output, address.getLine());
+                    writeString(output, address.getThoroughfare());
+                    writeString(output, address.getLocality());
+                    writeString(output, address.getPostalCode());
+                    writeString(output, address.getCountryName());
+                    writeString(output, address.getCountryCode());
+                }
+            }
+            output.flush();
+            content = buffer.toByteArray();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CacheFiles.writeAtomically(file, content);
+            }
+        });
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * ENTRY
+     *
+     **********************************************************************************************/
+
+    private static final class Entry {
+        final GeocodedAddress address;
+        final long expiry;
+
+        Entry(GeocodedAddress address, long expiry) {
+            this.address = address;
+            this.expiry = expiry;
+        }
+
+        /**
+         * @return a rough estimate of the memory used by the entry, in bytes
+         */
+        int size(String cell) {
+            return ENTRY_SIZE + 2 * cell.length() + (address != null ? address.estimateSize() : 0);
+        }
+    }
+}
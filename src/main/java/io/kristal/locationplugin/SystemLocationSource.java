@@ -0,0 +1,68 @@
+/**
+ *
+ * SystemLocationSource
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Looper;
+
+/**
+ * Default LocationSource, backed by the system LocationManager
+ */
+final class SystemLocationSource implements LocationSource {
+
+    private final LocationManager locationManager;
+
+    SystemLocationSource(LocationManager locationManager) {
+        this.locationManager = locationManager;
+    }
+
+    @Override
+    public void requestUpdates(String provider, long interval, LocationListener listener, Looper looper) {
+        locationManager.requestLocationUpdates(provider, interval, 0, listener, looper);
+    }
+
+    @Override
+    public void removeUpdates(LocationListener listener) {
+        locationManager.removeUpdates(listener);
+    }
+
+    @Override
+    public Location getLastKnownLocation(String provider) {
+        return locationManager.getLastKnownLocation(provider);
+    }
+
+    @Override
+    public boolean isProviderEnabled(String provider) {
+        return locationManager.isProviderEnabled(provider);
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ *
+ * TimeoutScheduler
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Hashed timing wheel running every plugin timeout on a single Handler, instead of one Timer
+ * thread per listener. Scheduling and cancelling a timeout are O(1); the wheel only ticks while
+ * timeouts are pending.
+ */
+final class TimeoutScheduler {
+
+    private static final long TICK_DURATION = 100;
+    private static final int WHEEL_SIZE = 512;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /***********************************************************************************************
+     *
+     * TIMEOUT
+     *
+     **********************************************************************************************/
+
+    final class Timeout {
+        private final Runnable task;
+        private long rounds;
+        private int bucket = -1;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Cancels this timeout if it did not fire yet
+         */
+        void cancel() {
+            synchronized (TimeoutScheduler.this) {
+                unlink(this);
+            }
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final Handler handler;
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+    private int cursor;
+    private int pending;
+    private long nextTickTime;
+
+    private final Runnable tickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    TimeoutScheduler(Handler handler) {
+        this.handler = handler;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Runs the given task on the scheduler Handler after the given delay, rounded up to the tick
+     * @param task the task to run
+     * @param delay the delay in milliseconds
+     * @return the timeout, to be cancelled if the task must not run anymore
+     */
+    synchronized Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(task);
+
+        long now = SystemClock.uptimeMillis();
+        if (pending++ == 0) {
+            nextTickTime = now + TICK_DURATION;
+            handler.postAtTime(tickRunnable, nextTickTime);
+        }
+
+        // Ticks are counted from the time of the cursor tick, which may be up to a tick ago
+        long elapsed = now - (nextTickTime - TICK_DURATION);
+        long ticks = Math.max(1, (delay + elapsed + TICK_DURATION - 1) / TICK_DURATION);
+        timeout.rounds = (ticks - 1) / WHEEL_SIZE;
+        timeout.bucket = (int) ((cursor + ticks) & WHEEL_MASK);
+
+        timeout.next = wheel[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        wheel[timeout.bucket] = timeout;
+
+        return timeout;
+    }
+
+    synchronized int getPendingCount() {
+        return pending;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void unlink(Timeout timeout) {
+        if (timeout.bucket < 0) {
+            return;
+        }
+
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        }
+        else {
+            wheel[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+
+        if (--pending == 0) {
+            handler.removeCallbacks(tickRunnable);
+        }
+    }
+
+    private void tick() {
+        Timeout expired = null;
+
+        synchronized (this) {
+            cursor = (cursor + 1) & WHEEL_MASK;
+
+            Timeout timeout = wheel[cursor];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                }
+                else {
+                    unlink(timeout);
+                    timeout.next = expired;
+                    expired = timeout;
+                }
+                timeout = next;
+            }
+
+            if (pending > 0) {
+                // Ticks are scheduled against the previous tick so the wheel does not drift
+                nextTickTime += TICK_DURATION;
+                handler.postAtTime(tickRunnable, Math.max(nextTickTime, SystemClock.uptimeMillis()));
+            }
+        }
+
+        // Tasks run outside the lock as they may schedule or cancel other timeouts
+        while (expired != null) {
+            Timeout next = expired.next;
+            expired.next = null;
+            expired.task.run();
+            expired = next;
+        }
+    }
+}
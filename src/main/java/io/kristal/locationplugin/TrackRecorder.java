@@ -0,0 +1,349 @@
+/**
+ *
+ * TrackRecorder
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records fixes into a fixed-size ring of binary records in a memory-mapped file.
+ * Appending a fix only writes into the mapping and does not allocate. Records are appended in
+ * time order, so time ranges are found by binary search.
+ *
+ * Header (HEADER_SIZE bytes): MAGIC (int), VERSION (int), capacity (int), RECORD_SIZE (int),
+ * count of records ever written (long).
+ * Record (RECORD_SIZE bytes): time (long), latitude * 1e7 (int), longitude * 1e7 (int),
+ * accuracy (float), provider id (byte), padding, sequence (long).
+ *
+ * The sequence of a record is its index + 1, and the header count is updated after the record.
+ * On opening, a header count that does not end at the last record, e.g. after a crash, is
+ * recovered from the highest sequence found in the records.
+ */
+final class TrackRecorder {
+
+    private static final int MAGIC = 0x54524B31;
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+
+    /**
+     * 2^22 records, a 128 MB file or about 48 days at one fix per second. The whole file is mapped
+     * and addressed with int offsets, so it must stay far below 2 GB.
+     */
+    static final int MAX_CAPACITY = 1 << 22;
+
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_RECORD_SIZE = 12;
+    private static final int HEADER_COUNT = 16;
+
+    private static final int RECORD_TIME = 0;
+    private static final int RECORD_LATITUDE = 8;
+    private static final int RECORD_LONGITUDE = 12;
+    private static final int RECORD_ACCURACY = 16;
+    private static final int RECORD_PROVIDER = 20;
+    private static final int RECORD_SEQUENCE = 24;
+
+    private static final double COORDINATE_SCALE = 1e7;
+
+    static final byte PROVIDER_UNKNOWN = 0;
+    static final byte PROVIDER_GPS = 1;
+    static final byte PROVIDER_NETWORK = 2;
+    static final byte PROVIDER_PASSIVE = 3;
+    static final byte PROVIDER_FUSED = 4;
+
+    // Provider names as defined by android.location.LocationManager
+    private static final String[] PROVIDER_NAMES = {null, "gps", "network", "passive", "fused"};
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long count;
+
+    /**
+     * Opens or creates the track file. An existing file with another capacity or format is reset.
+     * @param file the track file
+     * @param capacity the maximum number of records kept, at most MAX_CAPACITY
+     */
+    TrackRecorder(File file, int capacity) throws IOException {
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity " + capacity + " is greater than " + MAX_CAPACITY);
+        }
+
+        this.capacity = Math.max(1, capacity);
+        this.file = new RandomAccessFile(file, "rw");
+
+        try {
+            long length = HEADER_SIZE + (long) this.capacity * RECORD_SIZE;
+            boolean reset = this.file.length() != length;
+
+            buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (!reset) {
+                reset = buffer.getInt(0) != MAGIC
+                        || buffer.getInt(4) != VERSION
+                        || buffer.getInt(HEADER_CAPACITY) != this.capacity
+                        || buffer.getInt(HEADER_RECORD_SIZE) != RECORD_SIZE;
+            }
+
+            if (reset) {
+                for (int i = 0; i < length; i += 8) {
+                    buffer.putLong(i, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(HEADER_CAPACITY, this.capacity);
+                buffer.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+                buffer.putLong(HEADER_COUNT, 0);
+                count = 0;
+            }
+            else {
+                count = recover(buffer.getLong(HEADER_COUNT));
+                buffer.putLong(HEADER_COUNT, count);
+            }
+        }
+        catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the capacity of an existing track file, or the given capacity if there is none or
+     * its capacity is out of range
+     */
+    static int readCapacity(File file, int defaultCapacity) {
+        if (!file.exists()) {
+            return defaultCapacity;
+        }
+
+        RandomAccessFile input = null;
+        try {
+            input = new RandomAccessFile(file, "r");
+            byte[] header = new byte[HEADER_SIZE];
+            input.readFully(header);
+
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            int capacity = headerBuffer.getInt(HEADER_CAPACITY);
+            if (headerBuffer.getInt(0) == MAGIC && headerBuffer.getInt(4) == VERSION
+                && capacity >= 1 && capacity <= MAX_CAPACITY) {
+                return capacity;
+            }
+        }
+        catch (IOException ignored) {
+
+        }
+        finally {
+            if (input != null) {
+                try {
+                    input.close();
+                }
+                catch (IOException ignored) {
+
+                }
+            }
+        }
+
+        return defaultCapacity;
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Appends a fix. Fixes not newer than the last recorded one are ignored to keep the time order.
+     * @return true if the fix was recorded
+     */
+    boolean append(double latitude, double longitude, float accuracy, long time, byte provider) {
+        if (count > 0 && time <= getTime(count - 1)) {
+            return false;
+        }
+
+        int offset = offset(count);
+        buffer.putLong(offset + RECORD_TIME, time);
+        buffer.putInt(offset + RECORD_LATITUDE, (int) Math.round(latitude * COORDINATE_SCALE));
+        buffer.putInt(offset + RECORD_LONGITUDE, (int) Math.round(longitude * COORDINATE_SCALE));
+        buffer.putFloat(offset + RECORD_ACCURACY, accuracy);
+        buffer.put(offset + RECORD_PROVIDER, provider);
+        buffer.putLong(offset + RECORD_SEQUENCE, count + 1);
+
+        count++;
+        buffer.putLong(HEADER_COUNT, count);
+        return true;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of records currently kept
+     */
+    int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    /**
+     * @return the index of the oldest record kept
+     */
+    long firstIndex() {
+        return count - size();
+    }
+
+    /**
+     * @return the index after the newest record
+     */
+    long endIndex() {
+        return count;
+    }
+
+    /**
+     * @return the index of the first kept record with a time greater than or equal to the given time
+     */
+    long lowerBound(long time) {
+        long low = firstIndex();
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getTime(middle) < time) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    long getTime(long index) {
+        return buffer.getLong(offset(index) + RECORD_TIME);
+    }
+
+    double getLatitude(long index) {
+        return buffer.getInt(offset(index) + RECORD_LATITUDE) / COORDINATE_SCALE;
+    }
+
+    double getLongitude(long index) {
+        return buffer.getInt(offset(index) + RECORD_LONGITUDE) / COORDINATE_SCALE;
+    }
+
+    float getAccuracy(long index) {
+        return buffer.getFloat(offset(index) + RECORD_ACCURACY);
+    }
+
+    byte getProvider(long index) {
+        return buffer.get(offset(index) + RECORD_PROVIDER);
+    }
+
+    /**
+     * Writes the mapping to the storage device
+     */
+    void flush() {
+        buffer.force();
+    }
+
+    void close() {
+        flush();
+        try {
+            file.close();
+        }
+        catch (IOException ignored) {
+
+        }
+    }
+
+    static byte getProviderId(String provider) {
+        for (byte id = 1; id < PROVIDER_NAMES.length; id++) {
+            if (PROVIDER_NAMES[id].equals(provider)) {
+                return id;
+            }
+        }
+        return PROVIDER_UNKNOWN;
+    }
+
+    static String getProviderName(byte id) {
+        return id > 0 && id < PROVIDER_NAMES.length ? PROVIDER_NAMES[id] : null;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * At most HEADER_SIZE + MAX_CAPACITY * RECORD_SIZE, which fits an int
+     */
+    private int offset(long index) {
+        return HEADER_SIZE + (int) (index % capacity) * RECORD_SIZE;
+    }
+
+    private boolean isValid(long index) {
+        return index >= 0 && buffer.getLong(offset(index) + RECORD_SEQUENCE) == index + 1;
+    }
+
+    /**
+     * @param headerCount the record count read from the header
+     * @return the count of records actually written
+     */
+    private long recover(long headerCount) {
+        // Header up to date, e.g. after a clean close
+        if (headerCount > 0 && isValid(headerCount - 1) && !isValid(headerCount)) {
+            return headerCount;
+        }
+
+        // Header behind or ahead of its records, possibly by more than a ring, or corrupted
+        long recovered = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long sequence = buffer.getLong(HEADER_SIZE + slot * RECORD_SIZE + RECORD_SEQUENCE);
+            if (sequence > recovered && (sequence - 1) % capacity == slot) {
+                recovered = sequence;
+            }
+        }
+
+        return recovered;
+    }
+}
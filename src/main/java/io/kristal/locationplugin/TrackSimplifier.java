@@ -0,0 +1,170 @@
+/**
+ *
+ * TrackSimplifier
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+/**
+ * Streaming track simplification with a bounded buffer (opening window).
+ * Points are buffered after the last kept point, the anchor. When a buffered point deviates from
+ * the segment between the anchor and the new point by more than the tolerance, the point before
+ * the new one is kept and becomes the anchor. A full buffer also keeps its last point, so memory
+ * stays bounded and the deviation of every dropped point stays under the tolerance.
+ */
+final class TrackSimplifier {
+
+    /**
+     * Receives the points kept by the simplifier
+     */
+    interface Sink {
+        void add(double latitude, double longitude);
+    }
+
+    static final double DEFAULT_TOLERANCE = 10;
+    static final int DEFAULT_WINDOW = 64;
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final double tolerance;
+    private final Sink sink;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private int size = 0;
+
+    private boolean hasAnchor = false;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private double metersPerLongitudeDegree;
+
+    /**
+     * @param tolerance the maximum deviation of a dropped point from the simplified track, in meters
+     * @param window the maximum number of points buffered after the anchor
+     * @param sink the receiver of the kept points
+     */
+    TrackSimplifier(double tolerance, int window, Sink sink) {
+        this.tolerance = tolerance;
+        this.sink = sink;
+        latitudes = new double[Math.max(2, window)];
+        longitudes = new double[Math.max(2, window)];
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    void add(double latitude, double longitude) {
+        if (!hasAnchor) {
+            keep(latitude, longitude);
+            return;
+        }
+
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        size++;
+
+        if (size >= 2 && exceedsTolerance()) {
+            // The previous point is the last one the segment from the anchor can reach
+            keep(latitudes[size - 2], longitudes[size - 2]);
+
+            latitudes[0] = latitude;
+            longitudes[0] = longitude;
+            size = 1;
+        }
+
+        if (size == latitudes.length) {
+            keep(latitudes[size - 1], longitudes[size - 1]);
+        }
+    }
+
+    /**
+     * Keeps the last buffered point, ending the track
+     */
+    void finish() {
+        if (size > 0) {
+            keep(latitudes[size - 1], longitudes[size - 1]);
+        }
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    private void keep(double latitude, double longitude) {
+        sink.add(latitude, longitude);
+
+        hasAnchor = true;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        metersPerLongitudeDegree = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        size = 0;
+    }
+
+    /**
+     * @return true if a buffered point is farther than the tolerance from the segment between the
+     * anchor and the newest point
+     */
+    private boolean exceedsTolerance() {
+        double endX = x(longitudes[size - 1]);
+        double endY = y(latitudes[size - 1]);
+        double lengthSquared = endX * endX + endY * endY;
+
+        for (int i = 0; i < size - 1; i++) {
+            double pointX = x(longitudes[i]);
+            double pointY = y(latitudes[i]);
+
+            double t = lengthSquared > 0 ? (pointX * endX + pointY * endY) / lengthSquared : 0;
+            t = Math.max(0, Math.min(1, t));
+
+            double dx = pointX - t * endX;
+            double dy = pointY - t * endY;
+            if (dx * dx + dy * dy > tolerance * tolerance) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private double x(double longitude) {
+        return GeoMath.wrapLongitude(longitude - anchorLongitude) * metersPerLongitudeDegree;
+    }
+
+    private double y(double latitude) {
+        return (latitude - anchorLatitude) * GeoMath.METERS_PER_DEGREE;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ *
+ * WeightedFusion
+ * Location
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2014 Kristal
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ */
+
+
+package io.kristal.locationplugin;
+
+import android.location.Location;
+
+/**
+ * Combines the recent fixes of all providers into an inverse-variance weighted location.
+ * Only the newest fix of each provider is kept, as successive fixes of one provider are
+ * correlated, and only within a sliding time window, relative to the newest fix. The variance of
+ * an older fix grows with its age at the assumed speed, as the device may have moved since.
+ * The fused location is never reported as more accurate than its best fix, nor newer than its
+ * oldest one. Fixes are stored in arrays; only the fused Location is allocated per fix.
+ */
+final class WeightedFusion implements LocationFusion {
+
+    static final String FUSED_PROVIDER = "fused";
+
+    static final long DEFAULT_WINDOW = 10000;
+    static final float DEFAULT_SPEED = 2;
+
+    private static final int CAPACITY = 16;
+    private static final float MIN_ACCURACY = 1;
+    private static final float UNKNOWN_ACCURACY = 10000;
+
+    /***********************************************************************************************
+     *
+     * MEMBERS
+     *
+     **********************************************************************************************/
+
+    private final long window;
+    private final float speed;
+
+    private final String[] providers = new String[CAPACITY];
+    private final double[] latitudes = new double[CAPACITY];
+    private final double[] longitudes = new double[CAPACITY];
+    private final float[] accuracies = new float[CAPACITY];
+    private final long[] times = new long[CAPACITY];
+    private int count = 0;
+    private long newestTime = Long.MIN_VALUE;
+
+    private Location bestLocation;
+
+    /**
+     * @param window the sliding window duration, in milliseconds
+     * @param speed the speed at which the uncertainty of a fix grows with its age, in meters per second
+     */
+    WeightedFusion(long window, float speed) {
+        this.window = Math.max(0, window);
+        this.speed = Math.max(0, speed);
+    }
+
+    /***********************************************************************************************
+     *
+     * METHODS
+     *
+     **********************************************************************************************/
+
+    @Override
+    public Location add(Location location) {
+        long time = location.getTime();
+        if (count > 0 && time < newestTime - window) {
+            // Too old to be part of the window
+            return bestLocation;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (times[i] == time
+                && latitudes[i] == location.getLatitude()
+                && longitudes[i] == location.getLongitude()) {
+                // Same fix received through another provider, e.g. PASSIVE
+                return bestLocation;
+            }
+        }
+
+        int index = indexOf(location.getProvider());
+        if (index >= 0 && times[index] > time) {
+            // Older than the fix already kept for this provider
+            return bestLocation;
+        }
+
+        if (time > newestTime) {
+            newestTime = time;
+        }
+
+        if (index >= 0) {
+            set(index, location);
+            evict();
+        }
+        else {
+            evict();
+            append(location);
+        }
+
+        bestLocation = fuse();
+        return bestLocation;
+    }
+
+    @Override
+    public Location getBestLocation() {
+        return bestLocation;
+    }
+
+    /***********************************************************************************************
+     *
+     * HELPERS
+     *
+     **********************************************************************************************/
+
+    /**
+     * Removes the fixes out of the window, keeping the others in place
+     */
+    private void evict() {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (times[i] >= newestTime - window) {
+                if (kept != i) {
+                    providers[kept] = providers[i];
+                    latitudes[kept] = latitudes[i];
+                    longitudes[kept] = longitudes[i];
+                    accuracies[kept] = accuracies[i];
+                    times[kept] = times[i];
+                }
+                kept++;
+            }
+        }
+        for (int i = kept; i < count; i++) {
+            providers[i] = null;
+        }
+        count = kept;
+    }
+
+    private int indexOf(String provider) {
+        for (int i = 0; i < count; i++) {
+            if (provider == null ? providers[i] == null : provider.equals(providers[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(Location location) {
+        int index = count;
+        if (count == CAPACITY) {
+            // Window full: replace the oldest fix
+            index = 0;
+            for (int i = 1; i < count; i++) {
+                if (times[i] < times[index]) {
+                    index = i;
+                }
+            }
+        }
+        else {
+            count++;
+        }
+
+        set(index, location);
+    }
+
+    private void set(int index, Location location) {
+        providers[index] = location.getProvider();
+        latitudes[index] = location.getLatitude();
+        longitudes[index] = location.getLongitude();
+        accuracies[index] = location.hasAccuracy() ? Math.max(location.getAccuracy(), MIN_ACCURACY) : UNKNOWN_ACCURACY;
+        times[index] = location.getTime();
+    }
+
+    private Location fuse() {
+        // Longitudes are averaged relative to the first fix so the antimeridian does not break the mean
+        double referenceLongitude = longitudes[0];
+        double weightSum = 0;
+        double latitudeSum = 0;
+        double longitudeSum = 0;
+        double bestSigma = Double.MAX_VALUE;
+        long oldestTime = newestTime;
+
+        for (int i = 0; i < count; i++) {
+            double sigma = accuracies[i] + speed * (newestTime - times[i]) / 1000.0;
+            double weight = 1 / (sigma * sigma);
+            bestSigma = Math.min(bestSigma, sigma);
+            oldestTime = Math.min(oldestTime, times[i]);
+
+            weightSum += weight;
+            latitudeSum += weight * latitudes[i];
+            longitudeSum += weight * GeoMath.wrapLongitude(longitudes[i] - referenceLongitude);
+        }
+
+        Location fused = new Location(FUSED_PROVIDER);
+        fused.setLatitude(latitudeSum / weightSum);
+        fused.setLongitude(GeoMath.wrapLongitude(referenceLongitude + longitudeSum / weightSum));
+        // sqrt(1 / weightSum) would assume the errors of the providers are independent
+        fused.setAccuracy((float) bestSigma);
+        fused.setTime(oldestTime);
+        return fused;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ *
+ * location-compact-decoder.js
+ * Location
+ *
+ * Decodes the payloads of onCompactLocationsChanged messages, sent when startLocation is called
+ * with "format": "compact". Keep one decoder per page: payloads are delta-encoded against the
+ * previous fix sent to the same fragment.
+ *
+ * var decoder = new CobaltLocationCompactDecoder();
+ * var locations = decoder.decode(data.compact);
+ * // [{latitude: 48.8566, longitude: 2.3522, accuracy: 12.5, timestamp: 1475000000000}, ...]
+ *
+ */
+
+(function(root) {
+    'use strict';
+
+    function CobaltLocationCompactDecoder() {
+        this.reset();
+    }
+
+    CobaltLocationCompactDecoder.prototype.reset = function() {
+        this.latitude = 0;
+        this.longitude = 0;
+        this.accuracy = 0;
+        this.timestamp = 0;
+    };
+
+    CobaltLocationCompactDecoder.prototype.decode = function(payload) {
+        var locations = [];
+        var index = 1;
+
+        // 'K' starts again from zero, 'D' continues from the previous payload
+        if (payload.charAt(0) === 'K') {
+            this.reset();
+        }
+
+        function next() {
+            var result = 0;
+            var shift = 0;
+            var chunk;
+            do {
+                chunk = payload.charCodeAt(index++) - 63;
+                // Multiplication instead of bit shifts: timestamps exceed 32 bits
+                result += (chunk & 0x1f) * Math.pow(2, shift);
+                shift += 5;
+            } while (chunk >= 0x20);
+            return result % 2 === 1 ? -(result + 1) / 2 : result / 2;
+        }
+
+        while (index < payload.length) {
+            this.latitude += next();
+            this.longitude += next();
+            this.accuracy += next();
+            this.timestamp += next();
+
+            locations.push({
+                latitude: this.latitude / 1e6,
+                longitude: this.longitude / 1e6,
+                accuracy: this.accuracy / 10,
+                timestamp: this.timestamp
+            });
+        }
+
+        return locations;
+    };
+
+    root.CobaltLocationCompactDecoder = CobaltLocationCompactDecoder;
+})(this);